@@ -0,0 +1,133 @@
+package org.cis120.chinesechess;
+
+/**
+ * The first layer sums of a Network for both sides of a position, kept up to
+ * date as pieces are put, removed and moved. A Position with an accumulator
+ * (see Position.setAccumulator()) reports every change to it, so unmaking a
+ * move undoes its update the same way.
+ *
+ * When a side's own general moves, all of that side's features change. The
+ * side's sums are then only marked stale, and computed again from the
+ * position the next time the position is evaluated.
+ *
+ */
+public class Accumulator {
+
+    private final Network network;
+    private final short[][] sums; // by side
+    private final int[] buckets = new int[2]; // bucket of each side's general
+    private final boolean[] stale = new boolean[2]; // sums must be computed again
+
+    /**
+     * Constructor
+     *
+     * @param network the network whose first layer is accumulated
+     */
+    public Accumulator(Network network) {
+        this.network = network;
+        this.sums = new short[2][network.getHidden()];
+        reset();
+    }
+
+    /**
+     * Marks the sums of both sides stale, e.g. before the accumulator is
+     * given to another position.
+     */
+    public void reset() {
+        stale[Position.RED] = true;
+        stale[Position.BLACK] = true;
+    }
+
+    // **************************************************************************
+    // * UPDATES (called by Position)
+    // **************************************************************************
+
+    /**
+     * A piece was put on a square.
+     */
+    void add(int code, int sq) {
+        for (int side = 0; side < 2; side++) {
+            if (isOwnGeneral(side, code)) {
+                stale[side] = true;
+            } else if (!stale[side]) {
+                network.add(sums[side], Network.feature(side, buckets[side], code, sq));
+            }
+        }
+    }
+
+    /**
+     * A piece was removed from a square.
+     */
+    void remove(int code, int sq) {
+        for (int side = 0; side < 2; side++) {
+            if (isOwnGeneral(side, code)) {
+                stale[side] = true;
+            } else if (!stale[side]) {
+                network.subtract(sums[side], Network.feature(side, buckets[side], code, sq));
+            }
+        }
+    }
+
+    /**
+     * A piece moved from one square to another (after any capture on the
+     * destination was removed).
+     */
+    void move(int code, int from, int to) {
+        for (int side = 0; side < 2; side++) {
+            if (isOwnGeneral(side, code)) {
+                stale[side] = true;
+            } else if (!stale[side]) {
+                network.replace(sums[side], Network.feature(side, buckets[side], code, from),
+                        Network.feature(side, buckets[side], code, to));
+            }
+        }
+    }
+
+    // **************************************************************************
+    // * EVALUATION
+    // **************************************************************************
+
+    /**
+     * Evaluates the position this accumulator follows.
+     *
+     * @param pos the position
+     * @return the score for the side to move, in centipawns
+     */
+    public int evaluate(Position pos) {
+        for (int side = 0; side < 2; side++) {
+            if (stale[side]) {
+                refresh(pos, side);
+            }
+        }
+        int us = pos.getSideToMove();
+        return network.output(sums[us], sums[1 - us]);
+    }
+
+    /**
+     * Helper for evaluate: computes the sums of one side from scratch.
+     */
+    private void refresh(Position pos, int side) {
+        int generalSq = pos.generalSquare(side);
+        int bucket = (generalSq < 0) ? 0 : Network.bucket(side, generalSq);
+        buckets[side] = bucket;
+        network.initialize(sums[side]);
+        int general = Position.code(side, PieceType.GENERAL);
+        for (int code = 1; code < Position.PIECE_CODES; code++) {
+            if (code != general) {
+                for (int i = 0; i < pos.pieceCount(code); i++) {
+                    int sq = pos.pieceSquare(code, i);
+                    network.add(sums[side], Network.feature(side, bucket, code, sq));
+                }
+            }
+        }
+        stale[side] = false;
+    }
+
+    /**
+     * Helper for the updates: whether a piece is a side's own general.
+     */
+    private static boolean isOwnGeneral(int side, int code) {
+        return Position.typeOf(code) == PieceType.GENERAL.ordinal()
+                && Position.sideOf(code) == side;
+    }
+}
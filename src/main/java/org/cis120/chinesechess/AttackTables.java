@@ -0,0 +1,293 @@
+package org.cis120.chinesechess;
+
+/**
+ * Lookup tables for move generation and attack detection, generated once when
+ * the class is loaded.
+ *
+ * Horse and elephant tables list, for every square, the target squares
+ * together with the square that blocks each target (the horse's leg or the
+ * elephant's eye). Guard, general and soldier moves cannot be blocked, so
+ * their tables are plain bitboards indexed by side and square. Off-board
+ * targets never appear in the tables; they are found by walking Mailbox
+ * offsets until a sentinel cell is reached.
+ *
+ * Chariot and cannon tables are indexed by a piece's place on its rank or file
+ * and by the occupancy pattern of that line (one bit per square, 9 bits for a
+ * rank and 10 bits for a file). Each entry is the pattern of squares the piece
+ * reaches on that line: chariot moves (including the capture of the first
+ * piece met), cannon quiet moves, and cannon captures over a screen. Line
+ * patterns are turned back into bitboards with rankLo/rankHi and
+ * fileLo/fileHi.
+ *
+ * Reverse tables answer the opposite question for attack detection: which
+ * squares a piece would have to stand on to attack a given square. Horse
+ * entries keep the leg of the attacking horse, which is next to the horse and
+ * not next to the attacked square. Elephant moves are symmetric, so the
+ * forward elephant table is its own reverse.
+ *
+ * Note: The tables follow the move rules in the Piece subclasses, so elephants
+ * are not restricted to their own side of the river.
+ *
+ */
+public final class AttackTables {
+
+    // horse targets by square, and the leg square that must be empty for each
+    static final int[][] HORSE_TO = new int[Bitboard.SQUARES][];
+    static final int[][] HORSE_LEG = new int[Bitboard.SQUARES][];
+
+    // elephant targets by square, and the eye square that must be empty for each
+    static final int[][] ELEPHANT_TO = new int[Bitboard.SQUARES][];
+    static final int[][] ELEPHANT_EYE = new int[Bitboard.SQUARES][];
+
+    // unblockable attack sets by [side][square]
+    static final long[][] SOLDIER_LO = new long[2][Bitboard.SQUARES];
+    static final long[][] SOLDIER_HI = new long[2][Bitboard.SQUARES];
+    static final long[][] GUARD_LO = new long[2][Bitboard.SQUARES];
+    static final long[][] GUARD_HI = new long[2][Bitboard.SQUARES];
+    static final long[][] GENERAL_LO = new long[2][Bitboard.SQUARES];
+    static final long[][] GENERAL_HI = new long[2][Bitboard.SQUARES];
+
+    // reverse tables: squares a piece could attack a square from
+    static final int[][] HORSE_FROM = new int[Bitboard.SQUARES][];
+    static final int[][] HORSE_FROM_LEG = new int[Bitboard.SQUARES][];
+    static final long[][] SOLDIER_FROM_LO = new long[2][Bitboard.SQUARES];
+    static final long[][] SOLDIER_FROM_HI = new long[2][Bitboard.SQUARES];
+    static final long[][] GUARD_FROM_LO = new long[2][Bitboard.SQUARES];
+    static final long[][] GUARD_FROM_HI = new long[2][Bitboard.SQUARES];
+    static final long[][] GENERAL_FROM_LO = new long[2][Bitboard.SQUARES];
+    static final long[][] GENERAL_FROM_HI = new long[2][Bitboard.SQUARES];
+
+    // sliding attack patterns by [place on line][line occupancy]
+    static final int[][] RANK_CHARIOT = new int[Bitboard.FILES][1 << Bitboard.FILES];
+    static final int[][] RANK_CANNON_QUIET = new int[Bitboard.FILES][1 << Bitboard.FILES];
+    static final int[][] RANK_CANNON_CAPTURE = new int[Bitboard.FILES][1 << Bitboard.FILES];
+    static final int[][] FILE_CHARIOT = new int[Bitboard.RANKS][1 << Bitboard.RANKS];
+    static final int[][] FILE_CANNON_QUIET = new int[Bitboard.RANKS][1 << Bitboard.RANKS];
+    static final int[][] FILE_CANNON_CAPTURE = new int[Bitboard.RANKS][1 << Bitboard.RANKS];
+
+    // file patterns spread onto file 0 of the low half (ranks 0 to 6) and high half
+    private static final long[] SPREAD_LO = new long[1 << 7];
+    private static final long[] SPREAD_HI = new long[1 << 3];
+
+    static {
+        byte[] cells = Mailbox.emptyBoard();
+        int[] to = new int[8];
+        int[] by = new int[8];
+
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            int cell = Mailbox.cell(sq);
+
+            // horses: two jumps behind each orthogonal leg
+            int n = 0;
+            for (int i = 0; i < 4; i++) {
+                int leg = cell + Mailbox.HORSE_LEGS[i];
+                for (int jump : Mailbox.HORSE_JUMPS[i]) {
+                    if (cells[leg] != Mailbox.OFFBOARD && cells[cell + jump] != Mailbox.OFFBOARD) {
+                        to[n] = Mailbox.square(cell + jump);
+                        by[n] = Mailbox.square(leg);
+                        n++;
+                    }
+                }
+            }
+            HORSE_TO[sq] = java.util.Arrays.copyOf(to, n);
+            HORSE_LEG[sq] = java.util.Arrays.copyOf(by, n);
+
+            // elephants: two diagonal steps over the eye
+            n = 0;
+            for (int step : Mailbox.DIAGONAL) {
+                if (cells[cell + step] != Mailbox.OFFBOARD
+                        && cells[cell + 2 * step] != Mailbox.OFFBOARD) {
+                    to[n] = Mailbox.square(cell + 2 * step);
+                    by[n] = Mailbox.square(cell + step);
+                    n++;
+                }
+            }
+            ELEPHANT_TO[sq] = java.util.Arrays.copyOf(to, n);
+            ELEPHANT_EYE[sq] = java.util.Arrays.copyOf(by, n);
+
+            for (int side = Position.RED; side <= Position.BLACK; side++) {
+                // soldiers: forwards, plus sideways once across the river
+                int forward = (side == Position.RED) ? Mailbox.NORTH : Mailbox.SOUTH;
+                addCell(SOLDIER_LO[side], SOLDIER_HI[side], sq, cells, cell + forward);
+                if (Mailbox.acrossRiver(side, cell)) {
+                    addCell(SOLDIER_LO[side], SOLDIER_HI[side], sq, cells, cell + Mailbox.EAST);
+                    addCell(SOLDIER_LO[side], SOLDIER_HI[side], sq, cells, cell + Mailbox.WEST);
+                }
+
+                // guards and generals: one step that stays inside their own palace
+                for (int step : Mailbox.DIAGONAL) {
+                    if (Mailbox.inPalace(side, cell + step)) {
+                        addCell(GUARD_LO[side], GUARD_HI[side], sq, cells, cell + step);
+                    }
+                }
+                for (int step : Mailbox.ORTHOGONAL) {
+                    if (Mailbox.inPalace(side, cell + step)) {
+                        addCell(GENERAL_LO[side], GENERAL_HI[side], sq, cells, cell + step);
+                    }
+                }
+            }
+        }
+
+        // reverse tables, by inverting the forward tables
+        int[] fromCount = new int[Bitboard.SQUARES];
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            for (int target : HORSE_TO[sq]) {
+                fromCount[target]++;
+            }
+        }
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            HORSE_FROM[sq] = new int[fromCount[sq]];
+            HORSE_FROM_LEG[sq] = new int[fromCount[sq]];
+            fromCount[sq] = 0;
+        }
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            for (int i = 0; i < HORSE_TO[sq].length; i++) {
+                int target = HORSE_TO[sq][i];
+                HORSE_FROM[target][fromCount[target]] = sq;
+                HORSE_FROM_LEG[target][fromCount[target]] = HORSE_LEG[sq][i];
+                fromCount[target]++;
+            }
+            for (int side = Position.RED; side <= Position.BLACK; side++) {
+                invert(SOLDIER_LO[side], SOLDIER_HI[side], sq, SOLDIER_FROM_LO[side],
+                        SOLDIER_FROM_HI[side]);
+                invert(GUARD_LO[side], GUARD_HI[side], sq, GUARD_FROM_LO[side],
+                        GUARD_FROM_HI[side]);
+                invert(GENERAL_LO[side], GENERAL_HI[side], sq, GENERAL_FROM_LO[side],
+                        GENERAL_FROM_HI[side]);
+            }
+        }
+
+        // chariot and cannon patterns for every place and occupancy of a line
+        for (int place = 0; place < Bitboard.FILES; place++) {
+            for (int occ = 0; occ < (1 << Bitboard.FILES); occ++) {
+                int[] line = lineAttacks(place, occ, Bitboard.FILES);
+                RANK_CHARIOT[place][occ] = line[0];
+                RANK_CANNON_QUIET[place][occ] = line[1];
+                RANK_CANNON_CAPTURE[place][occ] = line[2];
+            }
+        }
+        for (int place = 0; place < Bitboard.RANKS; place++) {
+            for (int occ = 0; occ < (1 << Bitboard.RANKS); occ++) {
+                int[] line = lineAttacks(place, occ, Bitboard.RANKS);
+                FILE_CHARIOT[place][occ] = line[0];
+                FILE_CANNON_QUIET[place][occ] = line[1];
+                FILE_CANNON_CAPTURE[place][occ] = line[2];
+            }
+        }
+        for (int pattern = 0; pattern < (1 << 7); pattern++) {
+            for (int y = 0; y < 7; y++) {
+                if ((pattern & (1 << y)) != 0) {
+                    SPREAD_LO[pattern] |= Bitboard.lo(Bitboard.square(0, y));
+                }
+            }
+        }
+        for (int pattern = 0; pattern < (1 << 3); pattern++) {
+            for (int y = 0; y < 3; y++) {
+                if ((pattern & (1 << y)) != 0) {
+                    SPREAD_HI[pattern] |= Bitboard.hi(Bitboard.square(0, 7 + y));
+                }
+            }
+        }
+    }
+
+    private AttackTables() {
+    }
+
+    // **************************************************************************
+    // * LINE PATTERNS
+    // **************************************************************************
+
+    /**
+     * @return the low half of the bitboard for a pattern on rank y
+     */
+    static long rankLo(int y, int pattern) {
+        if (y < 7) {
+            return (long) pattern << (Bitboard.FILES * y);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the high half of the bitboard for a pattern on rank y
+     */
+    static long rankHi(int y, int pattern) {
+        if (y >= 7) {
+            return (long) pattern << (Bitboard.FILES * (y - 7));
+        }
+        return 0;
+    }
+
+    /**
+     * @return the low half of the bitboard for a pattern on file x
+     */
+    static long fileLo(int x, int pattern) {
+        return SPREAD_LO[pattern & 0x7F] << x;
+    }
+
+    /**
+     * @return the high half of the bitboard for a pattern on file x
+     */
+    static long fileHi(int x, int pattern) {
+        return SPREAD_HI[pattern >>> 7] << x;
+    }
+
+    /**
+     * Helper for the table setup: marks sq in the reverse table entry of every
+     * square that sq attacks according to the forward table.
+     */
+    private static void invert(long[] lo, long[] hi, int sq, long[] fromLo, long[] fromHi) {
+        for (int target = 0; target < Bitboard.SQUARES; target++) {
+            if (Bitboard.test(lo[sq], hi[sq], target)) {
+                fromLo[target] |= Bitboard.lo(sq);
+                fromHi[target] |= Bitboard.hi(sq);
+            }
+        }
+    }
+
+    /**
+     * Helper for the table setup: walks both ways along a line from a piece.
+     *
+     * @param place  the piece's place on the line
+     * @param occ    the occupancy pattern of the line
+     * @param length the number of squares on the line
+     * @return the chariot, cannon quiet and cannon capture patterns
+     */
+    private static int[] lineAttacks(int place, int occ, int length) {
+        int[] line = new int[3];
+        for (int step = -1; step <= 1; step += 2) {
+            int i = place + step;
+
+            // empty squares before the first piece (the screen)
+            while (i >= 0 && i < length && (occ & (1 << i)) == 0) {
+                line[0] |= 1 << i;
+                line[1] |= 1 << i;
+                i += step;
+            }
+            if (i < 0 || i >= length) {
+                continue;
+            }
+            line[0] |= 1 << i; // chariots capture the first piece
+
+            // cannons capture the first piece beyond the screen
+            i += step;
+            while (i >= 0 && i < length && (occ & (1 << i)) == 0) {
+                i += step;
+            }
+            if (i >= 0 && i < length) {
+                line[2] |= 1 << i;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Helper for the table setup: adds a mailbox cell to the attack set of sq
+     * unless it is a padding cell.
+     */
+    private static void addCell(long[] lo, long[] hi, int sq, byte[] cells, int cell) {
+        if (cells[cell] != Mailbox.OFFBOARD) {
+            lo[sq] |= Bitboard.lo(Mailbox.square(cell));
+            hi[sq] |= Bitboard.hi(Mailbox.square(cell));
+        }
+    }
+}
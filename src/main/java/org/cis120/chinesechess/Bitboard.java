@@ -0,0 +1,179 @@
+package org.cis120.chinesechess;
+
+/**
+ * Static helpers for 90-square bitboards.
+ *
+ * A bitboard stores one bit per board square in a pair of longs (a "low" and a
+ * "high" half). Squares are numbered rank by rank, so square = y * 9 + x in
+ * board array coordinates. Ranks 0 through 6 fit in bits 0 to 62 of the low
+ * half and ranks 7 through 9 fit in bits 0 to 26 of the high half, so every
+ * rank lives inside a single long.
+ *
+ * Ray masks are precomputed for every square in the four orthogonal
+ * directions. They do not include the starting square.
+ *
+ */
+public final class Bitboard {
+
+    public static final int FILES = 9;
+    public static final int RANKS = 10;
+    public static final int SQUARES = FILES * RANKS;
+    public static final int LO_SQUARES = 63; // squares stored in the low half
+
+    // ray directions (east and south walk towards higher square numbers)
+    public static final int EAST = 0;
+    public static final int WEST = 1;
+    public static final int SOUTH = 2;
+    public static final int NORTH = 3;
+
+    private static final long[] LO = new long[SQUARES];
+    private static final long[] HI = new long[SQUARES];
+    private static final long[][] RAY_LO = new long[4][SQUARES];
+    private static final long[][] RAY_HI = new long[4][SQUARES];
+
+    static {
+        for (int sq = 0; sq < SQUARES; sq++) {
+            if (sq < LO_SQUARES) {
+                LO[sq] = 1L << sq;
+            } else {
+                HI[sq] = 1L << (sq - LO_SQUARES);
+            }
+        }
+
+        int[] dx = { 1, -1, 0, 0 };
+        int[] dy = { 0, 0, 1, -1 };
+        for (int sq = 0; sq < SQUARES; sq++) {
+            for (int dir = 0; dir < 4; dir++) {
+                int x = file(sq) + dx[dir];
+                int y = rank(sq) + dy[dir];
+                while (x >= 0 && x < FILES && y >= 0 && y < RANKS) {
+                    RAY_LO[dir][sq] |= LO[square(x, y)];
+                    RAY_HI[dir][sq] |= HI[square(x, y)];
+                    x += dx[dir];
+                    y += dy[dir];
+                }
+            }
+        }
+    }
+
+    private Bitboard() {
+    }
+
+    // **************************************************************************
+    // * SQUARES
+    // **************************************************************************
+
+    /**
+     * @return the square index of a point in board array coordinates
+     */
+    public static int square(int x, int y) {
+        return y * FILES + x;
+    }
+
+    /**
+     * @return the file (x coordinate) of a square
+     */
+    public static int file(int sq) {
+        return sq % FILES;
+    }
+
+    /**
+     * @return the rank (y coordinate) of a square
+     */
+    public static int rank(int sq) {
+        return sq / FILES;
+    }
+
+    /**
+     * @return true if the point is a square on the board
+     */
+    public static boolean onBoard(int x, int y) {
+        return (x >= 0) && (x < FILES) && (y >= 0) && (y < RANKS);
+    }
+
+    // **************************************************************************
+    // * MASKS
+    // **************************************************************************
+
+    /**
+     * @return the low half of the single-square mask for sq
+     */
+    public static long lo(int sq) {
+        return LO[sq];
+    }
+
+    /**
+     * @return the high half of the single-square mask for sq
+     */
+    public static long hi(int sq) {
+        return HI[sq];
+    }
+
+    /**
+     * @return true if square sq is set in the bitboard (lo, hi)
+     */
+    public static boolean test(long lo, long hi, int sq) {
+        return ((lo & LO[sq]) | (hi & HI[sq])) != 0;
+    }
+
+    /**
+     * @return the low half of the ray leaving sq in direction dir
+     */
+    public static long rayLo(int dir, int sq) {
+        return RAY_LO[dir][sq];
+    }
+
+    /**
+     * @return the high half of the ray leaving sq in direction dir
+     */
+    public static long rayHi(int dir, int sq) {
+        return RAY_HI[dir][sq];
+    }
+
+    // **************************************************************************
+    // * BIT SCANS
+    // **************************************************************************
+
+    /**
+     * @return the lowest set square of the bitboard, or -1 if it is empty
+     */
+    public static int first(long lo, long hi) {
+        if (lo != 0) {
+            return Long.numberOfTrailingZeros(lo);
+        } else if (hi != 0) {
+            return LO_SQUARES + Long.numberOfTrailingZeros(hi);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the highest set square of the bitboard, or -1 if it is empty
+     */
+    public static int last(long lo, long hi) {
+        if (hi != 0) {
+            return LO_SQUARES + 63 - Long.numberOfLeadingZeros(hi);
+        } else if (lo != 0) {
+            return 63 - Long.numberOfLeadingZeros(lo);
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the set square closest to the origin of a ray in direction dir.
+     *
+     * @return the nearest set square, or -1 if the bitboard is empty
+     */
+    public static int nearest(int dir, long lo, long hi) {
+        if (dir == EAST || dir == SOUTH) {
+            return first(lo, hi);
+        }
+        return last(lo, hi);
+    }
+
+    /**
+     * @return the number of set squares in the bitboard
+     */
+    public static int count(long lo, long hi) {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+}
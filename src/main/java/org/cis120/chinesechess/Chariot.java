@@ -1,15 +1,13 @@
 package org.cis120.chinesechess;
 
 import java.awt.*;
-import java.util.Set;
-import java.util.HashSet;
 
 /**
  * A type of movable piece in the game.
  *
- * Chariot is a subtype of Piece, so it also stores a position in board array
- * coordinates,
- * selection status, immutable color and text. Both the red and black Chariot
+ * Chariot is a subtype of Piece, so it also stores an immutable color and text.
+ * It has no position: one shared Chariot exists for each color (see Piece.of), and
+ * the board records where they stand. Both the red and black Chariot
  * are labeled
  * as 車.
  *
@@ -23,80 +21,20 @@ import java.util.HashSet;
 public class Chariot extends Piece {
 
     /**
-     * Constructor
+     * Constructor, used only to create the shared instances in Piece.
      *
-     * @param p        the starting point of the Chariot
-     * @param c        the color of the Chariot
-     * @param selected whether the piece is selected
+     * @param c the color of the Chariot
      */
-    public Chariot(Point p, Color c, boolean selected) {
-        super(p, c, selected);
-        this.setText("車");
+    Chariot(Color c) {
+        super(c, "車");
     }
 
     /**
-     * Override getMoveSet() from Piece class to create a set of possible moves for
-     * a
-     * Chariot according to the specific motion/capture rules above.
-     *
-     * @param pieceArr The board layout
-     * @return A Set (HashSet) of points (in board array coordinates) that the
-     *         Chariot can move to according to its current position.
+     * @return the type of the Chariot
      */
     @Override
-    public Set<Point> getMoveSet(Piece[][] pieceArr) {
-        Point p = this.getPosition();
-
-        Set<Point> moves = new HashSet<>();
-
-        // add moves to the right until collision with the nearest piece.
-        int xCurr = p.x + 1;
-        while (xCurr <= 8) {
-            moves.add(new Point(xCurr, p.y));
-            if (pieceArr[xCurr][p.y] != null) {
-                break;
-            }
-            xCurr++;
-        }
-
-        // add moves to the left until collision with the nearest piece.
-        xCurr = p.x - 1;
-        while (xCurr >= 0) {
-            moves.add(new Point(xCurr, p.y));
-            if (pieceArr[xCurr][p.y] != null) {
-                break;
-            }
-            xCurr--;
-        }
-
-        // add moves downwards until collision with the nearest piece.
-        int yCurr = p.y + 1;
-        while (yCurr <= 9) {
-            moves.add(new Point(p.x, yCurr));
-            if (pieceArr[p.x][yCurr] != null) {
-                break;
-            }
-            yCurr++;
-        }
-
-        // add moves upwards until collision with the nearest piece.
-        yCurr = p.y - 1;
-        while (yCurr >= 0) {
-            moves.add(new Point(p.x, yCurr));
-            if (pieceArr[p.x][yCurr] != null) {
-                break;
-            }
-            yCurr--;
-        }
-
-        return moves;
+    public PieceType getType() {
+        return PieceType.CHARIOT;
     }
 
-    /**
-     * @return a copy of the original Chariot
-     */
-    @Override
-    public Chariot copy() {
-        return new Chariot(this.getPosition(), this.getColor(), this.getIsSelected());
-    }
 }
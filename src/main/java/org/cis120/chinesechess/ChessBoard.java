@@ -4,6 +4,10 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
  * This class creates a ChineseChess object, which is the model for the game.
@@ -22,11 +26,29 @@ public class ChessBoard extends JPanel {
     private final ChineseChess cc; // game instance
     private final JLabel status; // status text
 
+    private Color computerColor; // the color the computer plays (null if none)
+    private SwingWorker<SearchResult, Void> thinking; // the search in progress (if any)
+    private Search search; // the engine of the search in progress (if any)
+    private SwingWorker<List<SearchResult>, SearchResult> analyzing; // the analysis (if any)
+    private Search analysis; // the engine of the analysis in progress (if any)
+    private final TranspositionTable table = new TranspositionTable(Search.DEFAULT_TABLE_MB);
+    private final OpeningBook book = openBook(); // the computer's opening book (null if none)
+
     // game sizing is scaled depending on the SQUARE_SIZE
     public static final int SQUARE_SIZE = 60;
     public static final int BOARD_WIDTH = SQUARE_SIZE * 10;
     public static final int BOARD_HEIGHT = SQUARE_SIZE * 11;
 
+    // the time (in milliseconds) the computer player thinks about each move
+    public static final int COMPUTER_MILLIS = 1000;
+
+    // the opening book the computer plays from, if the file exists (see OpeningBookBuilder)
+    public static final String BOOK_FILE = "book.xqbk";
+
+    // the lines shown and the time (in milliseconds) spent by Analyze
+    public static final int ANALYSIS_LINES = 3;
+    public static final int ANALYSIS_MILLIS = 3000;
+
     /**
      * Initializer for the game board
      *
@@ -44,12 +66,15 @@ public class ChessBoard extends JPanel {
             @Override
             public void mouseReleased(MouseEvent e) {
                 Point p = toBoardCoords(new Point(e.getPoint()));
-                if (inBounds(p)) {
+                // clicks are ignored while the computer is choosing its move
+                if (inBounds(p) && thinking == null) {
+                    cancelAnalysis(); // the analysis is of the position before the click
                     // updates the model based on the coordinates of the mouseclick
                     cc.playMove(p);
 
                     updateStatus(); // updates the status JLabel
                     repaint(); // repaints the game board
+                    startComputerMove();
                 }
             }
         });
@@ -59,12 +84,237 @@ public class ChessBoard extends JPanel {
      * Resets the game to its initial state.
      */
     public void reset() {
+        cancelComputerMove();
+        cancelAnalysis();
         cc.reset();
         status.setText("Red Turn. Select a piece.");
         repaint();
+        startComputerMove();
+
+        requestFocusInWindow(); // Makes sure this component has both keyboard and mouse focus
+
+    }
+
+    /**
+     * Takes back the last move of the game. Against the computer, moves are
+     * taken back until it is the human's turn, so the computer's reply goes
+     * with the human's move instead of being played again at once.
+     */
+    public void undo() {
+        cancelComputerMove();
+        cancelAnalysis();
+        cc.undo();
+        while (computerColor != null && computerColor.equals(turnColor()) && cc.canUndo()) {
+            cc.undo();
+        }
+        updateStatus();
+        repaint();
+        startComputerMove();
+
+        requestFocusInWindow(); // Makes sure this component has both keyboard and mouse focus
+    }
+
+    /**
+     * Chooses the color the computer plays. If it is that color's turn, the
+     * computer starts choosing its move.
+     *
+     * @param c the color the computer plays, or null for two human players
+     */
+    public void setComputerColor(Color c) {
+        cancelComputerMove();
+        cancelAnalysis();
+        computerColor = c;
+        updateStatus();
+        startComputerMove();
+
+        requestFocusInWindow(); // Makes sure this component has both keyboard and mouse focus
+    }
+
+    /**
+     * @return the game (for the tests)
+     */
+    ChineseChess getGame() {
+        return cc;
+    }
+
+    /**
+     * @return the color whose turn it is
+     */
+    private Color turnColor() {
+        return cc.isRedTurn() ? Color.red : Color.black;
+    }
+
+    /**
+     * Starts a search for the computer's move in the background if it is the
+     * computer's turn and the game is not over. The move is played on the event
+     * dispatch thread when the search finishes.
+     */
+    private void startComputerMove() {
+        GameState gs = cc.getGameState();
+        if (computerColor == null || !computerColor.equals(turnColor()) || thinking != null
+                || gs == GameState.RED_CHECKMATE || gs == GameState.BLACK_CHECKMATE) {
+            return;
+        }
+        final Position position = cc.getPosition().copy(); // searched off the game's thread
+        // a cancelled search may still be running, so each gets its own Search (the
+        // table is shared, so what was learned on earlier moves is kept)
+        final Search engine = new Search(table);
+        engine.setBook(book);
+        search = engine;
+        thinking = new SwingWorker<SearchResult, Void>() {
+            @Override
+            protected SearchResult doInBackground() {
+                return engine.search(position, TimeManager.forMoveTime(COMPUTER_MILLIS));
+            }
+
+            @Override
+            protected void done() {
+                if (thinking != this) {
+                    return; // cancelled by a new game or an undo
+                }
+                thinking = null;
+                search = null;
+                try {
+                    cc.playMove(get().getBestMove());
+                } catch (Exception ex) {
+                    // the search failed, so the human may move instead
+                }
+                updateStatus();
+                repaint();
+            }
+        };
+        status.setText("Computer is thinking...");
+        thinking.execute();
+    }
+
+    /**
+     * Helper for the constructor: opens the opening book file, if there is one.
+     *
+     * @return the book, or null if there is none or it cannot be read
+     */
+    private static OpeningBook openBook() {
+        Path path = Path.of(BOOK_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            return OpeningBook.open(path);
+        } catch (IOException e) {
+            return null; // the computer searches every move instead
+        }
+    }
+
+    /**
+     * Abandons the computer's search in progress (if any).
+     */
+    private void cancelComputerMove() {
+        if (thinking != null) {
+            search.stop(); // frees the worker thread quickly
+            thinking.cancel(false);
+            thinking = null;
+            search = null;
+        }
+    }
+
+    /**
+     * Analyzes the current position in the background and shows the best
+     * ANALYSIS_LINES moves with their scores in the status bar, updating them
+     * as each line of each iteration completes. Does nothing while the
+     * computer is choosing a move or when the game is over.
+     */
+    public void analyze() {
+        GameState gs = cc.getGameState();
+        if (thinking != null || gs == GameState.RED_CHECKMATE || gs == GameState.BLACK_CHECKMATE) {
+            return;
+        }
+        cancelAnalysis();
+        final Position position = cc.getPosition().copy();
+        final Search engine = new Search(table);
+        engine.setMultiPv(ANALYSIS_LINES);
+        analysis = engine;
+        analyzing = new SwingWorker<List<SearchResult>, SearchResult>() {
+            private final SearchResult[] shown = new SearchResult[ANALYSIS_LINES];
+
+            @Override
+            protected List<SearchResult> doInBackground() {
+                engine.setListener((line, result) -> publish(result));
+                engine.search(position, TimeManager.forMoveTime(ANALYSIS_MILLIS));
+                return engine.getLines();
+            }
+
+            @Override
+            protected void process(List<SearchResult> results) {
+                // lines arrive in order; the first line of an iteration starts over
+                for (SearchResult result : results) {
+                    int line = 0;
+                    while (line < shown.length && shown[line] != null
+                            && shown[line].getDepth() == result.getDepth()) {
+                        line++;
+                    }
+                    if (line == 0) {
+                        java.util.Arrays.fill(shown, null);
+                    }
+                    if (line < shown.length) {
+                        shown[line] = result;
+                    }
+                }
+                showAnalysis(java.util.Arrays.asList(shown), false);
+            }
+
+            @Override
+            protected void done() {
+                if (analyzing != this) {
+                    return; // cancelled by a move, a new game or an undo
+                }
+                analyzing = null;
+                analysis = null;
+                try {
+                    showAnalysis(get(), true);
+                } catch (Exception ex) {
+                    updateStatus();
+                }
+            }
+        };
+        status.setText("Analyzing...");
+        analyzing.execute();
 
         requestFocusInWindow(); // Makes sure this component has both keyboard and mouse focus
+    }
+
+    /**
+     * Abandons the analysis in progress (if any).
+     */
+    private void cancelAnalysis() {
+        if (analyzing != null) {
+            analysis.stop();
+            analyzing.cancel(false);
+            analyzing = null;
+            analysis = null;
+        }
+    }
 
+    /**
+     * Shows analysis lines in the status bar, e.g.
+     * "Depth 7: 1. h2-e2 (35)  2. b0-c2 (20)  3. c3-c4 (15)".
+     *
+     * @param lines the lines, best first (null entries are skipped)
+     * @param done  true if the analysis has finished
+     */
+    private void showAnalysis(List<SearchResult> lines, boolean done) {
+        StringBuilder text = new StringBuilder(done ? "Analysis" : "Analyzing");
+        if (!lines.isEmpty() && lines.get(0) != null) {
+            text.append(", depth ").append(lines.get(0).getDepth());
+        }
+        text.append(":");
+        int number = 1;
+        for (SearchResult line : lines) {
+            if (line != null && line.getBestMove() != Move.NONE) {
+                text.append("  ").append(number++).append(". ")
+                        .append(Move.toString(line.getBestMove()))
+                        .append(" (").append(line.getScore()).append(")");
+            }
+        }
+        status.setText(text.toString());
     }
 
     /**
@@ -300,12 +550,18 @@ public class ChessBoard extends JPanel {
      * @param g the graphics context for the board
      */
     private void paintPieces(Graphics g) {
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 10; j++) {
-                if (cc.getBoard()[i][j] != null) {
-                    cc.getBoard()[i][j].draw(g);
-                }
-            }
+        // the view shows the piece in play as selected while a move is being chosen
+        Point selected = null;
+        if (cc.getGameState() == GameState.BEGIN_MOVE_MODE) {
+            selected = cc.getSquareInPlay();
+        }
+
+        // only the pieces still on the board are visited
+        for (Point p : cc.getPieceSquares(Color.red)) {
+            cc.getPiece(p.x, p.y).draw(g, p, p.equals(selected));
+        }
+        for (Point p : cc.getPieceSquares(Color.black)) {
+            cc.getPiece(p.x, p.y).draw(g, p, p.equals(selected));
         }
     }
 
@@ -4,13 +4,14 @@ import java.awt.*;
 import java.util.*;
 
 /**
- * This class is a model for Chinese Chess. It stores a board which contains
- * pieces,
- * the number of turns played, the player whose turn it is, the game state,
- * which piece
- * was last in play, and the generals of the game. See individual Piece
- * subclasses for
- * movement guidelines and ChessBoard class for controller and view.
+ * This class is a model for Chinese Chess. It stores a bitboard Position
+ * (which holds the pieces and the player whose turn it is), the number of
+ * turns played, the game state, and the square of the piece last in play. See
+ * individual Piece subclasses for movement guidelines and ChessBoard class
+ * for controller and view.
+ *
+ * Note: The Position is the source of truth for the board. Pieces are shared
+ * flyweights (see Piece.of), so getBoard() and getPiece() never create them.
  *
  * Note: This game uses the Model-View-Controller framework, so the model is
  * independent
@@ -24,12 +25,15 @@ import java.util.*;
  * 
  */
 public class ChineseChess {
-    private Piece[][] board; // the game board
+    private Position position; // the game board and the side to move
     private int numTurns; // the number of turns
-    private boolean redTurn; // whether it is red's turn
     private GameState gameState; // the game state
-    private Piece pieceInPlay; // the piece being moved
-    private Map<Color, General> generals; // a map of the colors to their generals
+    private Point squareInPlay; // the square of the piece being moved (null if none)
+    private Tablebases tablebases; // endgame tables (null if none)
+    private int tablebaseResult = Tablebase.UNKNOWN; // found by the last checkState()
+
+    private final MoveList moves = new MoveList(); // reused move buffer
+    private final Position scratch = new Position(); // reused for other board layouts
 
     // **************************************************************************
     // * SETUP METHODS (Constructor + Reset + Helpers)
@@ -45,12 +49,11 @@ public class ChineseChess {
      * Reset game state (start a new game)
      */
     public void reset() {
-        board = new Piece[9][10]; // initializes possible points
+        position = new Position(); // empty board, red to move
         numTurns = 0;
-        redTurn = true;
         gameState = GameState.END_MOVE_MODE1;
-        pieceInPlay = null;
-        generals = new HashMap<>();
+        squareInPlay = null;
+        tablebaseResult = Tablebase.UNKNOWN;
 
         // * add all starting pieces to board *//
         placeStartingPieces(Color.red);
@@ -62,6 +65,7 @@ public class ChineseChess {
      * pieces of one color to the board in their starting positions.
      */
     private void placeStartingPieces(Color c) {
+        int side = Position.sideOf(c);
         int sRow;
         int cRow;
         int r;
@@ -79,33 +83,39 @@ public class ChineseChess {
 
         // soldiers
         for (int i = 0; i < 5; i++) {
-            this.board[2 * i][sRow] = new Soldier(new Point(2 * i, sRow), c, false);
+            place(2 * i, sRow, side, PieceType.SOLDIER);
         }
 
         // cannons
-        this.board[1][cRow] = new Cannon(new Point(1, cRow), c, false);
-        this.board[7][cRow] = new Cannon(new Point(7, cRow), c, false);
+        place(1, cRow, side, PieceType.CANNON);
+        place(7, cRow, side, PieceType.CANNON);
 
         // chariots
-        this.board[0][r] = (new Chariot(new Point(0, r), c, false));
-        this.board[8][r] = (new Chariot(new Point(8, r), c, false));
+        place(0, r, side, PieceType.CHARIOT);
+        place(8, r, side, PieceType.CHARIOT);
 
         // horses
-        this.board[1][r] = (new Horse(new Point(1, r), c, false));
-        this.board[7][r] = (new Horse(new Point(7, r), c, false));
+        place(1, r, side, PieceType.HORSE);
+        place(7, r, side, PieceType.HORSE);
 
         // elephants
-        this.board[2][r] = (new Elephant(new Point(2, r), c, false));
-        this.board[6][r] = (new Elephant(new Point(6, r), c, false));
+        place(2, r, side, PieceType.ELEPHANT);
+        place(6, r, side, PieceType.ELEPHANT);
 
         // guard
-        this.board[3][r] = (new Guard(new Point(3, r), c, false));
-        this.board[5][r] = (new Guard(new Point(5, r), c, false));
+        place(3, r, side, PieceType.GUARD);
+        place(5, r, side, PieceType.GUARD);
 
         // general
-        General general = new General(new Point(4, r), c, false);
-        this.board[4][r] = general;
-        this.generals.put(c, general);
+        place(4, r, side, PieceType.GENERAL);
+    }
+
+    /**
+     * A helper method for placeStartingPieces(), which puts one piece on the
+     * board.
+     */
+    private void place(int x, int y, int side, PieceType type) {
+        this.position.put(Bitboard.square(x, y), Position.code(side, type));
     }
 
     // **************************************************************************
@@ -132,8 +142,8 @@ public class ChineseChess {
             c = Color.black;
         }
 
-        Piece piece = this.board[p.x][p.y]; // get the contents of the board at the location of the
-                                            // click
+        Piece piece = this.getPiece(p.x, p.y); // get the contents of the board at the location of
+                                               // the click
 
         // pattern match based on the current game state to determine course of action
         switch (this.getGameState()) {
@@ -145,8 +155,7 @@ public class ChineseChess {
             case BLACK_CHECK: {
                 // proceed if the piece exists and is the same color as the current player
                 if ((piece != null) && (c.equals(piece.getColor()))) {
-                    piece.select();
-                    setPieceInPlay(piece); // set selected piece
+                    setSquareInPlay(p); // select the piece
                     setGameState(GameState.BEGIN_MOVE_MODE); // switch game mode
                 }
                 break;
@@ -154,29 +163,24 @@ public class ChineseChess {
 
             // in this case, a piece has been selected
             case BEGIN_MOVE_MODE: {
-                // proceed if the move is a LEGAL move in the selected piece's move set
-                if (((pieceInPlay.getMoveSet(this.getBoard()).contains(p)))
-                        && (isLegalMove(pieceInPlay.copy(), p))) {
+                // proceed if the move is one of the selected piece's LEGAL moves
+                int move = findMove(squareInPlay, p);
+                if (move != Move.NONE) {
 
-                    // change location of piece on board
-                    Point oldPos = this.getPieceInPlay().getPosition();
-                    board[oldPos.x][oldPos.y] = null;
-                    board[p.x][p.y] = pieceInPlay;
+                    // change location of piece on board, change turn and increase number of
+                    // turns
+                    makeMove(move);
 
-                    pieceInPlay.setPosition(p); // change location of piece in the piece itself
-                    gameState = GameState.END_MOVE_MODE1; // change game state
-                    pieceInPlay.deselect(); // deselect piece
-                    setRedTurn(!redTurn); // change turn
-                    numTurns++; // increase number of turns
+                    squareInPlay = p; // the piece in play is now on its new square
+                    gameState = GameState.END_MOVE_MODE1; // change game state (deselects)
 
                     // after a successful move, check the new state of the game
                     checkState();
 
                 } else {
-                    // for an unsuccessful move, change the status to show illegal move and deselect
-                    // piece
+                    // for an unsuccessful move, change the status to show illegal move (this
+                    // also deselects the piece)
                     setGameState(GameState.END_MOVE_MODE2);
-                    pieceInPlay.deselect();
                 }
                 break;
             }
@@ -185,6 +189,75 @@ public class ChineseChess {
         }
     }
 
+    /**
+     * playMove processes a move chosen by a computer player (see Search). If the
+     * game is over, or the move is not a legal move of the player whose turn it
+     * is, this function does nothing.
+     *
+     * @param move the packed move to play (see Move)
+     * @return true if the move was played, false if it was not
+     */
+    public boolean playMove(int move) {
+        if (gameState == GameState.RED_CHECKMATE || gameState == GameState.BLACK_CHECKMATE
+                || move == Move.NONE
+                || Position.sideOf(Move.piece(move)) != position.getSideToMove()) {
+            return false;
+        }
+        Point from = new Point(Bitboard.file(Move.from(move)), Bitboard.rank(Move.from(move)));
+        Point to = new Point(Bitboard.file(Move.to(move)), Bitboard.rank(Move.to(move)));
+        int legal = findMove(from, to);
+        if (legal == Move.NONE) {
+            return false;
+        }
+
+        makeMove(legal);
+        squareInPlay = to; // the piece in play is now on its new square
+        gameState = GameState.END_MOVE_MODE1;
+        checkState();
+        return true;
+    }
+
+    /**
+     * Plays a packed move (see Move) without any legality checks, passing the turn
+     * to the other player. Used by playMove() and by code that searches ahead.
+     *
+     * @param move the move to play
+     */
+    public void makeMove(int move) {
+        position.makeMove(move);
+        numTurns++;
+    }
+
+    /**
+     * Takes back the last move played with makeMove(), giving the turn back.
+     *
+     * @throws IllegalStateException if there is no move to take back
+     */
+    public void unmakeMove() {
+        position.unmakeMove();
+        numTurns--;
+    }
+
+    /**
+     * @return true if there is a move that undo() can take back
+     */
+    public boolean canUndo() {
+        return position.getUndoSize() > 0;
+    }
+
+    /**
+     * Takes back the last move of the game (e.g. from the Undo button) and
+     * re-checks the state of the game. Does nothing if no move has been played.
+     */
+    public void undo() {
+        if (canUndo()) {
+            squareInPlay = null;
+            unmakeMove();
+            gameState = GameState.END_MOVE_MODE1;
+            checkState();
+        }
+    }
+
     // **************************************************************************
     // * BOARD STATUS CHECKERS (Legal moves + Check + Checkmate + Status + Print)
     // **************************************************************************
@@ -196,38 +269,28 @@ public class ChineseChess {
      * not
      * leave the piece's general in check.
      *
+     * @param origCoords the square of the moving piece
+     * @param p          the square to move to
      * @return true if the move is legal, false if the move is not
      */
-    public boolean isLegalMove(Piece piece, Point p) {
-        Color c = piece.getColor();
-
-        // check that move is in bounds
-        if ((ChessBoard.inBounds(p)) &&
-
-        // check that move-to location is either null or opposite color
-                (board[p.x][p.y] == null || !c.equals(board[p.x][p.y].getColor()))) {
-
-            // try move to see if it causes check
-            Point origCoords = pieceInPlay.getPosition();
-            Piece origPiece = board[p.x][p.y];
-
-            board[origCoords.x][origCoords.y] = null;
-            board[p.x][p.y] = pieceInPlay;
-            pieceInPlay.setPosition(p);
-
-            boolean inCheck = inCheck(board, c);
-
-            board[origCoords.x][origCoords.y] = pieceInPlay;
-            board[p.x][p.y] = origPiece;
-            pieceInPlay.setPosition(origCoords);
-
-            // if not in check, the move is legal
-            return !inCheck;
-
-        } else { // out of bounds or finding a same-color piece at this point indicates illegal
-                 // move
-            return false;
+    public boolean isLegalMove(Point origCoords, Point p) {
+        // check that move is in bounds and that the piece is on the board
+        if (ChessBoard.inBounds(p) && ChessBoard.inBounds(origCoords)) {
+            int from = Bitboard.square(origCoords.x, origCoords.y);
+            int to = Bitboard.square(p.x, p.y);
+            int target = position.pieceAt(to);
+
+            // check that a piece is there and the move-to location is either empty
+            // or the opposite color
+            int code = position.pieceAt(from);
+            if ((code != Position.EMPTY) && (target == Position.EMPTY
+                    || Position.sideOf(target) != Position.sideOf(code))) {
+                return findMove(origCoords, p) != Move.NONE;
+            }
         }
+        // out of bounds or finding a same-color piece at this point indicates illegal
+        // move
+        return false;
     }
 
     /**
@@ -240,68 +303,20 @@ public class ChineseChess {
      *
      * @return true if the general is in check, false if it is not
      */
-    public boolean inCheck(Piece[][] testBoard, Color c) {
-        // get opponent's color
-        Color oppC;
-        if (c.equals(Color.red)) {
-            oppC = Color.black;
-        } else {
-            oppC = Color.red;
-        }
-
-        // get both generals from map
-        General gen = generals.get(c);
-        General oppGen = generals.get(oppC);
-
-        // get both positions from generals
-        Point pos = gen.getPosition();
-        Point oppPos = oppGen.getPosition();
-
-        // if both generals are in the same column (same x-cor), check if there are
-        // pieces between them to block
-        if ((pos.x == oppPos.x) && c.equals(Color.red)) { // check red
-
-            // iterate through pieces (start at the one 1 after the first general and end at
-            // the other general)
-            for (int j = pos.y - 1; j >= oppPos.y; j--) {
-
-                // if the board spot is occupied, break the loop. if the other general is
-                // reached, inCheck is true
-                if (j == oppPos.y) {
-                    return true;
-                } else if (testBoard[pos.x][j] != null) {
-                    break;
-                }
-            }
-
-        } else if ((pos.x == oppPos.x) && c.equals(Color.black)) { // check black
-            // iterate through pieces (start at the one 1 after the first general and end at
-            // the other general)
-            for (int j = pos.y + 1; j <= oppPos.y; j++) {
-
-                // if the board spot is occupied, break the loop. if the other general is
-                // reached, inCheck is true
-                if (j == oppPos.y) {
-                    return true;
-                } else if (testBoard[pos.x][j] != null) {
-                    break;
-                }
-            }
-        }
+    public boolean inCheck(Color c) {
+        return position.inCheck(Position.sideOf(c));
+    }
 
-        // iterate through board array's pieces to check if any piece on the board can
-        // capture the general
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 10; j++) {
-                Piece piece = testBoard[i][j]; // find piece from board
-                if ((piece != null) && (!piece.getColor().equals(c))) {
-                    if (piece.getMoveSet(testBoard).contains(gen.getPosition())) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+    /**
+     * Tests whether a particular color's general is in check on a different board
+     * layout than the game's. See inCheck(Color).
+     *
+     * @return true if the general is in check, false if it is not
+     */
+    public boolean inCheck(Piece[][] testBoard, Color c) {
+        int side = Position.sideOf(c);
+        scratch.load(testBoard, side);
+        return scratch.inCheck(side);
     }
 
     /**
@@ -316,32 +331,36 @@ public class ChineseChess {
      * @return true if the general is in checkmate, false if it is not
      */
     public boolean inCheckmate(Color c) {
-        // iterate through the board array's pieces
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 10; j++) {
-                Piece piece = this.getPiece(i, j);
+        // generate every legal move of this color's pieces into the reused buffer
+        position.generateLegalMoves(Position.sideOf(c), moves);
 
-                // if piece is in the correct color, iterate through all possible moves
-                if ((piece != null) && (piece.getColor().equals(c))) {
+        // ** no legal moves indicates a win for the other team **
+        return moves.size() == 0;
+    }
 
-                    // if any possible move is legal, no change to state is necessary
-                    for (Point move : piece.getMoveSet(this.getBoard())) {
-                        if (isLegalMove(piece, move)) {
-                            return false;
-                        }
-                    }
-                }
+    /**
+     * Helper method to find the legal move from one point to another among the
+     * legal moves of the side whose piece is on the first point.
+     *
+     * @return the packed move, or Move.NONE if the piece cannot legally move there
+     */
+    private int findMove(Point from, Point to) {
+        moves.clear();
+        if (ChessBoard.inBounds(from) && ChessBoard.inBounds(to)) {
+            int fromSq = Bitboard.square(from.x, from.y);
+            int code = position.pieceAt(fromSq);
+            if (code != Position.EMPTY) {
+                position.generateLegalMoves(Position.sideOf(code), moves);
+                return moves.find(fromSq, Bitboard.square(to.x, to.y));
             }
         }
-
-        // ** only runs if there are no possible moves (indicates win for other team) **
-        // //
-        return true;
+        return Move.NONE;
     }
 
     /**
      * Checks the state of the model for a certain color. Checks for checkmate
-     * and check for each color.
+     * and check for each color. With endgame tablebases (see setTablebases()),
+     * the position is also looked up in them (see getTablebaseResult()).
      *
      * @return the new game state
      */
@@ -350,11 +369,13 @@ public class ChineseChess {
             this.gameState = GameState.RED_CHECKMATE;
         } else if (inCheckmate(Color.black)) {
             this.gameState = GameState.BLACK_CHECKMATE;
-        } else if (inCheck(this.board, Color.red)) {
+        } else if (inCheck(Color.red)) {
             this.gameState = GameState.RED_CHECK;
-        } else if (inCheck(this.board, Color.black)) {
+        } else if (inCheck(Color.black)) {
             this.gameState = GameState.BLACK_CHECK;
         }
+        this.tablebaseResult = (tablebases == null) ? Tablebase.UNKNOWN
+                : tablebases.probe(position);
         return this.getGameState();
     }
 
@@ -363,18 +384,19 @@ public class ChineseChess {
      */
     public void printGameBoard() {
         System.out.println("\n\nTurn " + this.getNumTurns() + ":\n");
+        Piece[][] board = this.getBoard();
         for (int i = 0; i < 10; i++) {
             for (int j = 0; j < 9; j++) {
-                if (this.getBoard()[i][j] == null) {
+                if (board[j][i] == null) {
                     System.out.print("X");
                 } else {
-                    System.out.print(this.getBoard()[i][j].getText());
+                    System.out.print(board[j][i].getText());
                 }
-                if (j < 7) {
+                if (j < 8) {
                     System.out.print(" | ");
                 }
             }
-            if (i < 8) {
+            if (i < 9) {
                 System.out.println("\n-------------------------------------");
             }
         }
@@ -384,31 +406,95 @@ public class ChineseChess {
     // * Getters
     // **************************************************************************
 
+    /**
+     * Builds a Piece[][] layout of the current board (indexed [x][y]). The pieces
+     * are the shared, immutable flyweights, so no Piece objects are created and
+     * changing the array does not change the game.
+     *
+     * @return the board layout
+     */
     public Piece[][] getBoard() {
         Piece[][] boardCopy = new Piece[9][10];
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[i].length; j++) {
-                Piece piece = board[i][j];
-                if (piece != null) {
-                    boardCopy[i][j] = piece.copy();
-                }
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 10; j++) {
+                boardCopy[i][j] = getPiece(i, j);
             }
         }
         return boardCopy;
     }
 
+    /**
+     * Finds the squares of the pieces of one color that are still on the board,
+     * reading the position's piece lists so that empty squares are never
+     * visited.
+     *
+     * @param c the color of the pieces
+     * @return the squares (in board array coordinates), grouped by piece type
+     */
+    public Collection<Point> getPieceSquares(Color c) {
+        int side = Position.sideOf(c);
+        Collection<Point> squares = new ArrayList<>();
+        for (PieceType type : PieceType.values()) {
+            int code = Position.code(side, type);
+            for (int i = 0; i < position.pieceCount(code); i++) {
+                int sq = position.pieceSquare(code, i);
+                squares.add(new Point(Bitboard.file(sq), Bitboard.rank(sq)));
+            }
+        }
+        return squares;
+    }
+
+    /**
+     * @return a copy of the game's bitboard position
+     */
+    public Position getPosition() {
+        return position.copy();
+    }
+
     public int getNumTurns() {
         return numTurns;
     }
 
+    /**
+     * @return the Zobrist hash of the current position, which identifies the
+     *         pieces on the board and the player to move
+     */
+    public long getHash() {
+        return position.getHash();
+    }
+
+    /**
+     * @return the square of the piece in play, or null if there is none
+     */
+    public Point getSquareInPlay() {
+        if (squareInPlay == null) {
+            return null;
+        }
+        return new Point(squareInPlay);
+    }
+
+    /**
+     * @return the piece in play, or null if there is none
+     */
     public Piece getPieceInPlay() {
-        return pieceInPlay.copy();
+        if (squareInPlay == null) {
+            return null;
+        }
+        return getPiece(squareInPlay.x, squareInPlay.y);
     }
 
-    public Map<Color, General> getGenerals() {
-        Map<Color, General> mapCopy = new HashMap<>();
-        for (Color c : generals.keySet()) {
-            mapCopy.put(c, generals.get(c).copy());
+    /**
+     * @return the square of each color's general (colors without a general on
+     *         the board are left out)
+     */
+    public Map<Color, Point> getGenerals() {
+        Map<Color, Point> mapCopy = new HashMap<>();
+        for (int side = Position.RED; side <= Position.BLACK; side++) {
+            int sq = position.generalSquare(side);
+            if (sq >= 0) {
+                Point p = new Point(Bitboard.file(sq), Bitboard.rank(sq));
+                mapCopy.put(Position.colorOf(side), p);
+            }
         }
         return mapCopy;
     }
@@ -417,8 +503,17 @@ public class ChineseChess {
         return this.gameState;
     }
 
+    /**
+     * @return the tablebase result of the position for the side to move, as
+     *         found by the last checkState(): Tablebase.UNKNOWN, Tablebase.DRAW
+     *         or 1 + the plies to mate (see Tablebase.wdl())
+     */
+    public int getTablebaseResult() {
+        return this.tablebaseResult;
+    }
+
     public boolean isRedTurn() {
-        return this.redTurn;
+        return position.getSideToMove() == Position.RED;
     }
 
     /**
@@ -426,37 +521,42 @@ public class ChineseChess {
      *
      * @param x column of cell
      * @param y row of cell
-     * @return the piece held in that cell
+     * @return the shared Piece held in that cell (null if empty)
      */
     public Piece getPiece(int x, int y) {
-        return this.board[x][y];
+        return Piece.of(position.pieceAt(Bitboard.square(x, y)));
     }
+
     // **************************************************************************
     // * Setters
     // **************************************************************************
 
     public void setBoard(Piece[][] board) {
-        this.board = board;
+        this.position = Position.fromBoard(board, position.getSideToMove());
     }
 
     public void setGameState(GameState gameState) {
         this.gameState = gameState;
     }
 
-    public void setGenerals(Map<Color, General> generals) {
-        this.generals = generals;
-    }
-
     public void setNumTurns(int numTurns) {
         this.numTurns = numTurns;
     }
 
-    public void setPieceInPlay(Piece pieceInPlay) {
-        this.pieceInPlay = pieceInPlay;
+    public void setSquareInPlay(Point squareInPlay) {
+        this.squareInPlay = squareInPlay;
+    }
+
+    public void setTablebases(Tablebases tablebases) {
+        this.tablebases = tablebases;
     }
 
     public void setRedTurn(boolean redTurn) {
-        this.redTurn = redTurn;
+        if (redTurn) {
+            position.setSideToMove(Position.RED);
+        } else {
+            position.setSideToMove(Position.BLACK);
+        }
     }
 
     // **************************************************************************
@@ -0,0 +1,231 @@
+package org.cis120.chinesechess;
+
+/**
+ * Static evaluation of positions for the search (see Search).
+ *
+ * Scores are in centipawns (a soldier that has not crossed the river is worth
+ * 100 in the middlegame) from the point of view of the side to move, so a
+ * positive score means the side to move is ahead.
+ *
+ * The evaluation is tapered: every piece has a middlegame and an endgame value
+ * on each square (its material plus a piece-square table bonus), and the two
+ * totals are blended by the game phase, which falls from PHASE_MAX to 0 as
+ * chariots, horses and cannons are exchanged. Position keeps both totals and
+ * the phase up to date as pieces are put, removed and moved (like its Zobrist
+ * hash), so evaluating a position takes constant time.
+ *
+ * The tables below are written for red, with the top row (rank 9) first, as
+ * the board is drawn. Black uses the same tables mirrored top to bottom, and
+ * black values count against red.
+ *
+ */
+public final class Evaluation {
+
+    // material values by piece type ordinal (the general is never captured)
+    static final int[] VALUES = { 100, 450, 900, 400, 200, 200, 0 };
+    private static final int[] ENDGAME_VALUES = { 150, 400, 950, 450, 200, 200, 0 };
+
+    // game phase weights by piece type ordinal
+    private static final int[] PHASE_WEIGHTS = { 0, 2, 4, 2, 0, 0, 0 };
+    public static final int PHASE_MAX = 32; // both sides with all chariots, horses and cannons
+
+    // value of each (piece code, square), red positive and black negative
+    static final int[][] MIDGAME = new int[Position.PIECE_CODES][Bitboard.SQUARES];
+    static final int[][] ENDGAME = new int[Position.PIECE_CODES][Bitboard.SQUARES];
+    static final int[] PHASE = new int[Position.PIECE_CODES]; // phase weight by piece code
+
+    // **************************************************************************
+    // * PIECE-SQUARE TABLES (red's point of view, rank 9 first)
+    // **************************************************************************
+
+    private static final int[] SOLDIER_MG = {
+        0, 3, 6, 9, 12, 9, 6, 3, 0,
+        18, 36, 56, 80, 120, 80, 56, 36, 18,
+        14, 26, 42, 60, 80, 60, 42, 26, 14,
+        10, 20, 30, 34, 40, 34, 30, 20, 10,
+        6, 12, 18, 18, 20, 18, 18, 12, 6,
+        2, 0, 8, 0, 8, 0, 8, 0, 2,
+        0, 0, -2, 0, 4, 0, -2, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int[] SOLDIER_EG = {
+        10, 15, 20, 25, 30, 25, 20, 15, 10,
+        50, 70, 90, 110, 140, 110, 90, 70, 50,
+        45, 60, 75, 90, 105, 90, 75, 60, 45,
+        40, 50, 60, 65, 70, 65, 60, 50, 40,
+        35, 40, 45, 45, 50, 45, 45, 40, 35,
+        2, 0, 8, 0, 8, 0, 8, 0, 2,
+        0, 0, -2, 0, 4, 0, -2, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int[] CANNON = {
+        6, 4, 0, -10, -12, -10, 0, 4, 6,
+        2, 2, 0, -4, -14, -4, 0, 2, 2,
+        2, 2, 0, -10, -8, -10, 0, 2, 2,
+        0, 0, -2, 4, 10, 4, -2, 0, 0,
+        0, 0, 0, 2, 8, 2, 0, 0, 0,
+        -2, 0, 4, 2, 6, 2, 4, 0, -2,
+        0, 0, 0, 2, 4, 2, 0, 0, 0,
+        4, 0, 8, 6, 10, 6, 8, 0, 4,
+        0, 2, 4, 6, 6, 6, 4, 2, 0,
+        0, 0, 2, 6, 6, 6, 2, 0, 0
+    };
+
+    private static final int[] CHARIOT = {
+        14, 14, 12, 18, 16, 18, 12, 14, 14,
+        16, 20, 18, 24, 26, 24, 18, 20, 16,
+        12, 12, 12, 18, 18, 18, 12, 12, 12,
+        12, 18, 16, 22, 22, 22, 16, 18, 12,
+        12, 14, 12, 18, 18, 18, 12, 14, 12,
+        12, 16, 14, 20, 20, 20, 14, 16, 12,
+        6, 10, 8, 14, 14, 14, 8, 10, 6,
+        4, 8, 6, 14, 12, 14, 6, 8, 4,
+        8, 4, 8, 16, 8, 16, 8, 4, 8,
+        -2, 10, 6, 14, 12, 14, 6, 10, -2
+    };
+
+    private static final int[] HORSE = {
+        4, 8, 16, 12, 4, 12, 16, 8, 4,
+        4, 10, 28, 16, 8, 16, 28, 10, 4,
+        12, 14, 16, 20, 18, 20, 16, 14, 12,
+        8, 24, 18, 24, 20, 24, 18, 24, 8,
+        6, 16, 14, 18, 16, 18, 14, 16, 6,
+        4, 12, 16, 14, 12, 14, 16, 12, 4,
+        2, 6, 8, 6, 10, 6, 8, 6, 2,
+        4, 2, 8, 8, 4, 8, 8, 2, 4,
+        0, 2, 4, 4, -2, 4, 4, 2, 0,
+        0, -4, 0, 0, 0, 0, 0, -4, 0
+    };
+
+    // elephants may cross the river in this game, but are worth less there
+    private static final int[] ELEPHANT = {
+        -10, -10, -10, -10, -10, -10, -10, -10, -10,
+        -10, -10, -10, -10, -10, -10, -10, -10, -10,
+        -10, -10, -10, -10, -10, -10, -10, -10, -10,
+        -10, -10, -10, -10, -10, -10, -10, -10, -10,
+        -10, -10, -10, -10, -10, -10, -10, -10, -10,
+        0, 0, -2, 0, 0, 0, -2, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        -2, 0, 0, 0, 6, 0, 0, 0, -2,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int[] GUARD = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, -2, 0, -2, 0, 0, 0,
+        0, 0, 0, 0, 4, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    // the general is safest at home in the middlegame...
+    private static final int[] GENERAL_MG = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, -12, -10, -12, 0, 0, 0,
+        0, 0, 0, -8, -6, -8, 0, 0, 0,
+        0, 0, 0, -4, 0, -4, 0, 0, 0
+    };
+
+    // ...and more useful in the middle of the palace in the endgame
+    private static final int[] GENERAL_EG = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, -2, 4, -2, 0, 0, 0,
+        0, 0, 0, -2, 2, -2, 0, 0, 0,
+        0, 0, 0, -6, -4, -6, 0, 0, 0
+    };
+
+    private static final int[][] TABLES_MG = {
+        SOLDIER_MG, CANNON, CHARIOT, HORSE, ELEPHANT, GUARD, GENERAL_MG
+    };
+    private static final int[][] TABLES_EG = {
+        SOLDIER_EG, CANNON, CHARIOT, HORSE, ELEPHANT, GUARD, GENERAL_EG
+    };
+
+    static {
+        for (int type = 0; type < VALUES.length; type++) {
+            for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+                // black uses the red table mirrored top to bottom
+                int mirror = Bitboard.square(Bitboard.file(sq),
+                        Bitboard.RANKS - 1 - Bitboard.rank(sq));
+                int red = Position.code(Position.RED, type);
+                int black = Position.code(Position.BLACK, type);
+                MIDGAME[red][sq] = VALUES[type] + TABLES_MG[type][sq];
+                ENDGAME[red][sq] = ENDGAME_VALUES[type] + TABLES_EG[type][sq];
+                MIDGAME[black][sq] = -(VALUES[type] + TABLES_MG[type][mirror]);
+                ENDGAME[black][sq] = -(ENDGAME_VALUES[type] + TABLES_EG[type][mirror]);
+            }
+            PHASE[Position.code(Position.RED, type)] = PHASE_WEIGHTS[type];
+            PHASE[Position.code(Position.BLACK, type)] = PHASE_WEIGHTS[type];
+        }
+    }
+
+    private Evaluation() {
+    }
+
+    // **************************************************************************
+    // * EVALUATION
+    // **************************************************************************
+
+    /**
+     * @return the score of the position for the side to move
+     */
+    public static int evaluate(Position pos) {
+        int score = taper(pos.getMidgameScore(), pos.getEndgameScore(), pos.getPhase());
+        return (pos.getSideToMove() == Position.RED) ? score : -score;
+    }
+
+    /**
+     * Evaluates a position by visiting every piece, without the totals kept by
+     * Position. Used to check the incremental updates.
+     *
+     * @return the score of the position for the side to move
+     */
+    public static int evaluateFromScratch(Position pos) {
+        int mg = 0;
+        int eg = 0;
+        int phase = 0;
+        for (int code = 1; code < Position.PIECE_CODES; code++) {
+            for (int i = 0; i < pos.pieceCount(code); i++) {
+                int sq = pos.pieceSquare(code, i);
+                mg += MIDGAME[code][sq];
+                eg += ENDGAME[code][sq];
+                phase += PHASE[code];
+            }
+        }
+        int score = taper(mg, eg, phase);
+        return (pos.getSideToMove() == Position.RED) ? score : -score;
+    }
+
+    /**
+     * Helper for evaluate: blends the middlegame and endgame scores (for red)
+     * by the phase.
+     */
+    private static int taper(int mg, int eg, int phase) {
+        phase = Math.min(phase, PHASE_MAX);
+        return (mg * phase + eg * (PHASE_MAX - phase)) / PHASE_MAX;
+    }
+}
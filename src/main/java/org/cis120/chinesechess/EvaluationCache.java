@@ -0,0 +1,119 @@
+package org.cis120.chinesechess;
+
+import java.util.Arrays;
+
+/**
+ * A small cache of static evaluations, keyed by Position hash (see Zobrist),
+ * so that a position reached again by another move order is not evaluated
+ * again. It is separate from the transposition table, which only keeps the
+ * results of searches.
+ *
+ * The cache is direct-mapped and lossy: each hash has one slot, and a new
+ * evaluation always replaces the old one. Each slot is a single long holding
+ * the upper 48 bits of the hash and the 16-bit score, so a probe is one array
+ * read and never allocates.
+ *
+ * The cache counts its probes and hits (see getHitRate()), to help choose a
+ * size for a workload.
+ *
+ * Note: The counters are not synchronized, so each search thread should have
+ * its own cache.
+ *
+ */
+public class EvaluationCache {
+
+    public static final int MISS = Integer.MIN_VALUE; // returned by probe() on a miss
+
+    private static final long KEY_MASK = ~0xFFFFL; // the part of the hash kept in a slot
+
+    private final long[] slots; // a power of two of them
+    private long probes;
+    private long hits;
+
+    /**
+     * Constructor creates an empty cache.
+     *
+     * @param kilobytes the size of the cache (rounded down to a power of two)
+     * @throws IllegalArgumentException if the size is less than one kilobyte
+     */
+    public EvaluationCache(int kilobytes) {
+        if (kilobytes < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1 KB");
+        }
+        this.slots = new long[(Integer.highestOneBit(kilobytes) << 10) / Long.BYTES];
+    }
+
+    /**
+     * Looks up the evaluation of a position.
+     *
+     * @param key the position hash
+     * @return the cached score, or MISS
+     */
+    public int probe(long key) {
+        probes++;
+        long slot = slots[index(key)];
+        if (slot == 0 || ((slot ^ key) & KEY_MASK) != 0) {
+            return MISS;
+        }
+        hits++;
+        return (short) slot;
+    }
+
+    /**
+     * Stores the evaluation of a position, replacing whatever was in its slot.
+     *
+     * @param key   the position hash
+     * @param score the score (it must fit in 16 bits)
+     */
+    public void store(long key, int score) {
+        slots[index(key)] = (key & KEY_MASK) | (score & 0xFFFF);
+    }
+
+    /**
+     * Empties the cache (e.g. when the evaluation changes) and resets the
+     * counters.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        resetCounters();
+    }
+
+    /**
+     * Sets the probe and hit counters to 0.
+     */
+    public void resetCounters() {
+        probes = 0;
+        hits = 0;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the fraction of probes that hit since the counters were reset
+     *         (0 if there were none)
+     */
+    public double getHitRate() {
+        return (probes == 0) ? 0 : (double) hits / probes;
+    }
+
+    /**
+     * @return the number of slots
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Helper for the cache: the slot of a hash. The low bits choose the slot,
+     * and the high bits are checked in it.
+     */
+    private int index(long key) {
+        return (int) key & (slots.length - 1);
+    }
+}
@@ -0,0 +1,110 @@
+package org.cis120.chinesechess;
+
+/**
+ * A padded one-dimensional board layout (a "mailbox") with sentinel cells
+ * around the playing field.
+ *
+ * The 9x10 board is stored inside an 11x14 array: one padding column on each
+ * side and two padding rows above and below. A step of one column or row
+ * becomes a fixed offset, and any step of up to two squares (horse jumps,
+ * elephant moves) that leaves the board lands on an OFFBOARD cell. Move
+ * generators can therefore walk offsets and stop at the sentinel instead of
+ * checking coordinates at every step.
+ *
+ * Note: Columns wrap around into the next row, so the right padding column of
+ * one row and the left padding column of the next row together act as a
+ * two-cell border.
+ *
+ */
+public final class Mailbox {
+
+    public static final int WIDTH = 11;
+    public static final int HEIGHT = 14;
+    public static final int SIZE = WIDTH * HEIGHT;
+
+    public static final byte OFFBOARD = -1; // sentinel value of padding cells
+
+    // step offsets (north is towards rank 0)
+    public static final int EAST = 1;
+    public static final int WEST = -1;
+    public static final int SOUTH = WIDTH;
+    public static final int NORTH = -WIDTH;
+
+    public static final int[] ORTHOGONAL = { EAST, WEST, SOUTH, NORTH };
+    public static final int[] DIAGONAL = { SOUTH + EAST, SOUTH + WEST, NORTH + EAST, NORTH + WEST };
+
+    // horse legs and the two jumps that each leg opens (same order)
+    public static final int[] HORSE_LEGS = ORTHOGONAL;
+    public static final int[][] HORSE_JUMPS = {
+        { 2 * EAST + SOUTH, 2 * EAST + NORTH },
+        { 2 * WEST + SOUTH, 2 * WEST + NORTH },
+        { 2 * SOUTH + EAST, 2 * SOUTH + WEST },
+        { 2 * NORTH + EAST, 2 * NORTH + WEST }
+    };
+
+    private static final int[] TO_CELL = new int[Bitboard.SQUARES];
+    private static final int[] TO_SQUARE = new int[SIZE];
+    private static final boolean[][] PALACE = new boolean[2][SIZE];
+    private static final boolean[][] ACROSS_RIVER = new boolean[2][SIZE];
+
+    static {
+        java.util.Arrays.fill(TO_SQUARE, -1);
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            int x = Bitboard.file(sq);
+            int y = Bitboard.rank(sq);
+            int cell = (y + 2) * WIDTH + (x + 1);
+            TO_CELL[sq] = cell;
+            TO_SQUARE[cell] = sq;
+
+            boolean palaceFile = (x >= 3) && (x <= 5);
+            PALACE[Position.RED][cell] = palaceFile && (y >= 7);
+            PALACE[Position.BLACK][cell] = palaceFile && (y <= 2);
+            ACROSS_RIVER[Position.RED][cell] = (y <= 4);
+            ACROSS_RIVER[Position.BLACK][cell] = (y >= 5);
+        }
+    }
+
+    private Mailbox() {
+    }
+
+    /**
+     * @return a new mailbox array with every board cell empty and every padding
+     *         cell set to OFFBOARD
+     */
+    public static byte[] emptyBoard() {
+        byte[] cells = new byte[SIZE];
+        java.util.Arrays.fill(cells, OFFBOARD);
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            cells[TO_CELL[sq]] = (byte) Position.EMPTY;
+        }
+        return cells;
+    }
+
+    /**
+     * @return the mailbox cell of a board square
+     */
+    public static int cell(int sq) {
+        return TO_CELL[sq];
+    }
+
+    /**
+     * @return the board square of a mailbox cell, or -1 for a padding cell
+     */
+    public static int square(int cell) {
+        return TO_SQUARE[cell];
+    }
+
+    /**
+     * @return true if the cell is inside the given side's palace
+     */
+    public static boolean inPalace(int side, int cell) {
+        return PALACE[side][cell];
+    }
+
+    /**
+     * @return true if the cell is in the opponent's half of the board for side
+     */
+    public static boolean acrossRiver(int side, int cell) {
+        return ACROSS_RIVER[side][cell];
+    }
+}
@@ -0,0 +1,87 @@
+package org.cis120.chinesechess;
+
+/**
+ * Static helpers for moves packed into a single int, so that move generation
+ * does not allocate objects.
+ *
+ * Bits 0 to 6 hold the square the piece moves from, bits 7 to 13 the square
+ * it moves to, bits 14 to 17 the code of the moving piece and bits 18 to 21
+ * the code of the captured piece (Position.EMPTY for a quiet move). Squares
+ * and piece codes are those used by Position.
+ *
+ * Note: No real move goes from a square to itself, so 0 (NONE) never
+ * describes a move.
+ *
+ */
+public final class Move {
+
+    public static final int NONE = 0;
+
+    private static final int TO_SHIFT = 7;
+    private static final int PIECE_SHIFT = 14;
+    private static final int CAPTURED_SHIFT = 18;
+
+    private Move() {
+    }
+
+    /**
+     * Packs a move into an int.
+     *
+     * @param from     the square the piece moves from
+     * @param to       the square the piece moves to
+     * @param piece    the code of the moving piece
+     * @param captured the code of the captured piece (EMPTY if none)
+     * @return the packed move
+     */
+    public static int encode(int from, int to, int piece, int captured) {
+        return from | (to << TO_SHIFT) | (piece << PIECE_SHIFT) | (captured << CAPTURED_SHIFT);
+    }
+
+    public static int from(int move) {
+        return move & 0x7F;
+    }
+
+    public static int to(int move) {
+        return (move >>> TO_SHIFT) & 0x7F;
+    }
+
+    public static int piece(int move) {
+        return (move >>> PIECE_SHIFT) & 0xF;
+    }
+
+    public static int captured(int move) {
+        return (move >>> CAPTURED_SHIFT) & 0xF;
+    }
+
+    public static boolean isCapture(int move) {
+        return captured(move) != Position.EMPTY;
+    }
+
+    /**
+     * @return a readable form of the move, e.g. "h2-e2" (files a to i from left
+     *         to right, ranks 0 to 9 from the bottom of the board)
+     */
+    public static String toString(int move) {
+        return squareName(from(move)) + (isCapture(move) ? "x" : "-") + squareName(to(move));
+    }
+
+    /**
+     * @return the name of a square, e.g. "e0" for the red general's start square
+     */
+    public static String squareName(int sq) {
+        return "" + (char) ('a' + Bitboard.file(sq)) + (9 - Bitboard.rank(sq));
+    }
+
+    /**
+     * @return the square of a name such as "e0" (see squareName()), or -1 if
+     *         the name is not a square
+     */
+    public static int parseSquare(String name) {
+        if (name.length() != 2) {
+            return -1;
+        }
+        int x = name.charAt(0) - 'a';
+        int y = 9 - (name.charAt(1) - '0');
+        return Bitboard.onBoard(x, y) ? Bitboard.square(x, y) : -1;
+    }
+}
@@ -0,0 +1,64 @@
+package org.cis120.chinesechess;
+
+/**
+ * A reusable buffer of packed moves (see Move). Move generators append to a
+ * list supplied by the caller, so a search or checkmate test can generate
+ * moves many times without allocating.
+ *
+ */
+public class MoveList {
+
+    // no position has more pseudo-legal moves than this
+    public static final int CAPACITY = 128;
+
+    private final int[] moves;
+    private int size;
+
+    /**
+     * Constructor creates an empty list.
+     */
+    public MoveList() {
+        this.moves = new int[CAPACITY];
+        this.size = 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int move) {
+        moves[size++] = move;
+    }
+
+    public int get(int i) {
+        return moves[i];
+    }
+
+    public void set(int i, int move) {
+        moves[i] = move;
+    }
+
+    /**
+     * Shortens the list to its first size moves.
+     */
+    public void truncate(int size) {
+        this.size = Math.min(this.size, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the first move in the list going from one square to another, or
+     *         Move.NONE if there is none
+     */
+    public int find(int from, int to) {
+        for (int i = 0; i < size; i++) {
+            if (Move.from(moves[i]) == from && Move.to(moves[i]) == to) {
+                return moves[i];
+            }
+        }
+        return Move.NONE;
+    }
+}
@@ -0,0 +1,171 @@
+package org.cis120.chinesechess;
+
+/**
+ * Move ordering for the search (see Search). Alpha-beta prunes the most when
+ * the best move is searched first, so every move is given a score and the
+ * moves are searched from the highest score down:
+ *
+ * 1. the hash move (the best move stored in the transposition table);
+ * 2. captures, most valuable victim first and then least valuable attacker
+ *    first (MVV-LVA);
+ * 3. the two killer moves of the ply (quiet moves that caused a cutoff in a
+ *    sibling position);
+ * 4. the countermove of the opponent's last move (the quiet move that last
+ *    refuted it);
+ * 5. the other quiet moves, by their history score.
+ *
+ * The history table is a "butterfly" table indexed by side and from/to
+ * square. A quiet move that causes a cutoff gains depth squared, and the
+ * quiet moves searched before it lose as much; the update is damped so that
+ * scores stay within HISTORY_MAX.
+ *
+ * Note: All tables are primitive arrays that are allocated once and reused by
+ * every search. History is halved between searches rather than cleared, so
+ * what was learned about the last move still helps the next one.
+ *
+ */
+public class MoveOrdering {
+
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int CAPTURE = 1 << 28;
+    private static final int KILLER = 1 << 26; // the first killer; the second is one less
+    private static final int COUNTERMOVE = KILLER - 2;
+    private static final int HISTORY_MAX = 1 << 14;
+
+    // attacker ranks for MVV-LVA by piece type ordinal (cheaper attackers first)
+    private static final int[] ATTACKER_RANK = { 0, 4, 5, 3, 2, 1, 6 };
+
+    private static final int SQUARES = Bitboard.SQUARES;
+
+    private final int[][] killers; // two quiet moves by ply
+    private final int[] history = new int[2 * SQUARES * SQUARES]; // by side, from and to
+    private final int[] countermoves = new int[Position.PIECE_CODES * SQUARES]; // by piece + to
+
+    /**
+     * Constructor
+     *
+     * @param maxPly the number of plies to keep killer moves for
+     */
+    public MoveOrdering(int maxPly) {
+        this.killers = new int[maxPly][2];
+    }
+
+    /**
+     * Prepares the tables for a new search: killers are forgotten and history
+     * scores are halved.
+     */
+    public void newSearch() {
+        for (int[] slots : killers) {
+            slots[0] = Move.NONE;
+            slots[1] = Move.NONE;
+        }
+        for (int i = 0; i < history.length; i++) {
+            history[i] /= 2;
+        }
+    }
+
+    /**
+     * Empties every table.
+     */
+    public void clear() {
+        newSearch();
+        java.util.Arrays.fill(history, 0);
+        java.util.Arrays.fill(countermoves, Move.NONE);
+    }
+
+    // **************************************************************************
+    // * SCORING
+    // **************************************************************************
+
+    /**
+     * Scores every move of a list for ordering.
+     *
+     * @param list     the moves
+     * @param scores   array receiving the score of each move (by index)
+     * @param ply      the distance from the root
+     * @param hashMove the best move from the transposition table (or Move.NONE)
+     * @param previous the opponent's last move (or Move.NONE)
+     */
+    public void score(MoveList list, int[] scores, int ply, int hashMove, int previous) {
+        int killer1 = killers[ply][0];
+        int killer2 = killers[ply][1];
+        int counter = (previous == Move.NONE) ? Move.NONE : countermoves[counterIndex(previous)];
+
+        for (int i = 0; i < list.size(); i++) {
+            int move = list.get(i);
+            if (move == hashMove) {
+                scores[i] = HASH_MOVE;
+            } else if (Move.isCapture(move)) {
+                scores[i] = CAPTURE + StaticExchange.value(Move.captured(move)) * 8
+                        - ATTACKER_RANK[Position.typeOf(Move.piece(move))];
+            } else if (move == killer1) {
+                scores[i] = KILLER;
+            } else if (move == killer2) {
+                scores[i] = KILLER - 1;
+            } else if (move == counter) {
+                scores[i] = COUNTERMOVE;
+            } else {
+                scores[i] = history[historyIndex(move)];
+            }
+        }
+    }
+
+    /**
+     * Records a quiet move that caused a beta cutoff.
+     *
+     * @param move     the move
+     * @param ply      the distance from the root
+     * @param depth    the remaining depth of the search that cut off
+     * @param previous the opponent's last move (or Move.NONE)
+     * @param tried    the moves searched at this node, in order
+     * @param count    the number of moves searched before this one
+     */
+    public void cutoff(int move, int ply, int depth, int previous, MoveList tried, int count) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        if (previous != Move.NONE) {
+            countermoves[counterIndex(previous)] = move;
+        }
+
+        int bonus = Math.min(depth * depth, HISTORY_MAX);
+        updateHistory(move, bonus);
+        for (int i = 0; i < count; i++) {
+            if (!Move.isCapture(tried.get(i))) {
+                updateHistory(tried.get(i), -bonus);
+            }
+        }
+    }
+
+    /**
+     * @return the history score of a quiet move
+     */
+    public int history(int move) {
+        return history[historyIndex(move)];
+    }
+
+    /**
+     * Helper for cutoff: a damped history update, so that scores stay within
+     * +/- HISTORY_MAX.
+     */
+    private void updateHistory(int move, int bonus) {
+        int i = historyIndex(move);
+        history[i] += bonus - history[i] * Math.abs(bonus) / HISTORY_MAX;
+    }
+
+    /**
+     * Helper for the tables: the history index of a move.
+     */
+    private static int historyIndex(int move) {
+        int side = Position.sideOf(Move.piece(move));
+        return (side * SQUARES + Move.from(move)) * SQUARES + Move.to(move);
+    }
+
+    /**
+     * Helper for the tables: the countermove index of the move being answered.
+     */
+    private static int counterIndex(int previous) {
+        return Move.piece(previous) * SQUARES + Move.to(previous);
+    }
+}
@@ -0,0 +1,327 @@
+package org.cis120.chinesechess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A small neural network evaluation in the style of NNUE ("efficiently
+ * updatable neural network"), which the search can use instead of Evaluation
+ * (see Search.setNetwork()).
+ *
+ * The inputs are binary features seen from one side: a feature is set for
+ * every (own general square, piece, square) on the board, except that side's
+ * own general, which chooses the square bucket instead. Squares and the
+ * general square are mirrored top to bottom for black, so both sides see
+ * their own general at the bottom of the board. The network has two layers:
+ *
+ * 1. the feature transformer, with 16-bit weights, turns the features of
+ *    each side into HIDDEN 16-bit sums (the accumulator of that side, see
+ *    Accumulator);
+ * 2. the output layer clips the sums of the side to move and then those of
+ *    the other side to [0, CLIP], and takes their dot product with 8-bit
+ *    weights.
+ *
+ * Only a few features change with each move, so the accumulators are updated
+ * by adding and subtracting weight rows rather than being computed again;
+ * only a move of a side's own general changes all of that side's features.
+ *
+ * All arithmetic is on integers in plain loops over primitive arrays, which
+ * the JIT compiler turns into SIMD instructions on CPUs that have them, so
+ * no GPU or extra module is needed.
+ *
+ * The weights are read from a binary file (see load() and write()): the
+ * MAGIC number, the VERSION, the number of hidden units, then the feature
+ * weights (feature by feature), the feature biases, the output weights (own
+ * side first) and the output bias, all big-endian.
+ *
+ */
+public final class Network {
+
+    public static final int MAGIC = 0x58514E4E; // "XQNN"
+    public static final int VERSION = 1;
+
+    public static final int BUCKETS = 9; // squares of the palace
+    public static final int PIECES = 13; // own pieces but the general, then opposing pieces
+    public static final int FEATURES = BUCKETS * PIECES * Bitboard.SQUARES;
+
+    public static final int CLIP = 255; // clipped ReLU limit of the accumulators
+    public static final int OUTPUT_SCALE = 64; // the output weights are in 1/64 units
+    public static final int SCORE_SCALE = 400; // centipawns of an output of CLIP * 64
+    public static final int MAX_SCORE = 20000; // scores are clamped well below mate scores
+
+    private final int hidden;
+    private final short[] featureWeights; // HIDDEN weights per feature
+    private final short[] featureBiases;
+    private final byte[] outputWeights; // own side's units, then the other side's
+    private final int outputBias;
+
+    /**
+     * Constructor
+     *
+     * @param hidden         the number of hidden units per side
+     * @param featureWeights FEATURES * hidden weights, feature by feature
+     * @param featureBiases  hidden biases
+     * @param outputWeights  2 * hidden weights, own side first
+     * @param outputBias     the output bias
+     * @throws IllegalArgumentException if the arrays do not have those sizes
+     */
+    public Network(int hidden, short[] featureWeights, short[] featureBiases,
+            byte[] outputWeights, int outputBias) {
+        if (hidden < 1 || featureWeights.length != FEATURES * hidden
+                || featureBiases.length != hidden || outputWeights.length != 2 * hidden) {
+            throw new IllegalArgumentException("Wrong network size");
+        }
+        this.hidden = hidden;
+        this.featureWeights = featureWeights;
+        this.featureBiases = featureBiases;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+    }
+
+    /**
+     * Creates a network with small random weights, for tests and benchmarks.
+     *
+     * @param hidden the number of hidden units per side
+     * @param seed   the random seed
+     * @return the network
+     */
+    public static Network random(int hidden, long seed) {
+        Random random = new Random(seed);
+        short[] weights = new short[FEATURES * hidden];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (short) (random.nextInt(129) - 64);
+        }
+        short[] biases = new short[hidden];
+        for (int i = 0; i < hidden; i++) {
+            biases[i] = (short) random.nextInt(CLIP);
+        }
+        byte[] output = new byte[2 * hidden];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = (byte) (random.nextInt(255) - 127);
+        }
+        return new Network(hidden, weights, biases, output, 0);
+    }
+
+    public int getHidden() {
+        return hidden;
+    }
+
+    // **************************************************************************
+    // * FILES
+    // **************************************************************************
+
+    /**
+     * Reads a network from a weights file.
+     *
+     * @param path the file
+     * @return the network
+     * @throws IOException if the file cannot be read or is not a network file
+     */
+    public static Network load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return load(in);
+        }
+    }
+
+    /**
+     * Reads a network from a stream in the weights file format.
+     *
+     * @param in the stream (it is read to the end, but not closed)
+     * @return the network
+     * @throws IOException if the stream cannot be read or does not hold a
+     *                     network
+     */
+    public static Network load(InputStream in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(in.readAllBytes());
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a network file");
+        }
+        if (buffer.getInt() != VERSION) {
+            throw new IOException("Unsupported network file version");
+        }
+        int hidden = buffer.getInt();
+        if (hidden < 1 || buffer.remaining() != fileSize(hidden) - 12) {
+            throw new IOException("Network file has the wrong size");
+        }
+
+        short[] weights = new short[FEATURES * hidden];
+        buffer.asShortBuffer().get(weights);
+        buffer.position(buffer.position() + 2 * weights.length);
+        short[] biases = new short[hidden];
+        buffer.asShortBuffer().get(biases);
+        buffer.position(buffer.position() + 2 * biases.length);
+        byte[] output = new byte[2 * hidden];
+        buffer.get(output);
+        return new Network(hidden, weights, biases, output, buffer.getInt());
+    }
+
+    /**
+     * Writes the network in the weights file format.
+     *
+     * @param out the stream (it is not closed)
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(fileSize(hidden));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(hidden);
+        buffer.asShortBuffer().put(featureWeights).put(featureBiases);
+        buffer.position(buffer.position() + 2 * (featureWeights.length + featureBiases.length));
+        buffer.put(outputWeights).putInt(outputBias);
+        out.write(buffer.array());
+    }
+
+    /**
+     * Helper for load and write: the size of a weights file in bytes.
+     */
+    private static int fileSize(int hidden) {
+        return 12 + 2 * (FEATURES * hidden + hidden) + 2 * hidden + 4;
+    }
+
+    // **************************************************************************
+    // * FEATURES
+    // **************************************************************************
+
+    /**
+     * @return the bucket of a side's general square, as seen by that side
+     */
+    public static int bucket(int side, int generalSq) {
+        int file = Math.max(3, Math.min(5, Bitboard.file(generalSq)));
+        int rank = Math.max(7, Math.min(9, relativeRank(side, generalSq)));
+        return (rank - 7) * 3 + file - 3;
+    }
+
+    /**
+     * @param side   the side that sees the feature
+     * @param bucket the bucket of that side's general square (see bucket())
+     * @param code   a piece code other than that side's general
+     * @param sq     the square of the piece
+     * @return the index of the feature
+     */
+    public static int feature(int side, int bucket, int code, int sq) {
+        int type = Position.typeOf(code);
+        int piece = (Position.sideOf(code) == side) ? type : 6 + type;
+        int relative = Bitboard.square(Bitboard.file(sq), relativeRank(side, sq));
+        return (bucket * PIECES + piece) * Bitboard.SQUARES + relative;
+    }
+
+    /**
+     * Helper for the features: the rank index of a square as seen by a side
+     * (black sees the board turned top to bottom).
+     */
+    private static int relativeRank(int side, int sq) {
+        return (side == Position.RED) ? Bitboard.rank(sq) : Bitboard.RANKS - 1 - Bitboard.rank(sq);
+    }
+
+    // **************************************************************************
+    // * INFERENCE
+    // **************************************************************************
+
+    /**
+     * Sets an accumulator to the feature biases.
+     */
+    void initialize(short[] sums) {
+        System.arraycopy(featureBiases, 0, sums, 0, hidden);
+    }
+
+    /**
+     * Adds the weights of a feature to an accumulator.
+     */
+    void add(short[] sums, int feature) {
+        int base = feature * hidden;
+        for (int i = 0; i < hidden; i++) {
+            sums[i] += featureWeights[base + i];
+        }
+    }
+
+    /**
+     * Subtracts the weights of a feature from an accumulator.
+     */
+    void subtract(short[] sums, int feature) {
+        int base = feature * hidden;
+        for (int i = 0; i < hidden; i++) {
+            sums[i] -= featureWeights[base + i];
+        }
+    }
+
+    /**
+     * Replaces one feature of an accumulator with another (a piece moving).
+     */
+    void replace(short[] sums, int removed, int added) {
+        int from = removed * hidden;
+        int to = added * hidden;
+        for (int i = 0; i < hidden; i++) {
+            sums[i] += featureWeights[to + i] - featureWeights[from + i];
+        }
+    }
+
+    /**
+     * Computes the output layer.
+     *
+     * @param us   the accumulator of the side to move
+     * @param them the accumulator of the other side
+     * @return the score for the side to move, in centipawns (at most
+     *         MAX_SCORE either way)
+     */
+    int output(short[] us, short[] them) {
+        int sum = outputBias + dot(us, 0) + dot(them, hidden);
+        long score = (long) sum * SCORE_SCALE / (CLIP * OUTPUT_SCALE);
+        return (int) Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+    }
+
+    /**
+     * Helper for output: the dot product of clipped sums and output weights.
+     */
+    private int dot(short[] sums, int offset) {
+        int total = 0;
+        for (int i = 0; i < hidden; i++) {
+            int clipped = Math.min(Math.max(sums[i], 0), CLIP);
+            total += clipped * outputWeights[offset + i];
+        }
+        return total;
+    }
+
+    // **************************************************************************
+    // * MAIN METHOD
+    // **************************************************************************
+
+    /**
+     * Searches a position with the hand-crafted evaluation and then with a
+     * network, and prints the nodes per second of each.
+     *
+     * Usage: Network weights-file|random depth [FEN]
+     *
+     * @param args the command line arguments
+     * @throws IOException if the weights file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: Network weights-file|random depth [FEN]");
+            return;
+        }
+        Network network = args[0].equals("random") ? random(256, 1) : load(Path.of(args[0]));
+        int depth = Integer.parseInt(args[1]);
+        Position pos;
+        if (args.length > 2) {
+            pos = Position.fromFen(String.join(" ", Arrays.copyOfRange(args, 2, args.length)));
+        } else {
+            pos = new ChineseChess().getPosition();
+        }
+
+        Search search = new Search();
+        SearchResult handCrafted = search.search(pos, depth);
+        System.out.println("evaluation: " + handCrafted);
+
+        search = new Search();
+        search.setNetwork(network);
+        SearchResult neural = search.search(pos, depth);
+        System.out.println("network:    " + neural);
+        System.out.printf("network speed: %.2f of the evaluation%n",
+                (double) neural.getNodesPerSecond() / Math.max(1, handCrafted.getNodesPerSecond()));
+    }
+}
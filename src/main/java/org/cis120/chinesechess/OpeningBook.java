@@ -0,0 +1,187 @@
+package org.cis120.chinesechess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * An opening book: moves known to be good in the positions of the opening,
+ * so the computer does not have to search them every game. Books are
+ * compiled from game records by OpeningBookBuilder.
+ *
+ * A book file holds a header (the MAGIC number, the VERSION, the number of
+ * records and a reserved int) and then fixed-size records, sorted by
+ * position hash (see Zobrist) and, for each position, by weight:
+ *
+ * - the position hash (8 bytes);
+ * - the move, as from * 90 + to (2 bytes);
+ * - the weight, how often the move should be played (2 bytes, unsigned);
+ * - the learn value, kept for learning from the engine's own games (4 bytes,
+ *   0 in books from OpeningBookBuilder).
+ *
+ * Books are read through a read-only memory mapping (see open()), so opening
+ * one takes no time whatever its size, the operating system shares its pages
+ * between processes, and a lookup is a binary search that only touches the
+ * pages it needs.
+ *
+ */
+public class OpeningBook {
+
+    public static final int MAGIC = 0x5851424B; // "XQBK"
+    public static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 16;
+
+    private final ByteBuffer records;
+    private final int size; // number of records
+
+    /**
+     * Constructor
+     *
+     * @param records the records of a book file (without the header)
+     */
+    OpeningBook(ByteBuffer records) {
+        this.records = records;
+        this.size = records.capacity() / RECORD_BYTES;
+    }
+
+    /**
+     * Opens a book file through a read-only memory mapping.
+     *
+     * @param path the file
+     * @return the book
+     * @throws IOException if the file cannot be read or is not a book file
+     */
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (file.remaining() < HEADER_BYTES || file.getInt() != MAGIC) {
+                throw new IOException("Not an opening book file: " + path);
+            }
+            if (file.getInt() != VERSION) {
+                throw new IOException("Unsupported opening book version: " + path);
+            }
+            int count = file.getInt();
+            file.getInt(); // reserved
+            if (count < 0 || (long) count * RECORD_BYTES != file.remaining()) {
+                throw new IOException("Opening book file has the wrong size: " + path);
+            }
+            // the mapping stays valid after the channel is closed
+            return new OpeningBook(file.slice());
+        }
+    }
+
+    // **************************************************************************
+    // * LOOKUP
+    // **************************************************************************
+
+    /**
+     * Finds the first record of a position by binary search.
+     *
+     * @param key the position hash
+     * @return the index of the record, or -1 if the position is not in the
+     *         book
+     */
+    public int find(long key) {
+        int low = 0;
+        int high = size; // the first record with a key >= key is in [low, high]
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (key(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return (low < size && key(low) == key) ? low : -1;
+    }
+
+    /**
+     * Chooses a book move at random, each legal move of the position with a
+     * probability in proportion to its weight.
+     *
+     * @param pos    the position
+     * @param random the source of randomness
+     * @return the legal move (see Move), or Move.NONE if the book has none
+     */
+    public int select(Position pos, Random random) {
+        long key = pos.getHash();
+        int first = find(key);
+        if (first < 0) {
+            return Move.NONE;
+        }
+        MoveList legal = new MoveList();
+        pos.generateLegalMoves(pos.getSideToMove(), legal);
+
+        int total = 0;
+        for (int i = first; i < size && key(i) == key; i++) {
+            if (legal.find(from(i), to(i)) != Move.NONE) {
+                total += weight(i);
+            }
+        }
+        if (total == 0) {
+            return Move.NONE;
+        }
+        int pick = random.nextInt(total);
+        for (int i = first; i < size && key(i) == key; i++) {
+            int move = legal.find(from(i), to(i));
+            if (move != Move.NONE) {
+                pick -= weight(i);
+                if (pick < 0) {
+                    return move;
+                }
+            }
+        }
+        return Move.NONE; // not reached
+    }
+
+    // **************************************************************************
+    // * RECORDS
+    // **************************************************************************
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the position hash of a record
+     */
+    public long key(int i) {
+        return records.getLong(i * RECORD_BYTES);
+    }
+
+    /**
+     * @return the from square of a record's move
+     */
+    public int from(int i) {
+        return records.getShort(i * RECORD_BYTES + 8) / Bitboard.SQUARES;
+    }
+
+    /**
+     * @return the to square of a record's move
+     */
+    public int to(int i) {
+        return records.getShort(i * RECORD_BYTES + 8) % Bitboard.SQUARES;
+    }
+
+    /**
+     * @return the weight of a record
+     */
+    public int weight(int i) {
+        return records.getShort(i * RECORD_BYTES + 10) & 0xFFFF;
+    }
+
+    /**
+     * @return the learn value of a record
+     */
+    public int learn(int i) {
+        return records.getInt(i * RECORD_BYTES + 12);
+    }
+}
@@ -0,0 +1,213 @@
+package org.cis120.chinesechess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiles an opening book (see OpeningBook) from game records.
+ *
+ * A game record is one line of moves from the starting position, in the form
+ * Move.toString() writes them ("h2-e2", "b2xb9"), separated by spaces. It may
+ * end with the result: "1-0" (red won), "0-1" (black won) or "1/2-1/2". Blank
+ * lines and lines starting with '#' are skipped.
+ *
+ * The first few moves of each game (see the constructor) are counted, each
+ * scoring 2 points for the side that went on to win the game, 1 for a draw
+ * or an unknown result and none for the side that lost. A move's weight in
+ * the book is its total score, so moves that did well are played more often
+ * and moves that only ever lost are left out.
+ *
+ */
+public class OpeningBookBuilder {
+
+    public static final int DEFAULT_PLIES = 20; // moves of each game put in the book
+
+    private static final int MAX_WEIGHT = 0xFFFF;
+
+    private final int plies;
+    // scores by position hash (in order) and move (from * 90 + to)
+    private final TreeMap<Long, Map<Integer, Integer>> scores = new TreeMap<>();
+    private int games;
+
+    /**
+     * Constructor
+     *
+     * @param plies the number of moves of each game to put in the book
+     */
+    public OpeningBookBuilder(int plies) {
+        this.plies = plies;
+    }
+
+    /**
+     * Adds a game record.
+     *
+     * @param record the moves of the game and its result (see above)
+     * @throws IllegalArgumentException if a move is not legal or not a move
+     */
+    public void addGame(String record) {
+        String line = record.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        String[] tokens = line.split("\\s+");
+        int count = tokens.length;
+        int winner = -1; // RED, BLACK or -1 for a draw or an unknown result
+        if (tokens[count - 1].equals("1-0")) {
+            winner = Position.RED;
+            count--;
+        } else if (tokens[count - 1].equals("0-1")) {
+            winner = Position.BLACK;
+            count--;
+        } else if (tokens[count - 1].equals("1/2-1/2") || tokens[count - 1].equals("*")) {
+            count--;
+        }
+
+        Position pos = new ChineseChess().getPosition();
+        MoveList legal = new MoveList();
+        for (int i = 0; i < count && i < plies; i++) {
+            int move = parseMove(pos, tokens[i], legal);
+            if (move == Move.NONE) {
+                throw new IllegalArgumentException("Illegal move " + tokens[i] + " in: " + line);
+            }
+            int side = pos.getSideToMove();
+            int score = (winner < 0) ? 1 : (winner == side) ? 2 : 0;
+            scores.computeIfAbsent(pos.getHash(), k -> new HashMap<>())
+                    .merge(Move.from(move) * Bitboard.SQUARES + Move.to(move), score, Integer::sum);
+            pos.makeMove(move);
+        }
+        games++;
+    }
+
+    /**
+     * Adds every game record of a file, one per line.
+     *
+     * @param path the file
+     * @throws IOException if the file cannot be read
+     */
+    public void addGames(Path path) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                addGame(line);
+            }
+        }
+    }
+
+    /**
+     * @return the number of games added
+     */
+    public int getGames() {
+        return games;
+    }
+
+    /**
+     * @return the book, in memory
+     */
+    public OpeningBook build() {
+        return new OpeningBook(encode().position(OpeningBook.HEADER_BYTES).slice());
+    }
+
+    /**
+     * Writes the book.
+     *
+     * @param out the stream (it is not closed)
+     * @return the number of records written
+     * @throws IOException if the stream cannot be written
+     */
+    public int write(OutputStream out) throws IOException {
+        ByteBuffer file = encode();
+        out.write(file.array());
+        return (file.capacity() - OpeningBook.HEADER_BYTES) / OpeningBook.RECORD_BYTES;
+    }
+
+    /**
+     * Writes the book to a file.
+     *
+     * @param path the file
+     * @return the number of records written
+     * @throws IOException if the file cannot be written
+     */
+    public int write(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            return write(out);
+        }
+    }
+
+    /**
+     * Helper for build and write: the book file, header and records.
+     */
+    private ByteBuffer encode() {
+        List<long[]> records = new ArrayList<>(); // key, move, weight
+        for (Map.Entry<Long, Map<Integer, Integer>> position : scores.entrySet()) {
+            List<long[]> moves = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> move : position.getValue().entrySet()) {
+                if (move.getValue() > 0) {
+                    moves.add(new long[] { position.getKey(), move.getKey(),
+                        Math.min(move.getValue(), MAX_WEIGHT) });
+                }
+            }
+            moves.sort((a, b) -> Long.compare(b[2], a[2])); // best first
+            records.addAll(moves);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.HEADER_BYTES
+                + records.size() * OpeningBook.RECORD_BYTES);
+        buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putInt(records.size())
+                .putInt(0);
+        for (long[] record : records) {
+            buffer.putLong(record[0]).putShort((short) record[1]).putShort((short) record[2])
+                    .putInt(0);
+        }
+        return buffer;
+    }
+
+    /**
+     * Helper for addGame: the legal move a token names, or Move.NONE.
+     */
+    private static int parseMove(Position pos, String token, MoveList legal) {
+        if (token.length() != 5) {
+            return Move.NONE;
+        }
+        int from = Move.parseSquare(token.substring(0, 2));
+        int to = Move.parseSquare(token.substring(3, 5));
+        if (from < 0 || to < 0) {
+            return Move.NONE;
+        }
+        legal.clear();
+        pos.generateLegalMoves(pos.getSideToMove(), legal);
+        return legal.find(from, to);
+    }
+
+    // **************************************************************************
+    // * MAIN METHOD
+    // **************************************************************************
+
+    /**
+     * Compiles a file of game records into a book file.
+     *
+     * Usage: OpeningBookBuilder games-file book-file [plies]
+     *
+     * @param args the command line arguments
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: OpeningBookBuilder games-file book-file [plies]");
+            return;
+        }
+        int plies = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_PLIES;
+        OpeningBookBuilder builder = new OpeningBookBuilder(plies);
+        builder.addGames(Path.of(args[0]));
+        int records = builder.write(Path.of(args[1]));
+        System.out.println(builder.getGames() + " games, " + records + " book moves");
+    }
+}
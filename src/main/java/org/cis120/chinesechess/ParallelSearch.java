@@ -0,0 +1,224 @@
+package org.cis120.chinesechess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A parallel search in the "Lazy SMP" style: several searches of the same
+ * position run at once, one per thread, and share a single transposition
+ * table. There is no other communication between the threads. Each thread
+ * has its own copy of the position, its own move-ordering tables and its own
+ * stacks (see Search), and the helper threads skip some depths, so the
+ * threads work at different depths and fill the table with results the
+ * others can use.
+ *
+ * The main thread follows the depth or time limit it is given. When it stops,
+ * the helpers are stopped too, and the result is that of the thread that
+ * completed the deepest iteration (the main thread if there is a tie). Nodes
+ * are summed over all threads, so nodes per second in the result measures
+ * the whole search, and getTimeToDepth() reports when the main thread
+ * completed each depth. Together they show how the search scales with the
+ * number of threads (see main()).
+ *
+ */
+public class ParallelSearch {
+
+    private final TranspositionTable table;
+    private final Search[] searches; // the main search first, then the helpers
+    private final ExecutorService helpers; // null with one thread
+
+    /**
+     * Constructor
+     *
+     * @param threads the number of threads (at least 1)
+     * @param table   the transposition table the threads share
+     */
+    public ParallelSearch(int threads, TranspositionTable table) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        this.table = table;
+        this.searches = new Search[threads];
+        for (int i = 0; i < threads; i++) {
+            searches[i] = new Search(table);
+            searches[i].setHelper(i);
+        }
+        if (threads > 1) {
+            this.helpers = Executors.newFixedThreadPool(threads - 1, r -> {
+                Thread t = new Thread(r, "search helper");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.helpers = null;
+        }
+    }
+
+    // **************************************************************************
+    // * SEARCH
+    // **************************************************************************
+
+    /**
+     * Searches a position to a fixed depth (unless stop() is called).
+     *
+     * @param root  the position (it is not changed)
+     * @param depth the depth the main thread searches to
+     * @return the deepest completed iteration of any thread
+     */
+    public SearchResult search(Position root, int depth) {
+        return run(root, depth, null);
+    }
+
+    /**
+     * Searches a position within a time limit.
+     *
+     * @param root the position (it is not changed)
+     * @param time the time limits of the main thread (the clock starts now)
+     * @return the deepest completed iteration of any thread
+     */
+    public SearchResult search(Position root, TimeManager time) {
+        return run(root, 0, time);
+    }
+
+    /**
+     * Asks the running search, or the next one if none is running, to stop. It
+     * may be called from any thread (see Search.stop()).
+     */
+    public void stop() {
+        for (Search search : searches) {
+            search.stop();
+        }
+    }
+
+    /**
+     * Makes the next search the one that stop() applies to (see
+     * Search.prepare()).
+     */
+    public void prepare() {
+        for (Search search : searches) {
+            search.prepare();
+        }
+    }
+
+    /**
+     * @return the milliseconds the main thread took to complete a depth in the
+     *         last search, or -1 if it did not complete it
+     */
+    public long getTimeToDepth(int depth) {
+        return searches[0].getTimeToDepth(depth);
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return searches.length;
+    }
+
+    /**
+     * Shuts down the helper threads (if any).
+     */
+    public void close() {
+        if (helpers != null) {
+            helpers.shutdownNow();
+        }
+    }
+
+    /**
+     * Helper for search: runs the main search on the calling thread and the
+     * helpers on the pool.
+     */
+    private SearchResult run(Position root, int depth, TimeManager time) {
+        long start = System.nanoTime();
+        table.newSearch();
+
+        List<Future<SearchResult>> futures = new ArrayList<>(); // of helpers 1, 2, ...
+        for (int i = 1; i < searches.length; i++) {
+            final Search helper = searches[i];
+            helper.prepare(); // before it starts, so that stopping it is not lost
+            futures.add(helpers.submit(() -> helper.search(root, Search.MAX_PLY - 1)));
+        }
+
+        SearchResult best = (time != null) ? searches[0].search(root, time)
+                : searches[0].search(root, depth);
+        for (int i = 1; i < searches.length; i++) {
+            searches[i].stop();
+        }
+
+        long nodes = best.getNodes();
+        for (int i = 1; i < searches.length; i++) {
+            SearchResult result = waitFor(futures.get(i - 1));
+            nodes += searches[i].getNodes();
+            if (result != null && result.getDepth() > best.getDepth()
+                    && result.getBestMove() != Move.NONE) {
+                best = result;
+            }
+        }
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new SearchResult(best.getScore(), best.getDepth(), nodes, millis,
+                best.getPrincipalVariation());
+    }
+
+    /**
+     * Helper for run: the result of a helper (null if it failed).
+     */
+    private static SearchResult waitFor(Future<SearchResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    // **************************************************************************
+    // * MAIN METHOD
+    // **************************************************************************
+
+    /**
+     * Searches a position with 1, 2, 4, ... threads (up to a maximum) and prints
+     * the time to each depth and the nodes per second, to show how the search
+     * scales.
+     *
+     * Usage: ParallelSearch depth [max threads] [hash megabytes] [FEN]
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: ParallelSearch depth [max threads] [hash megabytes] [FEN]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        int megabytes = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+        Position pos;
+        if (args.length > 3) {
+            pos = Position.fromFen(String.join(" ", java.util.Arrays.copyOfRange(args, 3,
+                    args.length)));
+        } else {
+            pos = new ChineseChess().getPosition();
+        }
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ParallelSearch search = new ParallelSearch(threads, new TranspositionTable(megabytes));
+            SearchResult result = search.search(pos, depth);
+            search.close();
+
+            StringBuilder times = new StringBuilder();
+            for (int d = 1; d <= depth; d++) {
+                times.append(' ').append(search.getTimeToDepth(d));
+            }
+            System.out.println("threads " + threads + ": " + result);
+            System.out.println("  time to depth (ms):" + times);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.cis120.chinesechess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Performance test ("perft") of the legal move generator: counts the leaf
+ * nodes of the game tree to a fixed depth. The counts can be compared with
+ * known values (or with another generator) to find move generation bugs, and
+ * nodes per second is a measure of generator speed.
+ *
+ * Leaves are bulk counted: one ply above the leaves the legal moves are
+ * generated and counted without being played. The root moves are split across
+ * a ForkJoinPool, each with its own copy of the position. An optional hash
+ * table remembers the counts of subtrees, so positions that are reached
+ * through different move orders are only counted once.
+ *
+ * Note: Like the rest of the model, this follows the rules in the Piece
+ * subclasses (e.g. elephants may cross the river), which only differ from
+ * standard perft results after the fourth ply.
+ *
+ */
+public class Perft {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final ForkJoinPool pool;
+    private final long[] table; // key ^ entry, entry pairs (null without a hash table)
+
+    /**
+     * Constructor for a single-threaded perft without a hash table.
+     */
+    public Perft() {
+        this(1, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param threads   the number of threads to split the root moves across
+     * @param megabytes the size of the hash table (rounded down to a power of two),
+     *                  or 0 for no hash table
+     */
+    public Perft(int threads, int megabytes) {
+        this.pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        if (megabytes > 0) {
+            this.table = new long[(Integer.highestOneBit(megabytes) << 20) / Long.BYTES];
+        } else {
+            this.table = null;
+        }
+    }
+
+    // **************************************************************************
+    // * COUNTING
+    // **************************************************************************
+
+    /**
+     * Counts the leaf nodes of the legal game tree.
+     *
+     * @param pos   the position to start from (it is not changed)
+     * @param depth the number of plies
+     * @return the number of leaf nodes
+     */
+    public long perft(Position pos, int depth) {
+        long nodes = 0;
+        for (long count : divide(pos, depth).values()) {
+            nodes += count;
+        }
+        return (depth == 0) ? 1 : nodes;
+    }
+
+    /**
+     * Counts the leaf nodes below each legal move of the starting position.
+     *
+     * @param pos   the position to start from (it is not changed)
+     * @param depth the number of plies, counting the root moves
+     * @return the number of leaf nodes by root move (see Move), in generation
+     *         order
+     */
+    public Map<Integer, Long> divide(Position pos, int depth) {
+        if (depth < 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Depth must be from 0 to " + MAX_DEPTH);
+        }
+        Map<Integer, Long> counts = new LinkedHashMap<>();
+        if (depth == 0) {
+            return counts;
+        }
+        MoveList roots = new MoveList();
+        pos.generateLegalMoves(pos.getSideToMove(), roots);
+
+        SubtreeTask[] tasks = new SubtreeTask[roots.size()];
+        for (int i = 0; i < roots.size(); i++) {
+            tasks[i] = new SubtreeTask(pos, roots.get(i), depth - 1);
+        }
+        if (pool != null) {
+            for (SubtreeTask task : tasks) {
+                pool.execute(task);
+            }
+        }
+        for (SubtreeTask task : tasks) {
+            counts.put(task.move, (pool != null) ? task.join() : task.compute());
+        }
+        return counts;
+    }
+
+    /**
+     * Shuts down the worker threads (if any).
+     */
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Counts one subtree on its own copy of the position, with one reused move
+     * list per ply.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class SubtreeTask extends RecursiveTask<Long> {
+        private final Position pos;
+        private final int move;
+        private final int depth;
+        private final MoveList[] lists;
+
+        SubtreeTask(Position root, int move, int depth) {
+            this.pos = root.copy();
+            this.move = move;
+            this.depth = depth;
+            this.lists = new MoveList[depth + 1];
+            for (int i = 0; i <= depth; i++) {
+                lists[i] = new MoveList();
+            }
+        }
+
+        @Override
+        protected Long compute() {
+            pos.makeMove(move);
+            return count(depth);
+        }
+
+        /**
+         * Helper for compute: counts the leaves below the current position.
+         */
+        private long count(int depth) {
+            if (depth == 0) {
+                return 1;
+            }
+            MoveList list = lists[depth];
+            pos.generateLegalMoves(pos.getSideToMove(), list);
+            if (depth == 1) {
+                return list.size(); // bulk counting
+            }
+
+            long key = pos.getHash();
+            long nodes = probe(key, depth);
+            if (nodes >= 0) {
+                return nodes;
+            }
+            nodes = 0;
+            for (int i = 0; i < list.size(); i++) {
+                pos.makeMove(list.get(i));
+                nodes += count(depth - 1);
+                pos.unmakeMove();
+            }
+            store(key, depth, nodes);
+            return nodes;
+        }
+    }
+
+    // **************************************************************************
+    // * HASH TABLE
+    // **************************************************************************
+
+    // each entry packs the node count (bits 6 to 63) and the depth (bits 0 to 5);
+    // it is stored next to key ^ entry, so threads can share the table without
+    // locks (a torn write fails the key check)
+
+    /**
+     * Helper for counting: looks up the count of a subtree.
+     *
+     * @return the number of leaf nodes, or -1 if it is not in the table
+     */
+    private long probe(long key, int depth) {
+        if (table == null) {
+            return -1;
+        }
+        int slot = (int) (key & (table.length / 2 - 1)) * 2;
+        long entry = table[slot + 1];
+        if ((table[slot] ^ entry) == key && (entry & 0x3F) == depth) {
+            return entry >>> 6;
+        }
+        return -1;
+    }
+
+    /**
+     * Helper for counting: remembers the count of a subtree.
+     */
+    private void store(long key, int depth, long nodes) {
+        if (table != null) {
+            int slot = (int) (key & (table.length / 2 - 1)) * 2;
+            long entry = (nodes << 6) | depth;
+            table[slot] = key ^ entry;
+            table[slot + 1] = entry;
+        }
+    }
+
+    // **************************************************************************
+    // * MAIN METHOD
+    // **************************************************************************
+
+    /**
+     * Runs perft from the command line and prints the divide breakdown, the
+     * total and the speed.
+     *
+     * Usage: Perft depth [threads] [hash megabytes] [FEN]
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: Perft depth [threads] [hash megabytes] [FEN]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        int megabytes = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+        Position pos;
+        if (args.length > 3) {
+            pos = Position.fromFen(String.join(" ", java.util.Arrays.copyOfRange(args, 3,
+                    args.length)));
+        } else {
+            pos = new ChineseChess().getPosition();
+        }
+
+        Perft perft = new Perft(threads, megabytes);
+        long start = System.nanoTime();
+        long total = 0;
+        for (Map.Entry<Integer, Long> entry : perft.divide(pos, depth).entrySet()) {
+            System.out.println(Move.toString(entry.getKey()) + ": " + entry.getValue());
+            total += entry.getValue();
+        }
+        long nanos = Math.max(1, System.nanoTime() - start);
+        perft.close();
+
+        System.out.println("\nNodes: " + total);
+        System.out.println("Time:  " + (nanos / 1000000) + " ms");
+        System.out.println("NPS:   " + (total * 1000000000L / nanos));
+    }
+}
@@ -3,130 +3,225 @@ package org.cis120.chinesechess;
 import java.awt.*;
 import java.util.*;
 
+import static org.cis120.chinesechess.Bitboard.square;
 import static org.cis120.chinesechess.ChessBoard.*;
 
 /**
  * A movable piece in the game.
  *
- * Game pieces exist in both the game's piece set and board. They have a subtype
- * of
- * Soldier, Cannon, Chariot, Horse, Elephant, Guard, or General based on their
- * possible
- * move types.
+ * Pieces are immutable flyweights: there is exactly one shared instance for
+ * each of the fourteen (type, color) pairs, returned by Piece.of(). They have
+ * a subtype of Soldier, Cannon, Chariot, Horse, Elephant, Guard, or General
+ * based on their possible move types.
  *
- * They each have a position, selection status (selected or not), color, and
- * text. Their position determines their possible moves and the board status;
- * selection,
- * color, and text determine their appearance on the board.
+ * They each have a color and text, which determine their appearance on the
+ * board. Where a piece stands is recorded only by the board (the Position, or
+ * a Piece[][] layout), and whether it is selected is decided by the view, so
+ * both are passed in to the methods that need them. Board layouts can
+ * therefore share pieces and be copied without creating any.
  *
- * The position should always be in the bounds of the board and in array
- * coordinates. The
- * color should either be red or black. The text is determined in each subclass
- * depending
- * on the color and subtype.
+ * The color should either be red or black. The text is determined in each
+ * subclass depending on the color and subtype.
  *
  */
 public abstract class Piece {
 
-    private Point position; // location of piece in board coordinates (piece is centered at this
-                            // point)
+    // the shared instances, indexed by Position piece code (index 0 is unused)
+    private static final Piece[] FLYWEIGHTS = new Piece[Position.PIECE_CODES];
+
+    static {
+        for (int side = Position.RED; side <= Position.BLACK; side++) {
+            Color c = Position.colorOf(side);
+            FLYWEIGHTS[Position.code(side, PieceType.SOLDIER)] = new Soldier(c);
+            FLYWEIGHTS[Position.code(side, PieceType.CANNON)] = new Cannon(c);
+            FLYWEIGHTS[Position.code(side, PieceType.CHARIOT)] = new Chariot(c);
+            FLYWEIGHTS[Position.code(side, PieceType.HORSE)] = new Horse(c);
+            FLYWEIGHTS[Position.code(side, PieceType.ELEPHANT)] = new Elephant(c);
+            FLYWEIGHTS[Position.code(side, PieceType.GUARD)] = new Guard(c);
+            FLYWEIGHTS[Position.code(side, PieceType.GENERAL)] = new General(c);
+        }
+    }
+
+    // scratch position getMoveSet loads layouts into (one per thread)
+    private static final ThreadLocal<Position> SCRATCH = ThreadLocal.withInitial(Position::new);
 
-    private boolean isSelected; // whether the piece is being moved or not
     private final Color color; // color of piece (immutable)
-    private String text; // text on piece
+    private final String text; // text on piece (immutable)
 
     /**
-     * Constructor
+     * Constructor, used by the subclasses to create the shared instances.
      */
-    public Piece(Point p, Color c, boolean selected) {
-        this.position = p; // set starting position
-        this.isSelected = selected; // all piece start inactive
-        this.color = c; // give piece a final color
-        this.text = ""; // filler text to be changed in subtype constructor
+    Piece(Color c, String text) {
+        this.color = c;
+        this.text = text;
     }
 
     // **************************************************************************
     // * GETTERS
     // **************************************************************************
-    public Point getPosition() {
-        return new Point(this.position.x, this.position.y);
-    }
-
-    public boolean getIsSelected() {
-        return this.isSelected;
-    }
 
     public Color getColor() {
-        return new Color(this.color.getRGB());
+        return this.color; // Color objects are immutable, so no copy is needed
     }
 
     public String getText() {
         return this.text;
     }
 
-    // **************************************************************************
-    // * SETTERS
-    // **************************************************************************
-    public void setPosition(Point position) {
-        this.position = position;
-    }
-
-    public void select() {
-        this.isSelected = true;
-    }
-
-    public void deselect() {
-        this.isSelected = false;
-    }
+    /**
+     * @return the type of the piece (determined by the subclass)
+     */
+    public abstract PieceType getType();
 
-    public void setText(String s) {
-        this.text = s;
+    /**
+     * @return the Position piece code of this piece
+     */
+    public int getCode() {
+        return Position.code(Position.sideOf(this.color), this.getType());
     }
 
     // **************************************************************************
-    // * OTHER METHODS (Cloning + Move-setting + Painting)
+    // * OTHER METHODS (Flyweights + Move-setting + Painting)
     // **************************************************************************
 
     /**
-     * Copy method which is overwritten in all subclasses.
-     * 
-     * @return a copy of the piece
+     * @param type the type of piece
+     * @param c    the color of the piece
+     * @return the shared piece of the given type and color
      */
-    public Piece copy() {
-        return null; // to be overwritten
+    public static Piece of(PieceType type, Color c) {
+        return FLYWEIGHTS[Position.code(Position.sideOf(c), type)];
     }
 
     /**
-     * Method to find all possible moves, given the board layout. Overwritten for
-     * each subclass.
+     * @param code a Position piece code
+     * @return the shared piece with that code, or null for an empty square
+     */
+    public static Piece of(int code) {
+        return FLYWEIGHTS[code];
+    }
+
+    /**
+     * Method to find all possible moves of this piece standing on a square,
+     * given the board layout. This is a thin adapter over Position.attacks(),
+     * which implements the movement patterns of every piece type (see the
+     * subclasses for the rules). The layout is loaded into a scratch position
+     * kept for each thread, so no position is built.
      *
-     * Note: Includes off-board moves, self-capture moves, etc. (depending on the
-     * piece type)
-     * which will be filtered upon use.
+     * Note: Includes self-capture moves (squares defended by this piece) and,
+     * for soldiers, horses and elephants, the off-board points their movement
+     * patterns reach, which will be filtered upon use.
      *
+     * @param p        the square of the piece (in board array coordinates)
      * @param pieceArr The board layout
      * @return A Set (HashSet) of points (in board array coordinates) that the piece
      *         can move to according to its movement patterns.
      */
-    public Set<Point> getMoveSet(Piece[][] pieceArr) {
-        return new HashSet<>(); // this method will be overwritten for each subclass
+    public Set<Point> getMoveSet(Point p, Piece[][] pieceArr) {
+        int side = Position.sideOf(this.color);
+        int code = this.getCode();
+        int sq = square(p.x, p.y);
+
+        // the piece does not have to be on the layout it is tested against
+        Position pos = SCRATCH.get();
+        pos.load(pieceArr, side);
+        if (pos.pieceAt(sq) != code) {
+            pos.remove(sq);
+            pos.put(sq, code);
+        }
+
+        long[] attacks = new long[2];
+        pos.attacks(sq, code, attacks);
+
+        Set<Point> moves = new HashSet<>();
+        for (long lo = attacks[0]; lo != 0; lo &= lo - 1) {
+            addSquare(Long.numberOfTrailingZeros(lo), moves);
+        }
+        for (long hi = attacks[1]; hi != 0; hi &= hi - 1) {
+            addSquare(Bitboard.LO_SQUARES + Long.numberOfTrailingZeros(hi), moves);
+        }
+        addOffBoardMoves(p, pos, moves);
+        return moves;
+    }
+
+    /**
+     * Helper for getMoveSet: adds the point of a square.
+     */
+    private static void addSquare(int sq, Set<Point> moves) {
+        moves.add(new Point(Bitboard.file(sq), Bitboard.rank(sq)));
     }
 
     /**
-     * Method to draw the piece at its position based on its selection mode, color,
+     * Helper for getMoveSet: adds the off-board points of the soldier, horse
+     * and elephant patterns. Horses and elephants only reach them when the
+     * square they step across is empty.
+     */
+    private void addOffBoardMoves(Point p, Position pos, Set<Point> moves) {
+        switch (this.getType()) {
+            case SOLDIER:
+                addOffBoard(new Point(p.x, p.y + (this.color.equals(Color.red) ? -1 : 1)), moves);
+                if (!fieldColor(p).equals(this.color)) { // across the river
+                    addOffBoard(new Point(p.x + 1, p.y), moves);
+                    addOffBoard(new Point(p.x - 1, p.y), moves);
+                }
+                break;
+            case HORSE:
+                for (int[] step : new int[][] { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } }) {
+                    if (isEmpty(pos, p.x + step[0], p.y + step[1])) {
+                        int x = p.x + 2 * step[0];
+                        int y = p.y + 2 * step[1];
+                        addOffBoard(new Point(x + step[1], y + step[0]), moves);
+                        addOffBoard(new Point(x - step[1], y - step[0]), moves);
+                    }
+                }
+                break;
+            case ELEPHANT:
+                for (int dx = -1; dx <= 1; dx += 2) {
+                    for (int dy = -1; dy <= 1; dy += 2) {
+                        if (isEmpty(pos, p.x + dx, p.y + dy)) {
+                            addOffBoard(new Point(p.x + 2 * dx, p.y + 2 * dy), moves);
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Helper for addOffBoardMoves: whether a point is an empty square.
+     */
+    private static boolean isEmpty(Position pos, int x, int y) {
+        return Bitboard.onBoard(x, y) && pos.pieceAt(square(x, y)) == 0;
+    }
+
+    /**
+     * Helper for addOffBoardMoves: adds a point if it is off the board.
+     */
+    private static void addOffBoard(Point p, Set<Point> moves) {
+        if (!inBounds(p)) {
+            moves.add(p);
+        }
+    }
+
+    /**
+     * Method to draw the piece on a square based on its selection mode, color,
      * and text.
      *
      * Note: Text is determined by the subclass, so subclasses are differentiated by
      * text.
      *
-     * @param g The graphics context of the game
+     * @param g        The graphics context of the game
+     * @param square   The square of the piece (in board array coordinates)
+     * @param selected Whether the view shows the piece as selected
      */
-    public void draw(Graphics g) {
+    public void draw(Graphics g, Point square, boolean selected) {
 
-        Point p = toGCoords(this.position); // convert the array coords to graphics coords first
+        Point p = toGCoords(square); // convert the array coords to graphics coords first
 
         // paint a selection circle to show the player which piece they are moving
-        if (this.isSelected) {
+        if (selected) {
             g.setColor(new Color(194, 191, 35, 232));
             int d0 = SQUARE_SIZE + (SQUARE_SIZE / 25);
             g.fillOval(p.x - (d0 / 2), p.y - (d0 / 2), d0, d0);
@@ -0,0 +1,17 @@
+package org.cis120.chinesechess;
+
+/**
+ * This file holds an enumeration called PieceType, which names the seven kinds
+ * of pieces in Chinese Chess. The ordinal of each type is used as an index
+ * into the bitboards stored by Position.
+ *
+ */
+public enum PieceType {
+    SOLDIER,
+    CANNON,
+    CHARIOT,
+    HORSE,
+    ELEPHANT,
+    GUARD,
+    GENERAL
+}
@@ -0,0 +1,1279 @@
+package org.cis120.chinesechess;
+
+import java.awt.*;
+
+import static org.cis120.chinesechess.Bitboard.*;
+
+/**
+ * A bitboard representation of a Chinese Chess position. This is the source of
+ * truth for the ChineseChess model; Piece[][] boards are only built from it
+ * when the view (or older code) asks for one.
+ *
+ * The position stores one bitboard for every (side, piece type) pair and one
+ * occupancy bitboard for each side. Pieces are identified by a small integer
+ * code: 0 is an empty square and 1 to 14 are the seven piece types of red
+ * followed by the seven piece types of black.
+ *
+ * Alongside the bitboards, the codes are kept in a padded Mailbox array, which
+ * gives O(1) piece lookup. The step-by-step pieces (soldier, horse, elephant,
+ * guard and general) read their moves from AttackTables, testing only the
+ * blocking square of each horse and elephant target. Chariots and cannons look
+ * up their moves by the occupancy pattern of their rank and file, which the
+ * position keeps up to date as pieces are added and removed.
+ *
+ * Every piece code also has a compact list of the squares its pieces stand
+ * on, so loops over the pieces of one side touch only the pieces that are
+ * still on the board, grouped by type.
+ *
+ * Moves are played with makeMove() and taken back with unmakeMove(). Each
+ * played move is pushed onto a preallocated undo stack together with the
+ * piece it captured and the hash of the position before it, so any number of
+ * moves can be taken back exactly and repeated positions can be found.
+ *
+ * The position's Zobrist hash (see Zobrist) is updated with every piece that
+ * is added, removed or moved and every change of the side to move, so
+ * getHash() identifies the position in O(1).
+ *
+ * Note: Move rules match the Piece subclasses, except that squares off the
+ * board are never produced.
+ *
+ */
+public class Position {
+
+    public static final int RED = 0;
+    public static final int BLACK = 1;
+
+    public static final int EMPTY = 0; // code of an empty square
+    public static final int PIECE_CODES = 15; // codes 0 to 14
+
+    private static final int UNDO_CAPACITY = 256; // initial size of the undo stack
+    private static final int LIST_CAPACITY = 16; // most pieces with the same code
+
+    private static final PieceType[] TYPES = PieceType.values();
+
+    private static final String FEN_LETTERS = "pcrnbak"; // by piece type ordinal
+
+    private final long[] pieceLo = new long[PIECE_CODES]; // one bitboard per piece code
+    private final long[] pieceHi = new long[PIECE_CODES];
+    private final long[] sideLo = new long[2]; // one bitboard per side
+    private final long[] sideHi = new long[2];
+    private final byte[] cells = Mailbox.emptyBoard(); // piece codes by mailbox cell
+    private final int[] rankOcc = new int[RANKS]; // occupancy pattern of each rank (bit x)
+    private final int[] fileOcc = new int[FILES]; // occupancy pattern of each file (bit y)
+    private final byte[] listSquares = new byte[PIECE_CODES * LIST_CAPACITY]; // by code
+    private final int[] listSize = new int[PIECE_CODES]; // live pieces of each code
+    private final byte[] listIndex = new byte[SQUARES]; // place of each piece in its list
+    private int sideToMove;
+    private long hash; // Zobrist hash of the pieces and the side to move
+    private int midgame; // middlegame piece-square total for red (see Evaluation)
+    private int endgame; // endgame piece-square total for red
+    private int phase; // game phase (see Evaluation.PHASE_MAX)
+    private Accumulator accumulator; // neural network sums kept up to date (or null)
+
+    private int[] undoMoves = new int[UNDO_CAPACITY]; // played moves (with their captures)
+    private long[] undoHashes = new long[UNDO_CAPACITY]; // hash before each played move
+    private int undoSize; // number of moves on the undo stack
+
+    private final long[] scratch = new long[2]; // reused attack set for check tests
+
+    // found once per position by the legal move generator (see findPins/findEvasions)
+    private long pinnedLo; // own pieces whose moves may expose the general
+    private long pinnedHi;
+    private long dangerLo; // squares where a new piece would screen an enemy cannon
+    private long dangerHi;
+    private long evasionLo; // squares a non-general move must reach to answer a check
+    private long evasionHi;
+    private long screenLo; // screens of checking cannons (moving away answers the check)
+    private long screenHi;
+
+    /**
+     * Constructor creates an empty position with red to move.
+     */
+    public Position() {
+        this.sideToMove = RED;
+    }
+
+    /**
+     * Builds a position from a Piece[][] board layout.
+     *
+     * @param board      the board layout (indexed [x][y])
+     * @param sideToMove the side to move
+     * @return the new position
+     */
+    public static Position fromBoard(Piece[][] board, int sideToMove) {
+        Position pos = new Position();
+        pos.load(board, sideToMove);
+        return pos;
+    }
+
+    /**
+     * Replaces the pieces of this position with those of a Piece[][] board
+     * layout. Callers that test many layouts reuse one scratch position this
+     * way instead of building a new one each time with fromBoard(). The undo
+     * stack is cleared.
+     *
+     * @param board      the board layout (indexed [x][y])
+     * @param sideToMove the side to move
+     */
+    void load(Piece[][] board, int sideToMove) {
+        undoSize = 0;
+        long lo = sideLo[RED] | sideLo[BLACK];
+        while (lo != 0) {
+            remove(Long.numberOfTrailingZeros(lo));
+            lo &= lo - 1;
+        }
+        long hi = sideHi[RED] | sideHi[BLACK];
+        while (hi != 0) {
+            remove(LO_SQUARES + Long.numberOfTrailingZeros(hi));
+            hi &= hi - 1;
+        }
+        for (int x = 0; x < board.length; x++) {
+            for (int y = 0; y < board[x].length; y++) {
+                Piece piece = board[x][y];
+                if (piece != null) {
+                    put(square(x, y), piece.getCode());
+                }
+            }
+        }
+        setSideToMove(sideToMove);
+    }
+
+    /**
+     * Builds a position from a FEN string, e.g. the starting position
+     * "rnbakabnr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RNBAKABNR w". Ranks
+     * are listed from black's side (y = 0) to red's side, red pieces are upper
+     * case, and the letters are K (general), A (guard), B or E (elephant), N or
+     * H (horse), R (chariot), C (cannon) and P (soldier). The side to move is
+     * "w" or "r" for red and "b" for black; anything after it is ignored.
+     *
+     * @param fen the FEN string
+     * @return the new position
+     * @throws IllegalArgumentException if the string is not a valid FEN
+     */
+    public static Position fromFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        String[] ranks = fields[0].split("/");
+        if (ranks.length != RANKS) {
+            throw new IllegalArgumentException("FEN needs 10 ranks: " + fen);
+        }
+        Position pos = new Position();
+        for (int y = 0; y < RANKS; y++) {
+            int x = 0;
+            for (char ch : ranks[y].toCharArray()) {
+                if (Character.isDigit(ch)) {
+                    x += ch - '0';
+                } else {
+                    int type = fenType(Character.toLowerCase(ch));
+                    if (type < 0 || x >= FILES) {
+                        throw new IllegalArgumentException("Bad FEN rank: " + ranks[y]);
+                    }
+                    int side = Character.isUpperCase(ch) ? RED : BLACK;
+                    pos.put(square(x, y), code(side, type));
+                    x++;
+                }
+            }
+            if (x != FILES) {
+                throw new IllegalArgumentException("Bad FEN rank: " + ranks[y]);
+            }
+        }
+        if (fields.length > 1 && fields[1].equals("b")) {
+            pos.setSideToMove(BLACK);
+        }
+        return pos;
+    }
+
+    /**
+     * @return the FEN string of this position (see fromFen)
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder();
+        for (int y = 0; y < RANKS; y++) {
+            int empty = 0;
+            for (int x = 0; x < FILES; x++) {
+                int code = pieceAt(square(x, y));
+                if (code == EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                fen.append(fenLetter(code));
+            }
+            if (empty > 0) {
+                fen.append(empty);
+            }
+            if (y < RANKS - 1) {
+                fen.append('/');
+            }
+        }
+        return fen.append(sideToMove == RED ? " w" : " b").toString();
+    }
+
+    /**
+     * @return a copy of this position
+     */
+    public Position copy() {
+        Position pos = new Position();
+        System.arraycopy(this.pieceLo, 0, pos.pieceLo, 0, PIECE_CODES);
+        System.arraycopy(this.pieceHi, 0, pos.pieceHi, 0, PIECE_CODES);
+        System.arraycopy(this.sideLo, 0, pos.sideLo, 0, 2);
+        System.arraycopy(this.sideHi, 0, pos.sideHi, 0, 2);
+        System.arraycopy(this.cells, 0, pos.cells, 0, Mailbox.SIZE);
+        System.arraycopy(this.rankOcc, 0, pos.rankOcc, 0, RANKS);
+        System.arraycopy(this.fileOcc, 0, pos.fileOcc, 0, FILES);
+        System.arraycopy(this.listSquares, 0, pos.listSquares, 0, listSquares.length);
+        System.arraycopy(this.listSize, 0, pos.listSize, 0, PIECE_CODES);
+        System.arraycopy(this.listIndex, 0, pos.listIndex, 0, SQUARES);
+        pos.sideToMove = this.sideToMove;
+        pos.hash = this.hash;
+        pos.midgame = this.midgame;
+        pos.endgame = this.endgame;
+        pos.phase = this.phase;
+        pos.undoMoves = this.undoMoves.clone();
+        pos.undoHashes = this.undoHashes.clone();
+        pos.undoSize = this.undoSize;
+        return pos;
+    }
+
+    // **************************************************************************
+    // * PIECE CODES
+    // **************************************************************************
+
+    /**
+     * @return the piece code of a side's piece type
+     */
+    public static int code(int side, PieceType type) {
+        return code(side, type.ordinal());
+    }
+
+    /**
+     * @return the piece code of a side's piece type (given as an ordinal)
+     */
+    public static int code(int side, int type) {
+        return 1 + side * 7 + type;
+    }
+
+    /**
+     * @return the side of a (non-empty) piece code
+     */
+    public static int sideOf(int code) {
+        return (code - 1) / 7;
+    }
+
+    /**
+     * @return the piece type ordinal of a (non-empty) piece code
+     */
+    public static int typeOf(int code) {
+        return (code - 1) % 7;
+    }
+
+    /**
+     * @return the piece type of a (non-empty) piece code
+     */
+    public static PieceType pieceType(int code) {
+        return TYPES[typeOf(code)];
+    }
+
+    /**
+     * @return the side that plays with pieces of the given color
+     */
+    public static int sideOf(Color c) {
+        if (c.equals(Color.red)) {
+            return RED;
+        } else {
+            return BLACK;
+        }
+    }
+
+    /**
+     * @return the piece color used by a side
+     */
+    public static Color colorOf(int side) {
+        if (side == RED) {
+            return Color.red;
+        } else {
+            return Color.black;
+        }
+    }
+
+    // **************************************************************************
+    // * BOARD UPDATES
+    // **************************************************************************
+
+    /**
+     * Places a piece on an empty square.
+     *
+     * @param sq   the square
+     * @param code the piece code
+     * @throws IllegalStateException if the board already holds 16 pieces with
+     *                               the same code
+     */
+    public void put(int sq, int code) {
+        if (listSize[code] == LIST_CAPACITY) {
+            throw new IllegalStateException("Too many pieces of one kind");
+        }
+        int index = listSize[code]++;
+        listSquares[code * LIST_CAPACITY + index] = (byte) sq;
+        listIndex[sq] = (byte) index;
+        hash ^= Zobrist.PIECES[code][sq];
+        midgame += Evaluation.MIDGAME[code][sq];
+        endgame += Evaluation.ENDGAME[code][sq];
+        phase += Evaluation.PHASE[code];
+        if (accumulator != null) {
+            accumulator.add(code, sq);
+        }
+
+        long lo = Bitboard.lo(sq);
+        long hi = Bitboard.hi(sq);
+        int side = sideOf(code);
+        pieceLo[code] |= lo;
+        pieceHi[code] |= hi;
+        sideLo[side] |= lo;
+        sideHi[side] |= hi;
+        cells[Mailbox.cell(sq)] = (byte) code;
+        rankOcc[rank(sq)] |= 1 << file(sq);
+        fileOcc[file(sq)] |= 1 << rank(sq);
+    }
+
+    /**
+     * Removes whatever piece is on a square.
+     *
+     * @param sq the square
+     * @return the code of the removed piece (EMPTY if there was none)
+     */
+    public int remove(int sq) {
+        int code = pieceAt(sq);
+        if (code != EMPTY) {
+            // fill the gap in the piece list with the last piece
+            int last = listSquares[code * LIST_CAPACITY + --listSize[code]];
+            listSquares[code * LIST_CAPACITY + listIndex[sq]] = (byte) last;
+            listIndex[last] = listIndex[sq];
+            hash ^= Zobrist.PIECES[code][sq];
+            midgame -= Evaluation.MIDGAME[code][sq];
+            endgame -= Evaluation.ENDGAME[code][sq];
+            phase -= Evaluation.PHASE[code];
+            if (accumulator != null) {
+                accumulator.remove(code, sq);
+            }
+
+            long lo = ~Bitboard.lo(sq);
+            long hi = ~Bitboard.hi(sq);
+            int side = sideOf(code);
+            pieceLo[code] &= lo;
+            pieceHi[code] &= hi;
+            sideLo[side] &= lo;
+            sideHi[side] &= hi;
+            cells[Mailbox.cell(sq)] = (byte) EMPTY;
+            rankOcc[rank(sq)] &= ~(1 << file(sq));
+            fileOcc[file(sq)] &= ~(1 << rank(sq));
+        }
+        return code;
+    }
+
+    /**
+     * Moves the piece on one square to another, capturing anything there. The
+     * moving piece keeps its place in its piece list.
+     *
+     * @param from the square of the moving piece
+     * @param to   the destination square
+     * @return the code of the captured piece (EMPTY if there was none)
+     */
+    public int move(int from, int to) {
+        int captured = remove(to);
+        int code = pieceAt(from);
+        long lo = Bitboard.lo(from) | Bitboard.lo(to);
+        long hi = Bitboard.hi(from) | Bitboard.hi(to);
+        int side = sideOf(code);
+        pieceLo[code] ^= lo;
+        pieceHi[code] ^= hi;
+        sideLo[side] ^= lo;
+        sideHi[side] ^= hi;
+        cells[Mailbox.cell(from)] = (byte) EMPTY;
+        cells[Mailbox.cell(to)] = (byte) code;
+        rankOcc[rank(from)] &= ~(1 << file(from));
+        fileOcc[file(from)] &= ~(1 << rank(from));
+        rankOcc[rank(to)] |= 1 << file(to);
+        fileOcc[file(to)] |= 1 << rank(to);
+        listIndex[to] = listIndex[from];
+        listSquares[code * LIST_CAPACITY + listIndex[to]] = (byte) to;
+        hash ^= Zobrist.PIECES[code][from] ^ Zobrist.PIECES[code][to];
+        midgame += Evaluation.MIDGAME[code][to] - Evaluation.MIDGAME[code][from];
+        endgame += Evaluation.ENDGAME[code][to] - Evaluation.ENDGAME[code][from];
+        if (accumulator != null) {
+            accumulator.move(code, from, to);
+        }
+        return captured;
+    }
+
+    /**
+     * Plays a move and pushes it onto the undo stack. The side to move changes.
+     *
+     * Note: The captured piece is read from the board, so the capture recorded in
+     * the packed move does not have to be up to date.
+     *
+     * @param move the packed move (see Move)
+     */
+    public void makeMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int piece = pieceAt(from);
+        long before = hash;
+        int captured = this.move(from, to);
+
+        if (undoSize == undoMoves.length) {
+            undoMoves = java.util.Arrays.copyOf(undoMoves, undoMoves.length * 2);
+            undoHashes = java.util.Arrays.copyOf(undoHashes, undoHashes.length * 2);
+        }
+        undoHashes[undoSize] = before;
+        undoMoves[undoSize++] = Move.encode(from, to, piece, captured);
+        sideToMove ^= 1;
+        hash ^= Zobrist.SIDE;
+    }
+
+    /**
+     * Passes the turn without moving (a "null move", used by the search to test
+     * whether a position is so good that even a free move does not help the
+     * opponent). It is pushed onto the undo stack as Move.NONE and taken back
+     * with unmakeMove().
+     */
+    public void makeNullMove() {
+        if (undoSize == undoMoves.length) {
+            undoMoves = java.util.Arrays.copyOf(undoMoves, undoMoves.length * 2);
+            undoHashes = java.util.Arrays.copyOf(undoHashes, undoHashes.length * 2);
+        }
+        undoHashes[undoSize] = hash;
+        undoMoves[undoSize++] = Move.NONE;
+        sideToMove ^= 1;
+        hash ^= Zobrist.SIDE;
+    }
+
+    /**
+     * Takes back the last move played with makeMove() (or makeNullMove()),
+     * restoring any captured piece and the side to move.
+     *
+     * @throws IllegalStateException if there is no move to take back
+     */
+    public void unmakeMove() {
+        if (undoSize == 0) {
+            throw new IllegalStateException("No move to take back");
+        }
+        int move = undoMoves[--undoSize];
+        if (move == Move.NONE) {
+            sideToMove ^= 1;
+            hash ^= Zobrist.SIDE;
+            return;
+        }
+        int to = Move.to(move);
+        this.move(to, Move.from(move));
+        if (Move.isCapture(move)) {
+            put(to, Move.captured(move));
+        }
+        sideToMove ^= 1;
+        hash ^= Zobrist.SIDE;
+    }
+
+    /**
+     * @return the number of moves that can be taken back
+     */
+    public int getUndoSize() {
+        return undoSize;
+    }
+
+    /**
+     * @return the last move played (with its capture), or Move.NONE if there is
+     *         none
+     */
+    public int lastMove() {
+        if (undoSize == 0) {
+            return Move.NONE;
+        }
+        return undoMoves[undoSize - 1];
+    }
+
+    // **************************************************************************
+    // * GETTERS
+    // **************************************************************************
+
+    /**
+     * @return the code of the piece on a square (EMPTY if there is none)
+     */
+    public int pieceAt(int sq) {
+        return cells[Mailbox.cell(sq)];
+    }
+
+    /**
+     * @return the square of a side's general, or -1 if it is not on the board
+     */
+    public int generalSquare(int side) {
+        int code = code(side, PieceType.GENERAL);
+        if (listSize[code] == 0) {
+            return -1;
+        }
+        return listSquares[code * LIST_CAPACITY];
+    }
+
+    /**
+     * @return the number of pieces on the board with the given code
+     */
+    public int pieceCount(int code) {
+        return listSize[code];
+    }
+
+    /**
+     * Reads the piece list of a code. Pieces keep their place in the list while
+     * they stay on the board; removing a piece moves the last piece of the list
+     * into its place.
+     *
+     * @param code the piece code
+     * @param i    the place in the list, from 0 to pieceCount(code) - 1
+     * @return the square of the piece
+     */
+    public int pieceSquare(int code, int i) {
+        return listSquares[code * LIST_CAPACITY + i];
+    }
+
+    public long piecesLo(int code) {
+        return pieceLo[code];
+    }
+
+    public long piecesHi(int code) {
+        return pieceHi[code];
+    }
+
+    public long sideLo(int side) {
+        return sideLo[side];
+    }
+
+    public long sideHi(int side) {
+        return sideHi[side];
+    }
+
+    public long occupiedLo() {
+        return sideLo[RED] | sideLo[BLACK];
+    }
+
+    public long occupiedHi() {
+        return sideHi[RED] | sideHi[BLACK];
+    }
+
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    public void setSideToMove(int side) {
+        if (side != sideToMove) {
+            hash ^= Zobrist.SIDE;
+        }
+        this.sideToMove = side;
+    }
+
+    /**
+     * @return the Zobrist hash of the position (pieces and side to move)
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the middlegame material and piece-square total, for red
+     *         (kept up to date as pieces move; see Evaluation)
+     */
+    public int getMidgameScore() {
+        return midgame;
+    }
+
+    /**
+     * @return the endgame material and piece-square total, for red
+     */
+    public int getEndgameScore() {
+        return endgame;
+    }
+
+    /**
+     * @return the game phase, from Evaluation.PHASE_MAX (all chariots, horses
+     *         and cannons on the board) down to 0
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Attaches the accumulator of a neural network evaluation, which is then
+     * told about every change to the board (see Accumulator). A copy of the
+     * position has no accumulator.
+     *
+     * @param accumulator the accumulator (its sums are computed again when it
+     *                    is next used), or null to detach it
+     */
+    public void setAccumulator(Accumulator accumulator) {
+        if (accumulator != null) {
+            accumulator.reset();
+        }
+        this.accumulator = accumulator;
+    }
+
+    /**
+     * @return the attached accumulator, or null
+     */
+    public Accumulator getAccumulator() {
+        return accumulator;
+    }
+
+    /**
+     * Computes the Zobrist hash from scratch, without the incremental updates.
+     * getHash() always returns the same value; this is meant for testing.
+     *
+     * @return the hash of the pieces on the board and the side to move
+     */
+    public long computeHash() {
+        long key = (sideToMove == BLACK) ? Zobrist.SIDE : 0;
+        for (int sq = 0; sq < SQUARES; sq++) {
+            key ^= Zobrist.PIECES[pieceAt(sq)][sq];
+        }
+        return key;
+    }
+
+    /**
+     * Counts how many times the current position occurred earlier in the moves on
+     * the undo stack (with the same side to move). Only every second earlier
+     * position is compared, and the search stops at the last capture, since no
+     * position before a capture can occur again (and at the last null move).
+     *
+     * @return the number of earlier occurrences of the current position
+     */
+    public int repetitions() {
+        int count = 0;
+        for (int i = undoSize - 2; i >= 0; i -= 2) {
+            if (Move.isCapture(undoMoves[i]) || Move.isCapture(undoMoves[i + 1])
+                    || undoMoves[i] == Move.NONE || undoMoves[i + 1] == Move.NONE) {
+                break;
+            }
+            if (undoHashes[i] == hash) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // **************************************************************************
+    // * ATTACKS + CHECK
+    // **************************************************************************
+
+    /**
+     * Finds every square a piece could move to or capture on according to its
+     * movement patterns. Squares held by the piece's own side are included
+     * (they are defended, not reachable).
+     *
+     * @param sq     the square of the piece
+     * @param code   the piece code
+     * @param target array receiving the low (index 0) and high (index 1) halves
+     *               of the attack bitboard
+     */
+    public void attacks(int sq, int code, long[] target) {
+        target[0] = 0;
+        target[1] = 0;
+        int side = sideOf(code);
+
+        switch (pieceType(code)) {
+            case SOLDIER:
+                target[0] = AttackTables.SOLDIER_LO[side][sq];
+                target[1] = AttackTables.SOLDIER_HI[side][sq];
+                break;
+            case CANNON: {
+                int x = file(sq);
+                int y = rank(sq);
+                int rankLine = AttackTables.RANK_CANNON_QUIET[x][rankOcc[y]]
+                        | AttackTables.RANK_CANNON_CAPTURE[x][rankOcc[y]];
+                int fileLine = AttackTables.FILE_CANNON_QUIET[y][fileOcc[x]]
+                        | AttackTables.FILE_CANNON_CAPTURE[y][fileOcc[x]];
+                target[0] = AttackTables.rankLo(y, rankLine) | AttackTables.fileLo(x, fileLine);
+                target[1] = AttackTables.rankHi(y, rankLine) | AttackTables.fileHi(x, fileLine);
+                break;
+            }
+            case CHARIOT: {
+                int x = file(sq);
+                int y = rank(sq);
+                int rankLine = AttackTables.RANK_CHARIOT[x][rankOcc[y]];
+                int fileLine = AttackTables.FILE_CHARIOT[y][fileOcc[x]];
+                target[0] = AttackTables.rankLo(y, rankLine) | AttackTables.fileLo(x, fileLine);
+                target[1] = AttackTables.rankHi(y, rankLine) | AttackTables.fileHi(x, fileLine);
+                break;
+            }
+            case HORSE:
+                // each target needs an empty leg
+                blockableAttacks(AttackTables.HORSE_TO[sq], AttackTables.HORSE_LEG[sq], target);
+                break;
+            case ELEPHANT:
+                // each target needs an empty eye
+                blockableAttacks(
+                        AttackTables.ELEPHANT_TO[sq], AttackTables.ELEPHANT_EYE[sq], target
+                );
+                break;
+            case GUARD:
+                target[0] = AttackTables.GUARD_LO[side][sq];
+                target[1] = AttackTables.GUARD_HI[side][sq];
+                break;
+            case GENERAL:
+                target[0] = AttackTables.GENERAL_LO[side][sq];
+                target[1] = AttackTables.GENERAL_HI[side][sq];
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Finds every square the piece on sq can move to, i.e. its attack set
+     * without the squares held by its own side.
+     *
+     * @param sq     the square of the piece
+     * @param target array receiving the low and high halves of the bitboard
+     */
+    public void targets(int sq, long[] target) {
+        int code = pieceAt(sq);
+        if (code == EMPTY) {
+            target[0] = 0;
+            target[1] = 0;
+            return;
+        }
+        attacks(sq, code, target);
+        target[0] &= ~sideLo[sideOf(code)];
+        target[1] &= ~sideHi[sideOf(code)];
+    }
+
+    /**
+     * Tests whether a side's general is in check (if it can be captured by an
+     * enemy piece on the following turn).
+     *
+     * Note: A general is also in check if it faces the opposing general on the
+     * same file with no pieces between them.
+     *
+     * @param side the side whose general is tested
+     * @return true if the general is in check, false if it is not
+     */
+    public boolean inCheck(int side) {
+        int gen = generalSquare(side);
+        if (gen < 0) {
+            return false;
+        }
+        int enemy = 1 - side;
+        long occLo = occupiedLo();
+        long occHi = occupiedHi();
+
+        // flying general: the first piece up the file is the enemy general
+        int dir = (side == RED) ? NORTH : SOUTH;
+        int blocker = nearest(dir, rayLo(dir, gen) & occLo, rayHi(dir, gen) & occHi);
+        if ((blocker >= 0) && (blocker == generalSquare(enemy))) {
+            return true;
+        }
+
+        return isAttacked(gen, enemy);
+    }
+
+    /**
+     * Tests whether a square is attacked by any piece of a side. Instead of
+     * generating the moves of every piece of that side, this works outward from
+     * the square: rank and file lookups find chariots and cannons, reverse tables
+     * find horses (checking each horse's leg), elephants, soldiers, guards and
+     * generals.
+     *
+     * Note: Facing generals are not included (see inCheck()).
+     *
+     * @param sq     the square that may be attacked
+     * @param bySide the attacking side
+     * @return true if a piece of bySide can capture on sq
+     */
+    public boolean isAttacked(int sq, int bySide) {
+        int x = file(sq);
+        int y = rank(sq);
+        int rankLine = rankOcc[y];
+        int fileLine = fileOcc[x];
+
+        // chariots: the first piece along the rank or file
+        int rankHits = AttackTables.RANK_CHARIOT[x][rankLine];
+        int fileHits = AttackTables.FILE_CHARIOT[y][fileLine];
+        if (hits(AttackTables.rankLo(y, rankHits) | AttackTables.fileLo(x, fileHits),
+                AttackTables.rankHi(y, rankHits) | AttackTables.fileHi(x, fileHits),
+                code(bySide, PieceType.CHARIOT))) {
+            return true;
+        }
+
+        // cannons: the first piece beyond a screen
+        rankHits = AttackTables.RANK_CANNON_CAPTURE[x][rankLine];
+        fileHits = AttackTables.FILE_CANNON_CAPTURE[y][fileLine];
+        if (hits(AttackTables.rankLo(y, rankHits) | AttackTables.fileLo(x, fileHits),
+                AttackTables.rankHi(y, rankHits) | AttackTables.fileHi(x, fileHits),
+                code(bySide, PieceType.CANNON))) {
+            return true;
+        }
+
+        // soldiers, guards and generals cannot be blocked
+        if (hits(AttackTables.SOLDIER_FROM_LO[bySide][sq], AttackTables.SOLDIER_FROM_HI[bySide][sq],
+                code(bySide, PieceType.SOLDIER))
+                || hits(AttackTables.GUARD_FROM_LO[bySide][sq],
+                        AttackTables.GUARD_FROM_HI[bySide][sq], code(bySide, PieceType.GUARD))
+                || hits(AttackTables.GENERAL_FROM_LO[bySide][sq],
+                        AttackTables.GENERAL_FROM_HI[bySide][sq],
+                        code(bySide, PieceType.GENERAL))) {
+            return true;
+        }
+
+        // horses: each horse square with an empty leg next to the horse
+        int code = code(bySide, PieceType.HORSE);
+        int[] from = AttackTables.HORSE_FROM[sq];
+        int[] legs = AttackTables.HORSE_FROM_LEG[sq];
+        for (int i = 0; i < from.length; i++) {
+            if (cells[Mailbox.cell(from[i])] == code && cells[Mailbox.cell(legs[i])] == EMPTY) {
+                return true;
+            }
+        }
+
+        // elephants: elephant moves are symmetric, so look from the square itself
+        code = code(bySide, PieceType.ELEPHANT);
+        int[] to = AttackTables.ELEPHANT_TO[sq];
+        int[] eyes = AttackTables.ELEPHANT_EYE[sq];
+        for (int i = 0; i < to.length; i++) {
+            if (cells[Mailbox.cell(to[i])] == code && cells[Mailbox.cell(eyes[i])] == EMPTY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds every piece of a side that attacks a square, in the same way as
+     * isAttacked(). Used by the static exchange evaluation (see
+     * StaticExchange), which calls it again after every capture so that
+     * opened lines, new cannon screens and freed horse legs are seen.
+     *
+     * Note: Facing generals are not included (see inCheck()).
+     *
+     * @param sq     the square that may be attacked
+     * @param bySide the attacking side
+     * @param target array receiving the low and high halves of the bitboard of
+     *               attacking pieces
+     */
+    public void attackers(int sq, int bySide, long[] target) {
+        int x = file(sq);
+        int y = rank(sq);
+        int rankLine = rankOcc[y];
+        int fileLine = fileOcc[x];
+
+        // chariots and cannons along the rank and file
+        int chariot = code(bySide, PieceType.CHARIOT);
+        int cannon = code(bySide, PieceType.CANNON);
+        int rankHits = AttackTables.RANK_CHARIOT[x][rankLine];
+        int fileHits = AttackTables.FILE_CHARIOT[y][fileLine];
+        long lo = (AttackTables.rankLo(y, rankHits) | AttackTables.fileLo(x, fileHits))
+                & pieceLo[chariot];
+        long hi = (AttackTables.rankHi(y, rankHits) | AttackTables.fileHi(x, fileHits))
+                & pieceHi[chariot];
+        rankHits = AttackTables.RANK_CANNON_CAPTURE[x][rankLine];
+        fileHits = AttackTables.FILE_CANNON_CAPTURE[y][fileLine];
+        lo |= (AttackTables.rankLo(y, rankHits) | AttackTables.fileLo(x, fileHits))
+                & pieceLo[cannon];
+        hi |= (AttackTables.rankHi(y, rankHits) | AttackTables.fileHi(x, fileHits))
+                & pieceHi[cannon];
+
+        // soldiers, guards and generals
+        lo |= AttackTables.SOLDIER_FROM_LO[bySide][sq] & pieceLo[code(bySide, PieceType.SOLDIER)];
+        hi |= AttackTables.SOLDIER_FROM_HI[bySide][sq] & pieceHi[code(bySide, PieceType.SOLDIER)];
+        lo |= AttackTables.GUARD_FROM_LO[bySide][sq] & pieceLo[code(bySide, PieceType.GUARD)];
+        hi |= AttackTables.GUARD_FROM_HI[bySide][sq] & pieceHi[code(bySide, PieceType.GUARD)];
+        lo |= AttackTables.GENERAL_FROM_LO[bySide][sq] & pieceLo[code(bySide, PieceType.GENERAL)];
+        hi |= AttackTables.GENERAL_FROM_HI[bySide][sq] & pieceHi[code(bySide, PieceType.GENERAL)];
+
+        // horses with an empty leg, and elephants with an empty eye
+        int code = code(bySide, PieceType.HORSE);
+        int[] from = AttackTables.HORSE_FROM[sq];
+        int[] legs = AttackTables.HORSE_FROM_LEG[sq];
+        for (int i = 0; i < from.length; i++) {
+            if (cells[Mailbox.cell(from[i])] == code && cells[Mailbox.cell(legs[i])] == EMPTY) {
+                lo |= Bitboard.lo(from[i]);
+                hi |= Bitboard.hi(from[i]);
+            }
+        }
+        code = code(bySide, PieceType.ELEPHANT);
+        int[] to = AttackTables.ELEPHANT_TO[sq];
+        int[] eyes = AttackTables.ELEPHANT_EYE[sq];
+        for (int i = 0; i < to.length; i++) {
+            if (cells[Mailbox.cell(to[i])] == code && cells[Mailbox.cell(eyes[i])] == EMPTY) {
+                lo |= Bitboard.lo(to[i]);
+                hi |= Bitboard.hi(to[i]);
+            }
+        }
+        target[0] = lo;
+        target[1] = hi;
+    }
+
+    // **************************************************************************
+    // * MOVE GENERATION
+    // **************************************************************************
+
+    /**
+     * Writes every pseudo-legal move of a side into a reusable list. Moves that
+     * leave the side's own general in check are included; see isLegal() and
+     * generateLegalMoves().
+     *
+     * @param side the side to generate moves for
+     * @param list the list to fill (it is cleared first)
+     */
+    public void generateMoves(int side, MoveList list) {
+        list.clear();
+        for (int code = code(side, 0); code <= code(side, 6); code++) {
+            for (int i = 0; i < listSize[code]; i++) {
+                generatePieceMoves(listSquares[code * LIST_CAPACITY + i], list);
+            }
+        }
+    }
+
+    /**
+     * Appends the pseudo-legal moves of the piece on one square to a list.
+     *
+     * @param sq   the square of the piece
+     * @param list the list to append to
+     */
+    public void generatePieceMoves(int sq, MoveList list) {
+        int code = pieceAt(sq);
+        if (code == EMPTY) {
+            return;
+        }
+        targets(sq, scratch);
+        long lo = scratch[0];
+        long hi = scratch[1];
+        while ((lo | hi) != 0) {
+            int to;
+            if (lo != 0) {
+                to = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                to = LO_SQUARES + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            list.add(Move.encode(sq, to, code, pieceAt(to)));
+        }
+    }
+
+    /**
+     * Checks whether a pseudo-legal move is legal, i.e. it does not leave the
+     * moving side's general in check. The move is tried and then taken back.
+     *
+     * @param move the packed move
+     * @return true if the move is legal, false if it is not
+     */
+    public boolean isLegal(int move) {
+        int from = Move.from(move);
+        return !leavesInCheck(from, Move.to(move), sideOf(pieceAt(from)));
+    }
+
+    // **************************************************************************
+    // * LEGAL MOVE GENERATION
+    // **************************************************************************
+
+    /**
+     * Writes every legal move of a side into a reusable list.
+     *
+     * Pins and checks are found once for the whole position instead of trying
+     * every move. When the side is not in check, only moves of the general,
+     * moves of pinned pieces and moves onto a square that would screen an enemy
+     * cannon can expose the general, so only those are tested. When the side is
+     * in check, pieces other than the general only generate moves that capture a
+     * checker, block it or move a cannon's screen away (an evasion), and those
+     * are tested.
+     *
+     * Note: A piece is pinned if moving it away can open a line to the general
+     * (for a chariot, a cannon behind two screens or the enemy general) or unblock
+     * the leg of a horse or the eye of an elephant that faces the general.
+     *
+     * @param side the side to generate moves for
+     * @param list the list to fill (it is cleared first)
+     */
+    public void generateLegalMoves(int side, MoveList list) {
+        generateLegal(side, -1L, -1L, list);
+    }
+
+    /**
+     * Writes every legal capture of a side into a reusable list (see
+     * generateLegalMoves()). Used by the quiescence search.
+     *
+     * @param side the side to generate captures for
+     * @param list the list to fill (it is cleared first)
+     */
+    public void generateLegalCaptures(int side, MoveList list) {
+        generateLegal(side, sideLo[1 - side], sideHi[1 - side], list);
+    }
+
+    /**
+     * Helper for generateLegalMoves and generateLegalCaptures: writes the legal
+     * moves of a side onto the squares of a mask.
+     */
+    private void generateLegal(int side, long maskLo, long maskHi, MoveList list) {
+        list.clear();
+        int gen = generalSquare(side);
+        boolean check = false;
+        if (gen >= 0) {
+            check = inCheck(side);
+            if (check) {
+                findEvasions(side, gen);
+            } else {
+                findPins(side, gen);
+            }
+        }
+
+        for (int code = code(side, 0); code <= code(side, 6); code++) {
+            for (int i = 0; i < listSize[code]; i++) {
+                int from = listSquares[code * LIST_CAPACITY + i];
+                targets(from, scratch);
+                long toLo = scratch[0] & maskLo;
+                long toHi = scratch[1] & maskHi;
+
+                // which moves of this piece need to be tested
+                long testLo = -1L;
+                long testHi = -1L;
+                if (gen < 0) {
+                    // without a general every move is legal
+                    testLo = 0;
+                    testHi = 0;
+                } else if (from != gen) {
+                    if (check) {
+                        if (!test(screenLo, screenHi, from)) {
+                            toLo &= evasionLo;
+                            toHi &= evasionHi;
+                        }
+                    } else if (!test(pinnedLo, pinnedHi, from)) {
+                        testLo = dangerLo;
+                        testHi = dangerHi;
+                    }
+                }
+
+                while ((toLo | toHi) != 0) {
+                    int to;
+                    if (toLo != 0) {
+                        to = Long.numberOfTrailingZeros(toLo);
+                        toLo &= toLo - 1;
+                    } else {
+                        to = LO_SQUARES + Long.numberOfTrailingZeros(toHi);
+                        toHi &= toHi - 1;
+                    }
+                    if (!test(testLo, testHi, to) || !leavesInCheck(from, to, side)) {
+                        list.add(Move.encode(from, to, code, pieceAt(to)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper for generateLegalMoves: finds the pinned pieces of a side that is not
+     * in check, and the squares where a new piece would become the only screen
+     * between an enemy cannon and the general.
+     */
+    private void findPins(int side, int gen) {
+        int enemy = 1 - side;
+        int chariot = code(enemy, PieceType.CHARIOT);
+        int cannon = code(enemy, PieceType.CANNON);
+        int general = code(enemy, PieceType.GENERAL);
+        pinnedLo = 0;
+        pinnedHi = 0;
+        dangerLo = 0;
+        dangerHi = 0;
+
+        // lines: look at the first three pieces in each direction
+        for (int dir = EAST; dir <= NORTH; dir++) {
+            long lo = rayLo(dir, gen) & occupiedLo();
+            long hi = rayHi(dir, gen) & occupiedHi();
+            int first = nearest(dir, lo, hi);
+            if (first < 0) {
+                continue;
+            }
+            if (pieceAt(first) == cannon) {
+                dangerLo |= rayLo(dir, gen) & ~rayLo(dir, first) & ~Bitboard.lo(first);
+                dangerHi |= rayHi(dir, gen) & ~rayHi(dir, first) & ~Bitboard.hi(first);
+            }
+            lo &= ~Bitboard.lo(first);
+            hi &= ~Bitboard.hi(first);
+            int second = nearest(dir, lo, hi);
+            if (second < 0) {
+                continue;
+            }
+            if (pieceAt(second) == chariot || pieceAt(second) == general) {
+                pin(first, side);
+            }
+            lo &= ~Bitboard.lo(second);
+            hi &= ~Bitboard.hi(second);
+            int third = nearest(dir, lo, hi);
+            if (third >= 0 && pieceAt(third) == cannon) {
+                pin(first, side);
+                pin(second, side);
+            }
+        }
+
+        // horse legs and elephant eyes next to the general
+        int horse = code(enemy, PieceType.HORSE);
+        int[] from = AttackTables.HORSE_FROM[gen];
+        int[] legs = AttackTables.HORSE_FROM_LEG[gen];
+        for (int i = 0; i < from.length; i++) {
+            if (cells[Mailbox.cell(from[i])] == horse) {
+                pin(legs[i], side);
+            }
+        }
+        int elephant = code(enemy, PieceType.ELEPHANT);
+        int[] to = AttackTables.ELEPHANT_TO[gen];
+        int[] eyes = AttackTables.ELEPHANT_EYE[gen];
+        for (int i = 0; i < to.length; i++) {
+            if (cells[Mailbox.cell(to[i])] == elephant) {
+                pin(eyes[i], side);
+            }
+        }
+    }
+
+    /**
+     * Helper for generateLegalMoves: finds the squares where a move can answer a
+     * check (capturing a checker, blocking its line, leg or eye) and the screens
+     * of checking cannons.
+     */
+    private void findEvasions(int side, int gen) {
+        int enemy = 1 - side;
+        int chariot = code(enemy, PieceType.CHARIOT);
+        int cannon = code(enemy, PieceType.CANNON);
+        int general = code(enemy, PieceType.GENERAL);
+        evasionLo = 0;
+        evasionHi = 0;
+        screenLo = 0;
+        screenHi = 0;
+
+        // lines: a chariot or general on the first piece, a cannon on the second
+        for (int dir = EAST; dir <= NORTH; dir++) {
+            long lo = rayLo(dir, gen) & occupiedLo();
+            long hi = rayHi(dir, gen) & occupiedHi();
+            int first = nearest(dir, lo, hi);
+            if (first < 0) {
+                continue;
+            }
+            if (pieceAt(first) == chariot || pieceAt(first) == general) {
+                evasionLo |= rayLo(dir, gen) & ~rayLo(dir, first);
+                evasionHi |= rayHi(dir, gen) & ~rayHi(dir, first);
+            }
+            int second = nearest(dir, lo & ~Bitboard.lo(first), hi & ~Bitboard.hi(first));
+            if (second >= 0 && pieceAt(second) == cannon) {
+                evasionLo |= rayLo(dir, gen) & ~rayLo(dir, second);
+                evasionHi |= rayHi(dir, gen) & ~rayHi(dir, second);
+                screenLo |= Bitboard.lo(first);
+                screenHi |= Bitboard.hi(first);
+            }
+        }
+
+        // soldiers can only be captured
+        int soldier = code(enemy, PieceType.SOLDIER);
+        evasionLo |= AttackTables.SOLDIER_FROM_LO[enemy][gen] & pieceLo[soldier];
+        evasionHi |= AttackTables.SOLDIER_FROM_HI[enemy][gen] & pieceHi[soldier];
+
+        // horses and elephants can also be blocked on the leg or eye
+        int horse = code(enemy, PieceType.HORSE);
+        int[] from = AttackTables.HORSE_FROM[gen];
+        int[] legs = AttackTables.HORSE_FROM_LEG[gen];
+        for (int i = 0; i < from.length; i++) {
+            if (cells[Mailbox.cell(from[i])] == horse && cells[Mailbox.cell(legs[i])] == EMPTY) {
+                evasionLo |= Bitboard.lo(from[i]) | Bitboard.lo(legs[i]);
+                evasionHi |= Bitboard.hi(from[i]) | Bitboard.hi(legs[i]);
+            }
+        }
+        int elephant = code(enemy, PieceType.ELEPHANT);
+        int[] to = AttackTables.ELEPHANT_TO[gen];
+        int[] eyes = AttackTables.ELEPHANT_EYE[gen];
+        for (int i = 0; i < to.length; i++) {
+            if (cells[Mailbox.cell(to[i])] == elephant && cells[Mailbox.cell(eyes[i])] == EMPTY) {
+                evasionLo |= Bitboard.lo(to[i]) | Bitboard.lo(eyes[i]);
+                evasionHi |= Bitboard.hi(to[i]) | Bitboard.hi(eyes[i]);
+            }
+        }
+    }
+
+    /**
+     * Helper for findPins: marks the piece on sq as pinned if it belongs to side.
+     */
+    private void pin(int sq, int side) {
+        int code = pieceAt(sq);
+        if (code != EMPTY && sideOf(code) == side) {
+            pinnedLo |= Bitboard.lo(sq);
+            pinnedHi |= Bitboard.hi(sq);
+        }
+    }
+
+    /**
+     * Helper for move legality: plays a move on the board without touching the
+     * undo stack, tests the general and puts everything back.
+     *
+     * @return true if the move leaves the side's general in check
+     */
+    private boolean leavesInCheck(int from, int to, int side) {
+        int captured = move(from, to);
+        boolean check = inCheck(side);
+        move(to, from);
+        if (captured != EMPTY) {
+            put(to, captured);
+        }
+        return check;
+    }
+
+    // **************************************************************************
+    // * HELPERS
+    // **************************************************************************
+
+    /**
+     * @return the FEN letter of a piece code (upper case for red)
+     */
+    static char fenLetter(int code) {
+        char letter = FEN_LETTERS.charAt(typeOf(code));
+        return (sideOf(code) == RED) ? Character.toUpperCase(letter) : letter;
+    }
+
+    /**
+     * @return the piece code of a FEN letter (upper case for red), or EMPTY if
+     *         the letter is not a piece
+     */
+    static int fenCode(char letter) {
+        int type = fenType(Character.toLowerCase(letter));
+        if (type < 0) {
+            return EMPTY;
+        }
+        return code(Character.isUpperCase(letter) ? RED : BLACK, type);
+    }
+
+    /**
+     * Helper for fromFen: the piece type ordinal of a lower-case FEN letter, or -1
+     * if the letter is not a piece.
+     */
+    private static int fenType(char letter) {
+        switch (letter) {
+            case 'h':
+                return PieceType.HORSE.ordinal();
+            case 'e':
+                return PieceType.ELEPHANT.ordinal();
+            default:
+                return FEN_LETTERS.indexOf(letter);
+        }
+    }
+
+    /**
+     * Helper for isAttacked: tests whether a bitboard contains a piece with the
+     * given code.
+     */
+    private boolean hits(long lo, long hi, int code) {
+        return ((lo & pieceLo[code]) | (hi & pieceHi[code])) != 0;
+    }
+
+    /**
+     * Helper for attacks: adds every table target whose blocking square is empty.
+     */
+    private void blockableAttacks(int[] to, int[] blockers, long[] target) {
+        for (int i = 0; i < to.length; i++) {
+            if (cells[Mailbox.cell(blockers[i])] == EMPTY) {
+                target[0] |= Bitboard.lo(to[i]);
+                target[1] |= Bitboard.hi(to[i]);
+            }
+        }
+    }
+}
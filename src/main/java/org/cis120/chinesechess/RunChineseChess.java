@@ -44,10 +44,25 @@ public class RunChineseChess implements Runnable {
         reset.addActionListener(e -> board.reset());
         control_panel.add(reset);
 
+        final JButton undo = new JButton("Undo");
+        undo.addActionListener(e -> board.undo());
+        control_panel.add(undo);
+
+        final JButton analyze = new JButton("Analyze");
+        analyze.addActionListener(e -> board.analyze());
+        control_panel.add(analyze);
+
         final JButton instructions = new JButton("Instructions");
         instructions.addActionListener(e -> showInstructions());
         control_panel.add(instructions);
 
+        // Computer opponent plays black while the box is checked
+        final JCheckBox computer = new JCheckBox("Computer plays Black");
+        computer.addActionListener(
+                e -> board.setComputerColor(computer.isSelected() ? Color.black : null)
+        );
+        control_panel.add(computer);
+
         // Reset the board to start the game.
         board.reset();
     }
@@ -0,0 +1,964 @@
+package org.cis120.chinesechess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A game tree search that finds the best move in a position, for a computer
+ * opponent or for batch analysis. It does not depend on the view, so it can be
+ * run without Swing.
+ *
+ * The search is a negamax alpha-beta search with principal variation search
+ * (PVS): the first move of every node is searched with the full window, and
+ * every later move with a null window that only proves it is no better. A move
+ * that turns out better is searched again with the full window. The search is
+ * fail-soft, so scores outside the window are still bounds on the true score.
+ * The principal variation is collected in a triangular table, one row per ply.
+ *
+ * The search deepens iteratively: it searches to depth 1, then 2, and so on,
+ * searching the best move of the last iteration first. A search with a
+ * TimeManager stops when the time manager says so, and any search stops soon
+ * after its hard limit passes or stop() is called (both are polled). An
+ * unfinished iteration is thrown away, so the result is the deepest completed
+ * iteration. A search stopped in its first iteration still returns a move, at
+ * depth 0: the best root move searched so far, or else the first legal move.
+ *
+ * Every search has a number, and stop() stops the search with the current
+ * number: the one running, or the next one if none is running yet. A stop()
+ * that arrives after a search has returned belongs to that search and does
+ * not stop the next one, unless prepare() was called in between.
+ *
+ * At the horizon a quiescence search plays captures (and every evasion when
+ * in check) until the position is quiet, so the evaluation is not taken in
+ * the middle of an exchange. The side to move may stand pat on the static
+ * evaluation instead of capturing, and captures that lose material by static
+ * exchange evaluation (see StaticExchange) are skipped.
+ *
+ * Results are kept in a transposition table, which ends the search of a
+ * position early when it was already searched deeply enough, and supplies the
+ * best move found before to be searched first. The other moves are ordered
+ * by MoveOrdering.
+ *
+ * Away from the principal variation the search is selective, and each of
+ * these can be turned off to measure it:
+ *
+ * - null-move pruning: the side to move passes, and if a reduced search
+ *   still fails high the node is cut off (not with only defensive pieces
+ *   left, where passing might be better than any move);
+ * - late move reductions: quiet moves late in the ordering are first searched
+ *   less deeply, and again at full depth if they beat alpha;
+ * - futility pruning: one or two plies from the horizon, quiet moves that do
+ *   not give check are skipped when the static evaluation is too far below
+ *   alpha for them to matter;
+ * - razoring: at the same depths, a node far below alpha is answered by the
+ *   quiescence search.
+ *
+ * A side with no legal moves has lost (see ChineseChess.inCheckmate), and a
+ * position that occurred before is scored as a draw. Checks are extended by
+ * one ply, so mates at the horizon are not missed. Positions in the endgame
+ * tablebases (see setTablebases()) are scored from the tables, below the
+ * root. A root position in the opening book (see setBook()) is not searched.
+ *
+ * Positions are evaluated by Evaluation, or by a neural network if one is
+ * set (see setNetwork()). Evaluations are kept in an EvaluationCache, so a
+ * position reached again by another move order is not evaluated again.
+ *
+ * In multi-PV mode (see setMultiPv()) the search reports the best K moves,
+ * each with its own principal variation, for analysis.
+ *
+ * Note: A Search object reuses its buffers between searches and is not safe
+ * to use from several threads at once. Mate scores are stored in the
+ * transposition table relative to the position, not the root.
+ *
+ */
+public class Search {
+
+    public static final int INFINITY = 32000;
+    public static final int MATE = 31000; // score of mate at the root
+    public static final int MAX_PLY = 64;
+    // the longest mate a score can show: one found by the search, or one from a
+    // tablebase probed at any ply
+    public static final int MAX_MATE_PLIES = MAX_PLY + Tablebase.MAX_DISTANCE;
+
+    public static final int DEFAULT_TABLE_MB = 16; // transposition table size
+    public static final int DEFAULT_CACHE_KB = 256; // evaluation cache size
+
+    private static final int POLL_INTERVAL = 1024; // nodes between clock checks
+
+    // selective search margins (centipawns) by remaining depth
+    private static final int[] FUTILITY_MARGIN = { 0, 200, 450 };
+    private static final int[] RAZOR_MARGIN = { 0, 350, 600 };
+    private static final int LMR_MOVES = 3; // moves searched before any is reduced
+    private static final int LMR_HISTORY = 1000; // history below minus this is reduced more
+
+    private final MoveList[] lists = new MoveList[MAX_PLY]; // moves by ply
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY]; // triangular PV table
+    private final int[] pvLength = new int[MAX_PLY];
+    private final int[][] scores = new int[MAX_PLY][MoveList.CAPACITY]; // ordering scores by ply
+    private final TranspositionTable table;
+    private final MoveOrdering ordering = new MoveOrdering(MAX_PLY);
+    private final StaticExchange exchange = new StaticExchange(); // for losing captures
+
+    private Position pos; // the position being searched
+    private long nodes; // nodes searched
+    private TimeManager time; // the time limits (null for a fixed depth search)
+    private int rootMove; // the best move of the last iteration (searched first)
+    private boolean stopped; // the running search must stop (set by polling)
+    private int helperId = -1; // see setHelper()
+    private final long[] depthMillis = new long[MAX_PLY]; // time to complete each depth
+
+    private volatile int searchId; // number of the search running or set up next
+    private volatile int finishedId = -1; // number of the last search that returned
+    private volatile int stopId = -1; // number of the search stop() was called for
+
+    // multi-PV analysis (see setMultiPv())
+    private int multiPv = 1; // lines to search
+    private SearchListener listener; // told about each line as it completes
+    private final int[] excluded = new int[MoveList.CAPACITY]; // root moves with a line
+    private int excludedCount;
+    private List<SearchResult> lines = new ArrayList<>(); // of the last completed iteration
+
+    // selective search switches (all on by default)
+    private boolean nullMove = true;
+    private boolean lateMoveReductions = true;
+    private boolean futility = true;
+    private boolean razoring = true;
+
+    private Accumulator accumulator; // of the neural network evaluation (or null)
+    private EvaluationCache evaluationCache = new EvaluationCache(DEFAULT_CACHE_KB); // or null
+    private Tablebases tablebases; // endgame tables (or null)
+    private long tablebaseHits; // positions scored by the tables
+    private OpeningBook book; // opening moves played without a search (or null)
+    private final Random bookRandom = new Random(); // chooses among book moves
+
+    /**
+     * Constructor creates a search with its own transposition table.
+     */
+    public Search() {
+        this(new TranspositionTable(DEFAULT_TABLE_MB));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param table the transposition table to use (it may be shared with other
+     *              searches, e.g. those of earlier moves)
+     */
+    public Search(TranspositionTable table) {
+        this.table = table;
+        for (int ply = 0; ply < MAX_PLY; ply++) {
+            lists[ply] = new MoveList();
+        }
+    }
+
+    // **************************************************************************
+    // * SETTINGS
+    // **************************************************************************
+
+    /**
+     * Sets the number of principal variations to search (multi-PV). Each
+     * iteration searches the root once per line, leaving out the best moves of
+     * the lines before, so the lines are the best K moves with their scores.
+     * Lines are reported to the listener as they complete, and getLines()
+     * returns those of the deepest completed iteration.
+     *
+     * @param count the number of lines (1 for a normal search)
+     */
+    public void setMultiPv(int count) {
+        this.multiPv = Math.max(1, Math.min(count, MoveList.CAPACITY));
+    }
+
+    /**
+     * Sets the listener that is told about each line as it completes (on the
+     * searching thread), or null for none.
+     */
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Turns null-move pruning on or off. It is never used when the side to
+     * move has only its general, guards and elephants.
+     */
+    public void setNullMove(boolean on) {
+        this.nullMove = on;
+    }
+
+    /**
+     * Turns late move reductions on or off.
+     */
+    public void setLateMoveReductions(boolean on) {
+        this.lateMoveReductions = on;
+    }
+
+    /**
+     * Turns futility pruning of quiet moves at frontier nodes on or off.
+     */
+    public void setFutilityPruning(boolean on) {
+        this.futility = on;
+    }
+
+    /**
+     * Turns razoring (dropping into the quiescence search at frontier nodes far
+     * below alpha) on or off.
+     */
+    public void setRazoring(boolean on) {
+        this.razoring = on;
+    }
+
+    /**
+     * Evaluates positions with a neural network instead of Evaluation.
+     *
+     * @param network the network, or null to use Evaluation again
+     */
+    public void setNetwork(Network network) {
+        this.accumulator = (network == null) ? null : new Accumulator(network);
+        if (evaluationCache != null) {
+            evaluationCache.clear(); // it holds scores of the other evaluation
+        }
+    }
+
+    /**
+     * Sets the cache of static evaluations. Its counters are reset at the start
+     * of each search.
+     *
+     * @param cache the cache (not shared with other threads), or null for none
+     */
+    public void setEvaluationCache(EvaluationCache cache) {
+        this.evaluationCache = cache;
+    }
+
+    public EvaluationCache getEvaluationCache() {
+        return evaluationCache;
+    }
+
+    /**
+     * Sets the endgame tablebases to probe. Positions found in them are not
+     * searched: a win or loss is scored as the mate the table gives.
+     *
+     * @param tablebases the tables (they may be shared with other searches), or
+     *                   null for none
+     */
+    public void setTablebases(Tablebases tablebases) {
+        this.tablebases = tablebases;
+    }
+
+    /**
+     * Sets the opening book. When the root position is in the book, a book
+     * move (see OpeningBook.select()) is returned at once, with depth 0 and no
+     * nodes searched.
+     *
+     * @param book the book (it may be shared with other searches), or null for
+     *             none
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * @return the number of positions of the last search scored by the
+     *         tablebases
+     */
+    public long getTablebaseHits() {
+        return tablebaseHits;
+    }
+
+    // **************************************************************************
+    // * SEARCH
+    // **************************************************************************
+
+    /**
+     * Searches the current position of a game.
+     *
+     * @param game  the game (it is not changed)
+     * @param depth the depth to search, in plies
+     * @return the best move, its score and the principal variation
+     */
+    public SearchResult search(ChineseChess game, int depth) {
+        return search(game.getPosition(), depth);
+    }
+
+    /**
+     * Searches the current position of a game within a time limit.
+     *
+     * @param game the game (it is not changed)
+     * @param time the time limits
+     * @return the deepest completed iteration
+     */
+    public SearchResult search(ChineseChess game, TimeManager time) {
+        return search(game.getPosition(), time);
+    }
+
+    /**
+     * Searches a position to a fixed depth (unless stop() is called).
+     *
+     * @param root  the position (it is not changed)
+     * @param depth the depth to search, in plies (at least 1)
+     * @return the deepest completed iteration
+     */
+    public SearchResult search(Position root, int depth) {
+        return iterate(root, Math.max(1, Math.min(depth, MAX_PLY - 1)), null);
+    }
+
+    /**
+     * Searches a position within a time limit.
+     *
+     * @param root the position (it is not changed)
+     * @param time the time limits (the clock starts now)
+     * @return the deepest completed iteration
+     */
+    public SearchResult search(Position root, TimeManager time) {
+        return iterate(root, MAX_PLY - 1, time);
+    }
+
+    /**
+     * Asks the running search, or the next one if none is running, to stop. It
+     * may be called from any thread; the search returns its deepest completed
+     * iteration.
+     */
+    public void stop() {
+        stopId = searchId;
+    }
+
+    /**
+     * Makes the next search the one that stop() applies to, so that a stop()
+     * called after this but before the search starts is not lost. It is only
+     * needed when this Search has searched before.
+     */
+    public void prepare() {
+        if (searchId == finishedId) {
+            searchId = finishedId + 1;
+        }
+    }
+
+    /**
+     * Helper for search: iterative deepening up to a maximum depth.
+     */
+    private SearchResult iterate(Position root, int maxDepth, TimeManager time) {
+        prepare();
+        int id = searchId;
+        this.pos = root.copy();
+        pos.setAccumulator(accumulator);
+        this.time = time;
+        this.nodes = 0;
+        this.tablebaseHits = 0;
+        this.rootMove = Move.NONE;
+        this.pvLength[0] = 0;
+        this.excludedCount = 0;
+        this.stopped = false;
+        if (time != null) {
+            time.start();
+        }
+        if (helperId < 0) {
+            table.newSearch(); // a ParallelSearch does this once for all its threads
+        }
+        ordering.newSearch();
+        if (evaluationCache != null) {
+            evaluationCache.resetCounters();
+        }
+        Arrays.fill(depthMillis, -1);
+        long start = System.nanoTime();
+
+        SearchResult best = null;
+        lines = new ArrayList<>();
+        int bookMove = (book != null) ? book.select(pos, bookRandom) : Move.NONE;
+        if (bookMove != Move.NONE) {
+            best = new SearchResult(0, 0, 0, 0, new int[] { bookMove });
+            lines.add(best);
+            finishedId = id;
+            return best;
+        }
+        for (int depth = 1; depth <= maxDepth && !pollStop(); depth++) {
+            if (skipDepth(depth)) {
+                continue;
+            }
+            List<SearchResult> found = searchLines(depth, start);
+            if (found == null) {
+                break; // the unfinished iteration is thrown away
+            }
+            lines = found;
+            best = found.get(0);
+            depthMillis[depth] = best.getMillis();
+            rootMove = best.getBestMove();
+            int score = best.getScore();
+
+            // stop with no legal moves, or with a mate that is already within the horizon
+            // or too long to have been found by the search (so it comes from a tablebase)
+            int matePlies = MATE - Math.abs(score);
+            if (rootMove == Move.NONE
+                    || (isMate(score) && (matePlies <= depth || matePlies >= MAX_PLY))) {
+                break;
+            }
+            if (time != null) {
+                time.iterationDone(rootMove, score);
+                if (!time.canStartIteration()) {
+                    break;
+                }
+            }
+        }
+        if (best == null) {
+            best = unfinishedResult((System.nanoTime() - start) / 1000000);
+        }
+        finishedId = id;
+        return best;
+    }
+
+    /**
+     * Helper for iterate: the result of a search stopped in its first
+     * iteration, with the best root move searched so far (or else the first
+     * legal move) and depth 0. In multi-PV mode that is the move of the first
+     * line if it was completed.
+     */
+    private SearchResult unfinishedResult(long millis) {
+        int move = Move.NONE;
+        if (excludedCount > 0) {
+            move = excluded[0];
+        } else if (pvLength[0] > 0) {
+            move = pv[0][0];
+        }
+        if (move == Move.NONE) {
+            MoveList list = lists[0];
+            pos.generateLegalMoves(pos.getSideToMove(), list);
+            if (list.size() > 0) {
+                move = list.get(0);
+            }
+        }
+        int[] line = (move == Move.NONE) ? new int[0] : new int[] { move };
+        return new SearchResult(0, 0, nodes, millis, line);
+    }
+
+    /**
+     * Helper for the search: sets the stop flag if stop() was called for this
+     * search or the hard limit has passed.
+     *
+     * @return the stop flag
+     */
+    private boolean pollStop() {
+        if (stopId == searchId || (time != null && time.hardLimitReached())) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * @return true if a score means that one side can force mate
+     */
+    public static boolean isMate(int score) {
+        return Math.abs(score) > MATE - MAX_MATE_PLIES;
+    }
+
+    /**
+     * Helper for iterate: searches the root once for each line, leaving out the
+     * best moves of the lines before, and reports each line as it completes.
+     *
+     * @return the lines, best first, or null if the search was stopped
+     */
+    private List<SearchResult> searchLines(int depth, long start) {
+        List<SearchResult> found = new ArrayList<>();
+        excludedCount = 0;
+        for (int line = 0; line < multiPv; line++) {
+            // each line starts with its move from the last iteration
+            rootMove = (line < lines.size()) ? lines.get(line).getBestMove() : Move.NONE;
+            int score = negamax(-INFINITY, INFINITY, depth, 0);
+            if (stopped) {
+                return null;
+            }
+            if (line > 0 && pvLength[0] == 0) {
+                break; // every legal move already has a line
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            SearchResult result = new SearchResult(score, depth, nodes, millis,
+                    Arrays.copyOf(pv[0], pvLength[0]));
+            found.add(result);
+            if (result.getBestMove() == Move.NONE) {
+                break; // no legal moves
+            }
+            excluded[excludedCount++] = result.getBestMove();
+            if (listener != null) {
+                listener.lineCompleted(line + 1, result);
+            }
+        }
+        excludedCount = 0;
+
+        // a later line may still score higher after a search instability
+        found.sort((a, b) -> Integer.compare(b.getScore(), a.getScore()));
+        return found;
+    }
+
+    /**
+     * Helper for negamax: whether a root move already has a line.
+     */
+    private boolean isExcluded(int move) {
+        for (int i = 0; i < excludedCount; i++) {
+            if (excluded[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the lines of the deepest completed iteration of the last search,
+     *         best first (one line unless setMultiPv() asked for more)
+     */
+    public List<SearchResult> getLines() {
+        return new ArrayList<>(lines);
+    }
+
+    /**
+     * @return the milliseconds the last search took to complete a depth, or -1
+     *         if it did not complete it
+     */
+    public long getTimeToDepth(int depth) {
+        return (depth > 0 && depth < MAX_PLY) ? depthMillis[depth] : -1;
+    }
+
+    // **************************************************************************
+    // * PARALLEL SEARCH
+    // **************************************************************************
+
+    // helper threads skip some depths, so that at any time the threads of a
+    // ParallelSearch are spread over two depths (the pattern repeats every
+    // 20 helpers)
+    private static final int[] SKIP_SIZE = { 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4,
+        4, 4, 4 };
+    private static final int[] SKIP_PHASE = { 0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4,
+        5, 6, 7 };
+
+    /**
+     * Makes this search one of the threads of a ParallelSearch. The main thread
+     * (id 0) works as usual, except that it leaves the transposition table's
+     * generation to the ParallelSearch. Helpers (id 1 and up) skip some depths.
+     *
+     * @param id the thread number
+     */
+    void setHelper(int id) {
+        this.helperId = id;
+    }
+
+    /**
+     * Helper for iterate: whether a helper thread skips a depth.
+     */
+    private boolean skipDepth(int depth) {
+        if (helperId <= 0) {
+            return false;
+        }
+        int i = (helperId - 1) % SKIP_SIZE.length;
+        return ((depth + SKIP_PHASE[i]) / SKIP_SIZE[i]) % 2 != 0;
+    }
+
+    /**
+     * Searches the current position.
+     *
+     * @param alpha the score the side to move is already sure of
+     * @param beta  the score the opponent is already sure of
+     * @param depth the remaining depth
+     * @param ply   the distance from the root
+     * @return the score (fail-soft: a bound if outside the window)
+     */
+    private int negamax(int alpha, int beta, int depth, int ply) {
+        pvLength[ply] = ply;
+        nodes++;
+        if (nodes % POLL_INTERVAL == 0) {
+            pollStop();
+        }
+        if (stopped) {
+            return 0; // the score is not used
+        }
+        if (ply > 0 && pos.repetitions() > 0) {
+            return 0;
+        }
+        if (ply > 0 && tablebases != null) {
+            int result = tablebases.probe(pos);
+            if (result != Tablebase.UNKNOWN) {
+                tablebaseHits++;
+                return tablebaseScore(result, ply);
+            }
+        }
+        int side = pos.getSideToMove();
+        boolean check = pos.inCheck(side);
+        if (check) {
+            depth++; // check extension (also keeps mates at the horizon)
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluate();
+        }
+        if (depth <= 0) {
+            return quiesce(alpha, beta, ply);
+        }
+
+        // a deep enough result from the table ends the search (except in PV nodes)
+        long key = pos.getHash();
+        long entry = table.probe(key);
+        int hashMove = TranspositionTable.move(entry);
+        boolean pvNode = beta - alpha > 1;
+        if (entry != 0 && ply > 0 && !pvNode && TranspositionTable.depth(entry) >= depth) {
+            int score = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER && score >= beta)
+                    || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                return score;
+            }
+        }
+        if (ply == 0 && rootMove != Move.NONE) {
+            hashMove = rootMove;
+        }
+
+        int previous = pos.lastMove();
+        boolean selective = ply > 0 && !pvNode && !check && !isMate(beta);
+        int staticEval = selective ? evaluate() : -INFINITY;
+
+        // razoring: far below alpha at a frontier node, only captures can help
+        if (razoring && selective && depth <= 2
+                && staticEval + RAZOR_MARGIN[depth] <= alpha) {
+            int score = quiesce(alpha, beta, ply);
+            if (depth == 1 || score <= alpha) {
+                return score;
+            }
+        }
+
+        // null move: if passing still fails high, a real move would as well
+        if (nullMove && selective && depth >= 3 && staticEval >= beta
+                && previous != Move.NONE && hasAttackers(side)) {
+            int r = (depth >= 7) ? 3 : 2;
+            pos.makeNullMove();
+            int score = -negamax(-beta, -beta + 1, depth - 1 - r, ply + 1);
+            pos.unmakeMove();
+            if (stopped) {
+                return 0;
+            }
+            if (score >= beta) {
+                return isMate(score) ? beta : score; // unproven mates are not trusted
+            }
+        }
+
+        // futility: near the horizon, quiet moves cannot lift a hopeless score
+        boolean futile = futility && selective && depth <= 2
+                && staticEval + FUTILITY_MARGIN[depth] <= alpha;
+
+        MoveList list = lists[ply];
+        pos.generateLegalMoves(side, list);
+        if (list.size() == 0) {
+            return -MATE + ply; // no legal moves loses
+        }
+        int[] order = scores[ply];
+        ordering.score(list, order, ply, hashMove, previous);
+
+        int originalAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = Move.NONE;
+        int searched = 0;
+        for (int i = 0; i < list.size(); i++) {
+            int move = pickNext(list, order, i);
+            if (ply == 0 && isExcluded(move)) {
+                continue; // already the best move of an earlier line
+            }
+            boolean quiet = !Move.isCapture(move);
+            pos.makeMove(move);
+            boolean givesCheck = pos.inCheck(1 - side);
+
+            if (futile && searched > 0 && quiet && !givesCheck) {
+                pos.unmakeMove();
+                best = Math.max(best, staticEval + FUTILITY_MARGIN[depth]);
+                continue;
+            }
+
+            int score;
+            if (searched++ == 0) {
+                score = -negamax(-beta, -alpha, depth - 1, ply + 1);
+            } else {
+                // late quiet moves are searched less deeply first
+                int reduction = 0;
+                if (lateMoveReductions && depth >= 3 && i >= LMR_MOVES && quiet
+                        && !check && !givesCheck) {
+                    reduction = reduction(depth, i, ordering.history(move));
+                }
+
+                // null window first, then the full window if the move is better
+                score = -negamax(-alpha - 1, -alpha, depth - 1 - reduction, ply + 1);
+                if (reduction > 0 && score > alpha) {
+                    score = -negamax(-alpha - 1, -alpha, depth - 1, ply + 1);
+                }
+                if (score > alpha && score < beta) {
+                    score = -negamax(-beta, -alpha, depth - 1, ply + 1);
+                }
+            }
+            pos.unmakeMove();
+            if (stopped) {
+                return 0; // the score is not used (and must not be stored)
+            }
+
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = move;
+                    updatePv(ply, move);
+                }
+                if (score >= beta) {
+                    if (quiet) {
+                        ordering.cutoff(move, ply, depth, previous, list, i);
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (ply > 0 || excludedCount == 0) {
+            int bound = (best >= beta) ? TranspositionTable.LOWER
+                    : (best > originalAlpha) ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            table.store(key, depth, bound, toTable(best, ply), bestMove);
+        }
+        return best;
+    }
+
+    /**
+     * Helper for negamax: the depth reduction of a late quiet move, larger for
+     * later moves and deeper searches, and adjusted by the move's history.
+     */
+    private static int reduction(int depth, int index, int history) {
+        int r = 1;
+        if (index >= 2 * LMR_MOVES) {
+            r++;
+        }
+        if (depth >= 6) {
+            r++;
+        }
+        if (history > 0) {
+            r--; // moves that often cut off elsewhere are reduced less
+        } else if (history < -LMR_HISTORY) {
+            r++;
+        }
+        return Math.max(0, Math.min(r, depth - 2));
+    }
+
+    /**
+     * Helper for negamax: whether a side has a piece that can attack (anything
+     * but its general, guards and elephants). Without one, passing may be the
+     * best move (zugzwang), so null moves are not tried.
+     */
+    private boolean hasAttackers(int side) {
+        return pos.pieceCount(Position.code(side, PieceType.CHARIOT)) > 0
+                || pos.pieceCount(Position.code(side, PieceType.CANNON)) > 0
+                || pos.pieceCount(Position.code(side, PieceType.HORSE)) > 0
+                || pos.pieceCount(Position.code(side, PieceType.SOLDIER)) > 0;
+    }
+
+    /**
+     * Helper for negamax: converts a score to be stored in the table, making
+     * mate scores relative to the current position.
+     */
+    private static int toTable(int score, int ply) {
+        if (isMate(score)) {
+            return (score > 0) ? score + ply : score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * Helper for negamax: converts a score from the table back to a score
+     * relative to the root.
+     */
+    private static int fromTable(int score, int ply) {
+        if (isMate(score)) {
+            return (score > 0) ? score - ply : score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Searches captures (or every evasion when in check) until the position is
+     * quiet.
+     *
+     * @param alpha the score the side to move is already sure of
+     * @param beta  the score the opponent is already sure of
+     * @param ply   the distance from the root
+     * @return the score (fail-soft: a bound if outside the window)
+     */
+    private int quiesce(int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        nodes++;
+        if (nodes % POLL_INTERVAL == 0) {
+            pollStop();
+        }
+        if (stopped) {
+            return 0; // the score is not used
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluate();
+        }
+
+        int side = pos.getSideToMove();
+        MoveList list = lists[ply];
+        int[] order = scores[ply];
+        int best;
+        if (pos.inCheck(side)) {
+            // no standing pat in check: every evasion is searched
+            pos.generateLegalMoves(side, list);
+            if (list.size() == 0) {
+                return -MATE + ply;
+            }
+            best = -INFINITY;
+            for (int i = 0; i < list.size(); i++) {
+                order[i] = StaticExchange.value(Move.captured(list.get(i)));
+            }
+        } else {
+            best = evaluate(); // stand pat
+            if (best >= beta) {
+                return best;
+            }
+            alpha = Math.max(alpha, best);
+
+            // keep the captures that do not lose material, best exchanges first
+            pos.generateLegalCaptures(side, list);
+            int kept = 0;
+            for (int i = 0; i < list.size(); i++) {
+                int move = list.get(i);
+                int gain = StaticExchange.value(Move.captured(move))
+                        - StaticExchange.value(Move.piece(move));
+                if (gain < 0) {
+                    gain = exchange.evaluate(pos, move); // the piece may be recaptured
+                }
+                if (gain >= 0) {
+                    list.set(kept, move);
+                    order[kept++] = gain;
+                }
+            }
+            list.truncate(kept);
+        }
+
+        for (int i = 0; i < list.size(); i++) {
+            int move = pickNext(list, order, i);
+            pos.makeMove(move);
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            pos.unmakeMove();
+            if (stopped) {
+                break; // the score of an unfinished subtree is not used
+            }
+
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                }
+                if (score >= beta) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Helper for the searches: swaps the move with the highest ordering score
+     * from index i onward into index i (a selection sort step, so moves after a
+     * cutoff are never sorted).
+     *
+     * @return the move now at index i
+     */
+    private static int pickNext(MoveList list, int[] order, int i) {
+        int bestIndex = i;
+        for (int j = i + 1; j < list.size(); j++) {
+            if (order[j] > order[bestIndex]) {
+                bestIndex = j;
+            }
+        }
+        if (bestIndex != i) {
+            int move = list.get(bestIndex);
+            list.set(bestIndex, list.get(i));
+            list.set(i, move);
+            int score = order[bestIndex];
+            order[bestIndex] = order[i];
+            order[i] = score;
+        }
+        return list.get(i);
+    }
+
+    /**
+     * Helper for the searches: the static evaluation of the position for the
+     * side to move.
+     */
+    private int evaluate() {
+        if (evaluationCache == null) {
+            return (accumulator != null) ? accumulator.evaluate(pos) : Evaluation.evaluate(pos);
+        }
+        long key = pos.getHash();
+        int score = evaluationCache.probe(key);
+        if (score == EvaluationCache.MISS) {
+            score = (accumulator != null) ? accumulator.evaluate(pos) : Evaluation.evaluate(pos);
+            evaluationCache.store(key, score);
+        }
+        return score;
+    }
+
+    /**
+     * Helper for negamax: the score of a tablebase result, with mates counted
+     * from the root.
+     */
+    private static int tablebaseScore(int result, int ply) {
+        switch (Tablebase.wdl(result)) {
+            case Tablebase.WIN:
+                return MATE - ply - Tablebase.distance(result);
+            case Tablebase.LOSS:
+                return -(MATE - ply - Tablebase.distance(result));
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Helper for negamax: makes the move followed by the child's PV the PV of
+     * this ply.
+     */
+    private void updatePv(int ply, int move) {
+        pv[ply][ply] = move;
+        System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+        pvLength[ply] = pvLength[ply + 1];
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    // **************************************************************************
+    // * MAIN METHOD
+    // **************************************************************************
+
+    /**
+     * Analyzes a position from the command line, printing each line of each
+     * iteration as it completes.
+     *
+     * Usage: Search depth [lines] [FEN]
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: Search depth [lines] [FEN]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        Position pos;
+        if (args.length > 2) {
+            pos = Position.fromFen(String.join(" ", Arrays.copyOfRange(args, 2, args.length)));
+        } else {
+            pos = new ChineseChess().getPosition();
+        }
+
+        Search search = new Search();
+        search.setMultiPv(count);
+        search.setListener((line, result) -> System.out.println("line " + line + " " + result));
+        search.search(pos, depth);
+
+        System.out.println();
+        int line = 1;
+        for (SearchResult result : search.getLines()) {
+            System.out.println((line++) + ". " + result);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.cis120.chinesechess;
+
+/**
+ * This interface is implemented by code that follows a search as it runs,
+ * e.g. to show multi-PV analysis line by line (see Search.setListener()).
+ *
+ */
+public interface SearchListener {
+
+    /**
+     * Called on the searching thread each time a line of an iteration is
+     * completed.
+     *
+     * @param line   the number of the line in this iteration (1 for the best)
+     * @param result the line: its first move, score, depth and principal
+     *               variation
+     */
+    void lineCompleted(int line, SearchResult result);
+}
@@ -0,0 +1,95 @@
+package org.cis120.chinesechess;
+
+/**
+ * The result of a search (see Search): the best move found, its score, and
+ * the principal variation (the line of best play that the score comes from).
+ *
+ * Scores are from the point of view of the side to move at the root. Mate
+ * scores are within Search.MAX_MATE_PLIES of +/- Search.MATE (see
+ * Search.isMate).
+ *
+ */
+public class SearchResult {
+
+    private final int bestMove;
+    private final int score;
+    private final int depth;
+    private final long nodes;
+    private final long millis;
+    private final int[] pv;
+
+    /**
+     * Constructor
+     *
+     * @param score  the score of the best move
+     * @param depth  the depth searched
+     * @param nodes  the number of nodes searched
+     * @param millis the time the search took, in milliseconds
+     * @param pv     the principal variation (the first move is the best move)
+     */
+    public SearchResult(int score, int depth, long nodes, long millis, int[] pv) {
+        this.bestMove = (pv.length > 0) ? pv[0] : Move.NONE;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.millis = millis;
+        this.pv = pv.clone();
+    }
+
+    // **************************************************************************
+    // * GETTERS
+    // **************************************************************************
+
+    /**
+     * @return the best move (see Move), or Move.NONE if there are no legal moves
+     */
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * @return the nodes searched per second
+     */
+    public long getNodesPerSecond() {
+        return nodes * 1000 / Math.max(1, millis);
+    }
+
+    /**
+     * @return a copy of the principal variation
+     */
+    public int[] getPrincipalVariation() {
+        return pv.clone();
+    }
+
+    /**
+     * @return a readable summary, e.g.
+     *         "depth 4 score 35 nodes 51234 time 80 nps 640425 pv h2-e2 h9-g7"
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("depth ").append(depth).append(" score ").append(score);
+        s.append(" nodes ").append(nodes).append(" time ").append(millis);
+        s.append(" nps ").append(getNodesPerSecond()).append(" pv");
+        for (int move : pv) {
+            s.append(' ').append(Move.toString(move));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package org.cis120.chinesechess;
+
+/**
+ * Static exchange evaluation (SEE): the material a capture wins or loses once
+ * both sides have recaptured on its square for as long as it pays, with each
+ * side recapturing with its least valuable piece first. The search uses it to
+ * skip losing captures in the quiescence search.
+ *
+ * Exchanges in Chinese chess change the lines around them: taking a piece can
+ * give a cannon the screen it needs, or take it away, a capture can free the
+ * leg of a horse, and a general may only recapture if the opposing general
+ * does not then face it on an open file. Instead of modelling each of these
+ * on bitboards, the exchange is played out on the position itself (with
+ * makeMove and unmakeMove), and the attackers of the square are found again
+ * after every capture. Each recapture is also checked for legality, so pinned
+ * pieces and flying general recaptures are handled like everywhere else.
+ *
+ * Note: A StaticExchange reuses its buffers between calls and is not safe to
+ * use from several threads at once, so each Search has its own.
+ *
+ */
+public class StaticExchange {
+
+    // the general's value only needs to exceed everything else, since it can
+    // never be recaptured legally
+    private static final int GENERAL_VALUE = 10000;
+
+    // values by piece type ordinal: the material values of Evaluation
+    private static final int[] VALUES = exchangeValues();
+
+    // the piece types in the order they are used to recapture
+    private static final int[] ORDER = {
+        PieceType.SOLDIER.ordinal(), PieceType.GUARD.ordinal(), PieceType.ELEPHANT.ordinal(),
+        PieceType.HORSE.ordinal(), PieceType.CANNON.ordinal(), PieceType.CHARIOT.ordinal(),
+        PieceType.GENERAL.ordinal()
+    };
+
+    private static final int MAX_EXCHANGE = 32; // no square sees more captures than this
+
+    private final int[] gain = new int[MAX_EXCHANGE]; // material won after each capture
+    private final long[] attackers = new long[2]; // attackers of the square
+
+    /**
+     * Constructor
+     */
+    public StaticExchange() {
+    }
+
+    /**
+     * Evaluates the exchange started by a capture.
+     *
+     * @param pos  the position (it is changed during the call, then restored)
+     * @param move a legal move of the side to move (see Move)
+     * @return the material won by the side to move (negative if it loses
+     *         material, 0 for a quiet move that is not attacked back)
+     */
+    public int evaluate(Position pos, int move) {
+        int to = Move.to(move);
+        gain[0] = value(Move.captured(move));
+        int onSquare = value(Move.piece(move)); // value of the piece that may be taken next
+        pos.makeMove(move);
+        int made = 1;
+
+        int d = 0;
+        while (d + 1 < MAX_EXCHANGE) {
+            int recapture = cheapestRecapture(pos, to);
+            if (recapture == Move.NONE) {
+                break;
+            }
+            d++;
+            gain[d] = onSquare - gain[d - 1];
+            if (Math.max(-gain[d - 1], gain[d]) < 0) {
+                break; // neither side can do better by continuing
+            }
+            onSquare = value(Move.piece(recapture));
+            pos.makeMove(recapture);
+            made++;
+        }
+        while (made-- > 0) {
+            pos.unmakeMove();
+        }
+
+        // each side may stop the exchange when recapturing would lose
+        for (; d > 0; d--) {
+            gain[d - 1] = -Math.max(-gain[d - 1], gain[d]);
+        }
+        return gain[0];
+    }
+
+    /**
+     * @return the exchange value of a piece code (0 for EMPTY)
+     */
+    static int value(int code) {
+        return (code == Position.EMPTY) ? 0 : VALUES[Position.typeOf(code)];
+    }
+
+    /**
+     * Helper for VALUES: the material values of Evaluation, with the general's.
+     */
+    private static int[] exchangeValues() {
+        int[] values = Evaluation.VALUES.clone();
+        values[PieceType.GENERAL.ordinal()] = GENERAL_VALUE;
+        return values;
+    }
+
+    /**
+     * Helper for evaluate: finds the legal capture onto a square by the side to
+     * move with its least valuable piece.
+     *
+     * @return the packed capture, or Move.NONE if there is none
+     */
+    private int cheapestRecapture(Position pos, int to) {
+        int side = pos.getSideToMove();
+        int target = pos.pieceAt(to);
+        pos.attackers(to, side, attackers);
+
+        for (int type : ORDER) {
+            int code = Position.code(side, type);
+            long lo = attackers[0] & pos.piecesLo(code);
+            long hi = attackers[1] & pos.piecesHi(code);
+            while ((lo | hi) != 0) {
+                int from;
+                if (lo != 0) {
+                    from = Long.numberOfTrailingZeros(lo);
+                    lo &= lo - 1;
+                } else {
+                    from = Bitboard.LO_SQUARES + Long.numberOfTrailingZeros(hi);
+                    hi &= hi - 1;
+                }
+                int move = Move.encode(from, to, code, target);
+                if (pos.isLegal(move)) {
+                    return move;
+                }
+            }
+        }
+        return Move.NONE;
+    }
+}
@@ -0,0 +1,456 @@
+package org.cis120.chinesechess;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An endgame tablebase for one combination of material: the result of every
+ * position with exactly these pieces under perfect play, as found by
+ * TablebaseGenerator. The material is named like "KRkaa" (red general and
+ * chariot against black general and two guards), with FEN letters.
+ *
+ * Positions are indexed by the side to move and the square of each piece,
+ * each piece counting only the squares it can ever reach: the 9 palace
+ * squares for a general, 5 for a guard, the 12 squares of its color for an
+ * elephant (which may cross the river in this game), 55 for a soldier, and
+ * the whole board for the other pieces. Positions with a piece anywhere else
+ * are not in the table.
+ *
+ * Each position takes one byte: 0 for a draw (which includes positions that
+ * cannot occur), otherwise 1 + the number of plies to mate with best play. An
+ * odd distance means the side to move wins (see wdl() and distance()).
+ *
+ * A table file holds the MAGIC number, the VERSION, the number of pieces other
+ * than the generals and their codes (one byte each), the number of positions,
+ * then one byte per position. Files are read through a memory mapping (see
+ * open()), so only the pages that are probed are ever loaded, and any number
+ * of search threads can probe a table at once.
+ *
+ */
+public class Tablebase {
+
+    public static final int MAGIC = 0x58515442; // "XQTB"
+    public static final int VERSION = 1;
+
+    public static final int MAX_DISTANCE = 254; // plies to mate that fit in a byte
+
+    // results of probes (see probe()); the others are 1 + plies to mate
+    public static final int UNKNOWN = -1; // the position is not in the table
+    public static final int DRAW = 0;
+
+    // win/draw/loss for the side to move (see wdl())
+    public static final int WIN = 1;
+    public static final int LOSS = -1;
+
+    // squares each piece code can ever reach (see domain())
+    private static final int[][] DOMAINS = new int[Position.PIECE_CODES][];
+    private static final int[][] SLOTS = new int[Position.PIECE_CODES][]; // by square, or -1
+
+    private final int[] codes; // the generals, then the other pieces by code
+    private final int[] radix; // squares in each piece's domain
+    private final int size;
+    private final long materialKey;
+    private final ByteBuffer data; // one byte per position
+
+    static {
+        Position start = new ChineseChess().getPosition();
+        for (int code = 1; code < Position.PIECE_CODES; code++) {
+            DOMAINS[code] = domain(start, code);
+            SLOTS[code] = new int[Bitboard.SQUARES];
+            Arrays.fill(SLOTS[code], -1);
+            for (int i = 0; i < DOMAINS[code].length; i++) {
+                SLOTS[code][DOMAINS[code][i]] = i;
+            }
+        }
+    }
+
+    /**
+     * Constructor creates a table of draws in memory, for TablebaseGenerator.
+     *
+     * @param pieces the codes of the pieces other than the generals
+     * @throws IllegalArgumentException if there are too many positions for a
+     *                                  table
+     */
+    Tablebase(int[] pieces) {
+        this(pieces, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param pieces the codes of the pieces other than the generals
+     * @param data   one byte per position (see size()), or null for a new
+     *               table of draws
+     * @throws IllegalArgumentException if there are too many positions for a
+     *                                  table, or data has the wrong size
+     */
+    Tablebase(int[] pieces, ByteBuffer data) {
+        this.codes = new int[pieces.length + 2];
+        codes[0] = Position.code(Position.RED, PieceType.GENERAL);
+        codes[1] = Position.code(Position.BLACK, PieceType.GENERAL);
+        int[] sorted = pieces.clone();
+        Arrays.sort(sorted);
+        System.arraycopy(sorted, 0, codes, 2, sorted.length);
+
+        this.radix = new int[codes.length];
+        long positions = 2;
+        for (int i = 0; i < codes.length; i++) {
+            radix[i] = DOMAINS[codes[i]].length;
+            positions *= radix[i];
+        }
+        if (positions > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many positions for a table: " + name(pieces));
+        }
+        this.size = (int) positions;
+        this.materialKey = materialKey(sorted);
+        if (data == null) {
+            this.data = ByteBuffer.allocate(size);
+        } else if (data.capacity() == size) {
+            this.data = data;
+        } else {
+            throw new IllegalArgumentException("Table data has the wrong size");
+        }
+    }
+
+    /**
+     * Reads a table file through a read-only memory mapping.
+     *
+     * @param path the file
+     * @return the table
+     * @throws IOException if the file cannot be read or is not a table file
+     */
+    public static Tablebase open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (file.remaining() < 13 || file.getInt() != MAGIC) {
+                throw new IOException("Not a tablebase file: " + path);
+            }
+            if (file.getInt() != VERSION) {
+                throw new IOException("Unsupported tablebase file version: " + path);
+            }
+            int[] pieces = new int[file.get()];
+            for (int i = 0; i < pieces.length; i++) {
+                pieces[i] = file.get();
+                if (pieces[i] < 1 || pieces[i] >= Position.PIECE_CODES
+                        || Position.typeOf(pieces[i]) == PieceType.GENERAL.ordinal()) {
+                    throw new IOException("Bad piece in tablebase file: " + path);
+                }
+            }
+            int size = file.getInt();
+            if (size != file.remaining()) {
+                throw new IOException("Tablebase file has the wrong size: " + path);
+            }
+            // the mapping stays valid after the channel is closed
+            return new Tablebase(pieces, file.slice());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad tablebase file: " + path, e);
+        }
+    }
+
+    /**
+     * Writes the table in the table file format.
+     *
+     * @param out the stream (it is not closed)
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(13 + codes.length - 2);
+        header.putInt(MAGIC).putInt(VERSION).put((byte) (codes.length - 2));
+        for (int i = 2; i < codes.length; i++) {
+            header.put((byte) codes[i]);
+        }
+        header.putInt(size);
+        out.write(header.array());
+
+        byte[] chunk = new byte[1 << 16];
+        for (int i = 0; i < size; i += chunk.length) {
+            int length = Math.min(chunk.length, size - i);
+            data.get(i, chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Writes the table to a file in a directory, named after its material.
+     *
+     * @param directory the directory
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public Path write(Path directory) throws IOException {
+        Path path = directory.resolve(getName() + ".xqtb");
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(out);
+        }
+        return path;
+    }
+
+    // **************************************************************************
+    // * PROBING
+    // **************************************************************************
+
+    /**
+     * Looks up a position with this table's material.
+     *
+     * @param pos      the position
+     * @param mirrored true to look up the position with the colors swapped and
+     *                 the board turned top to bottom (for the material with the
+     *                 colors swapped)
+     * @return UNKNOWN, DRAW or 1 + the plies to mate
+     */
+    public int probe(Position pos, boolean mirrored) {
+        int index = index(pos, mirrored);
+        return (index < 0) ? UNKNOWN : result(index);
+    }
+
+    /**
+     * @return the stored result of a position index (DRAW or 1 + plies to mate)
+     */
+    int result(int index) {
+        return data.get(index) & 0xFF;
+    }
+
+    /**
+     * Stores the result of a position index, for TablebaseGenerator.
+     */
+    void store(int index, int result) {
+        data.put(index, (byte) result);
+    }
+
+    /**
+     * @return WIN, DRAW or LOSS for the side to move, from a probe result other
+     *         than UNKNOWN
+     */
+    public static int wdl(int result) {
+        if (result == DRAW) {
+            return DRAW;
+        }
+        return (distance(result) % 2 == 1) ? WIN : LOSS;
+    }
+
+    /**
+     * @return the plies to mate of a won or lost probe result
+     */
+    public static int distance(int result) {
+        return result - 1;
+    }
+
+    // **************************************************************************
+    // * INDEXING
+    // **************************************************************************
+
+    /**
+     * Finds the index of a position with this table's material.
+     *
+     * @param pos      the position
+     * @param mirrored see probe()
+     * @return the index, or -1 if a piece is outside its domain
+     */
+    int index(Position pos, boolean mirrored) {
+        int side = mirrored ? 1 - pos.getSideToMove() : pos.getSideToMove();
+        long index = 0;
+        int nth = 0;
+        for (int i = codes.length - 1; i >= 0; i--) {
+            int code = codes[i];
+            nth = (i + 1 < codes.length && codes[i + 1] == code) ? nth + 1 : 0;
+            int sq;
+            if (mirrored) {
+                sq = pos.pieceSquare(swapColor(code), nth);
+                sq = Bitboard.square(Bitboard.file(sq), Bitboard.RANKS - 1 - Bitboard.rank(sq));
+            } else {
+                sq = pos.pieceSquare(code, nth);
+            }
+            int slot = SLOTS[code][sq];
+            if (slot < 0) {
+                return -1;
+            }
+            index = index * radix[i] + slot;
+        }
+        return (int) (index * 2 + side);
+    }
+
+    /**
+     * Sets up the position of an index on an empty board.
+     *
+     * @param index   the index
+     * @param pos     an empty position (its side to move is set)
+     * @param squares array receiving the square of each piece, generals first
+     * @return false if two pieces would share a square (nothing is put then)
+     */
+    boolean decode(int index, Position pos, int[] squares) {
+        pos.setSideToMove(index % 2);
+        index /= 2;
+        for (int i = 0; i < codes.length; i++) {
+            squares[i] = DOMAINS[codes[i]][index % radix[i]];
+            index /= radix[i];
+            for (int j = 0; j < i; j++) {
+                if (squares[j] == squares[i]) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < codes.length; i++) {
+            pos.put(squares[i], codes[i]);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of positions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of pieces, with the generals
+     */
+    int pieces() {
+        return codes.length;
+    }
+
+    /**
+     * @return the codes of the pieces other than the generals, in order
+     */
+    int[] getPieces() {
+        return Arrays.copyOfRange(codes, 2, codes.length);
+    }
+
+    public long getMaterialKey() {
+        return materialKey;
+    }
+
+    /**
+     * @return the name of the material, e.g. "KRkaa"
+     */
+    public String getName() {
+        return name(getPieces());
+    }
+
+    // **************************************************************************
+    // * MATERIAL
+    // **************************************************************************
+
+    /**
+     * @return a key for the pieces other than the generals on a board
+     */
+    public static long materialKey(Position pos) {
+        long key = 0;
+        for (int code = 1; code < Position.PIECE_CODES; code++) {
+            if (Position.typeOf(code) != PieceType.GENERAL.ordinal()) {
+                key += (long) pos.pieceCount(code) << (3 * code);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return the material key of the same board with the colors swapped
+     */
+    public static long mirroredMaterialKey(Position pos) {
+        long key = 0;
+        for (int code = 1; code < Position.PIECE_CODES; code++) {
+            if (Position.typeOf(code) != PieceType.GENERAL.ordinal()) {
+                key += (long) pos.pieceCount(code) << (3 * swapColor(code));
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return the material key of a list of piece codes (without generals)
+     */
+    static long materialKey(int[] pieces) {
+        long key = 0;
+        for (int code : pieces) {
+            key += 1L << (3 * code);
+        }
+        return key;
+    }
+
+    /**
+     * @return the name of a material, e.g. "KRkaa"
+     */
+    static String name(int[] pieces) {
+        int[] sorted = pieces.clone();
+        Arrays.sort(sorted);
+        StringBuilder red = new StringBuilder("K");
+        StringBuilder black = new StringBuilder("k");
+        for (int code : sorted) {
+            (Position.sideOf(code) == Position.RED ? red : black).append(Position.fenLetter(code));
+        }
+        return red.append(black).toString();
+    }
+
+    /**
+     * Parses the name of a material.
+     *
+     * @param name the FEN letters of the pieces, e.g. "KRkaa" (the generals
+     *             may be left out)
+     * @return the codes of the pieces other than the generals
+     * @throws IllegalArgumentException if a letter is not a piece
+     */
+    public static int[] parse(String name) {
+        int[] pieces = new int[name.length()];
+        int count = 0;
+        for (char letter : name.toCharArray()) {
+            int code = Position.fenCode(letter);
+            if (code == Position.EMPTY) {
+                throw new IllegalArgumentException("Not a piece: " + letter);
+            }
+            if (Position.typeOf(code) != PieceType.GENERAL.ordinal()) {
+                pieces[count++] = code;
+            }
+        }
+        return Arrays.copyOf(pieces, count);
+    }
+
+    /**
+     * @return the code of the same piece type of the other side
+     */
+    static int swapColor(int code) {
+        return Position.code(1 - Position.sideOf(code), Position.typeOf(code));
+    }
+
+    /**
+     * Helper for the static tables: every square a piece can reach from its
+     * starting squares, moving on an otherwise empty board.
+     */
+    private static int[] domain(Position start, int code) {
+        Position empty = new Position();
+        long[] attacks = new long[2];
+        boolean[] reached = new boolean[Bitboard.SQUARES];
+        int[] queue = new int[Bitboard.SQUARES];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < start.pieceCount(code); i++) {
+            reached[start.pieceSquare(code, i)] = true;
+            queue[tail++] = start.pieceSquare(code, i);
+        }
+        while (head < tail) {
+            empty.attacks(queue[head++], code, attacks);
+            for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+                boolean attacked = ((attacks[0] & Bitboard.lo(sq))
+                        | (attacks[1] & Bitboard.hi(sq))) != 0;
+                if (attacked && !reached[sq]) {
+                    reached[sq] = true;
+                    queue[tail++] = sq;
+                }
+            }
+        }
+        int[] squares = new int[tail];
+        int n = 0;
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            if (reached[sq]) {
+                squares[n++] = sq;
+            }
+        }
+        return squares;
+    }
+}
@@ -0,0 +1,245 @@
+package org.cis120.chinesechess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates endgame tablebases (see Tablebase) by retrograde analysis.
+ *
+ * The positions of a table are resolved in order of their distance to mate.
+ * Pass 0 finds the positions where the side to move has no legal moves, which
+ * are lost (see ChineseChess.inCheckmate). Pass n then finds, among the
+ * positions not yet resolved:
+ *
+ * - for odd n, the positions with a move to a position lost in n - 1 plies
+ *   (won in n plies);
+ * - for even n, the positions where every move leads to a won position, one
+ *   of them won in n - 1 plies (lost in n plies).
+ *
+ * A capture leads to a table with fewer pieces, so those tables are generated
+ * first and kept in memory. The passes stop once no pass can resolve anything
+ * more, and the positions left are draws: neither side can force mate, so
+ * play could go on forever. Repetition rules are not taken into account.
+ *
+ * Only legal positions are resolved: those with the side that is not to move
+ * in check cannot occur, and stay draws in the table.
+ *
+ */
+public class TablebaseGenerator {
+
+    private final Map<Long, Tablebase> tables = new HashMap<>(); // generated, by material key
+    private final List<Tablebase> generated = new ArrayList<>(); // in the order generated
+
+    /**
+     * Generates the table of a material, and any tables it depends on.
+     *
+     * @param name the name of the material, e.g. "KRkaa" (see Tablebase)
+     * @return the table
+     * @throws IllegalArgumentException if there are more than
+     *                                  Tablebases.MAX_PIECES pieces besides
+     *                                  the generals, or the table would be too
+     *                                  large
+     */
+    public Tablebase generate(String name) {
+        int[] pieces = Tablebase.parse(name);
+        if (pieces.length > Tablebases.MAX_PIECES) {
+            throw new IllegalArgumentException("At most " + Tablebases.MAX_PIECES
+                    + " pieces besides the generals: " + name);
+        }
+        return generate(pieces);
+    }
+
+    /**
+     * @return every table generated so far, smallest material first
+     */
+    public List<Tablebase> getTables() {
+        return generated;
+    }
+
+    /**
+     * Helper for generate: generates the tables of the material left after each
+     * capture, then this one.
+     */
+    private Tablebase generate(int[] pieces) {
+        Tablebase table = tables.get(Tablebase.materialKey(pieces));
+        if (table != null) {
+            return table;
+        }
+        table = new Tablebase(pieces); // first, in case it is too large
+        int maxSubDistance = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            int[] rest = new int[pieces.length - 1];
+            System.arraycopy(pieces, 0, rest, 0, i);
+            System.arraycopy(pieces, i + 1, rest, i, rest.length - i);
+            Tablebase sub = generate(rest);
+            maxSubDistance = Math.max(maxSubDistance, maxDistance(sub));
+        }
+
+        resolve(table, maxSubDistance);
+
+        tables.put(table.getMaterialKey(), table);
+        generated.add(table);
+        return table;
+    }
+
+    /**
+     * Helper for generate: the passes of the retrograde analysis.
+     */
+    private void resolve(Tablebase table, int maxSubDistance) {
+        Position pos = new Position();
+        int[] squares = new int[table.pieces()];
+        MoveList moves = new MoveList();
+
+        // the legal positions, which are all unresolved at first
+        BitSet open = new BitSet(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            if (table.decode(i, pos, squares)) {
+                if (!pos.inCheck(1 - pos.getSideToMove())) {
+                    open.set(i);
+                }
+                clear(pos, squares);
+            }
+        }
+
+        // a pass that resolves nothing ends the analysis, unless a capture
+        // may still lead to a longer mate in a smaller table
+        boolean changed = true;
+        for (int n = 0; changed || n <= maxSubDistance + 1; n++) {
+            if (n > Tablebase.MAX_DISTANCE) {
+                throw new IllegalStateException("Mate too long for a table: " + table.getName());
+            }
+            changed = false;
+            for (int i = open.nextSetBit(0); i >= 0; i = open.nextSetBit(i + 1)) {
+                table.decode(i, pos, squares);
+                moves.clear();
+                pos.generateLegalMoves(pos.getSideToMove(), moves);
+                boolean resolved;
+                if (n == 0) {
+                    resolved = moves.size() == 0;
+                } else if (n % 2 == 1) {
+                    resolved = canWin(pos, moves, table, n);
+                } else {
+                    resolved = mustLose(pos, moves, table, n);
+                }
+                clear(pos, squares);
+
+                // a result stored now is never the one a later position of the
+                // same pass looks for (a win in n, not a loss in n - 1, or the
+                // other way around), so the table is updated in place
+                if (resolved) {
+                    table.store(i, n + 1);
+                    open.clear(i);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper for resolve: whether a move leads to a position lost in n - 1 plies.
+     */
+    private boolean canWin(Position pos, MoveList moves, Tablebase table, int n) {
+        for (int i = 0; i < moves.size(); i++) {
+            int result = successor(pos, moves.get(i), table);
+            if (result != Tablebase.DRAW && Tablebase.distance(result) == n - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper for resolve: whether every move leads to a won position, one of
+     * them won in n - 1 plies.
+     */
+    private boolean mustLose(Position pos, MoveList moves, Tablebase table, int n) {
+        boolean longest = false;
+        for (int i = 0; i < moves.size(); i++) {
+            int result = successor(pos, moves.get(i), table);
+            if (result == Tablebase.DRAW || Tablebase.wdl(result) != Tablebase.WIN
+                    || Tablebase.distance(result) >= n) {
+                return false;
+            }
+            longest |= Tablebase.distance(result) == n - 1;
+        }
+        return longest;
+    }
+
+    /**
+     * Helper for resolve: the result (so far) of the position after a move, from
+     * this table or, after a capture, from the smaller table.
+     */
+    private int successor(Position pos, int move, Tablebase table) {
+        pos.makeMove(move);
+        Tablebase next = Move.isCapture(move) ? tables.get(Tablebase.materialKey(pos)) : table;
+        int result = next.result(next.index(pos, false));
+        pos.unmakeMove();
+        return result;
+    }
+
+    /**
+     * Helper for resolve: removes the pieces a decoded position was set up with.
+     */
+    private static void clear(Position pos, int[] squares) {
+        for (int sq : squares) {
+            pos.remove(sq);
+        }
+    }
+
+    /**
+     * Helper for generate: the longest mate in a table.
+     */
+    private static int maxDistance(Tablebase table) {
+        int max = 0;
+        for (int i = 0; i < table.size(); i++) {
+            int result = table.result(i);
+            if (result != Tablebase.DRAW) {
+                max = Math.max(max, Tablebase.distance(result));
+            }
+        }
+        return max;
+    }
+
+    // **************************************************************************
+    // * MAIN METHOD
+    // **************************************************************************
+
+    /**
+     * Generates tables and writes them (with the smaller tables they depend on)
+     * to a directory.
+     *
+     * Usage: TablebaseGenerator directory material... (e.g. KRkaa KNPkb)
+     *
+     * @param args the command line arguments
+     * @throws IOException if a table cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: TablebaseGenerator directory material...");
+            return;
+        }
+        Path directory = Files.createDirectories(Path.of(args[0]));
+        TablebaseGenerator generator = new TablebaseGenerator();
+        for (int i = 1; i < args.length; i++) {
+            long start = System.nanoTime();
+            generator.generate(args[i]);
+            System.out.println(args[i] + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        for (Tablebase table : generator.getTables()) {
+            int[] counts = new int[3];
+            for (int i = 0; i < table.size(); i++) {
+                int result = table.result(i);
+                counts[Tablebase.wdl(result) + 1]++;
+            }
+            System.out.println(table.write(directory) + ": " + table.size() + " positions, "
+                    + counts[2] + " wins, " + counts[1] + " draws, " + counts[0] + " losses, "
+                    + "longest mate " + maxDistance(table) + " plies");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.cis120.chinesechess;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of endgame tablebases (see Tablebase), for probing any position. A
+ * table also answers for the material with the colors swapped, by probing
+ * the position turned top to bottom.
+ *
+ * Note: Tables are only added before the set is used, so the search threads
+ * can probe it at once without locks.
+ *
+ */
+public class Tablebases {
+
+    public static final int MAX_PIECES = 5; // pieces besides the generals
+
+    private final Map<Long, Tablebase> tables = new HashMap<>(); // by material key
+    private int maxPieces; // the most pieces of any table
+
+    /**
+     * Constructor creates an empty set.
+     */
+    public Tablebases() {
+    }
+
+    /**
+     * Opens every table file (*.xqtb) in a directory.
+     *
+     * @param directory the directory
+     * @return the tables
+     * @throws IOException if the directory or a table file cannot be read
+     */
+    public static Tablebases open(Path directory) throws IOException {
+        Tablebases set = new Tablebases();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.xqtb")) {
+            for (Path file : files) {
+                set.add(Tablebase.open(file));
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Adds a table to the set.
+     */
+    public void add(Tablebase table) {
+        tables.put(table.getMaterialKey(), table);
+        maxPieces = Math.max(maxPieces, table.pieces() - 2);
+    }
+
+    /**
+     * @return the number of tables
+     */
+    public int size() {
+        return tables.size();
+    }
+
+    /**
+     * Looks up a position.
+     *
+     * @param pos the position
+     * @return Tablebase.UNKNOWN if no table has the position, otherwise
+     *         Tablebase.DRAW or 1 + the plies to mate (see Tablebase.wdl())
+     */
+    public int probe(Position pos) {
+        int pieces = Long.bitCount(pos.occupiedLo()) + Long.bitCount(pos.occupiedHi()) - 2;
+        if (pieces > maxPieces || pos.generalSquare(Position.RED) < 0
+                || pos.generalSquare(Position.BLACK) < 0) {
+            return Tablebase.UNKNOWN;
+        }
+        Tablebase table = tables.get(Tablebase.materialKey(pos));
+        if (table != null) {
+            return table.probe(pos, false);
+        }
+        table = tables.get(Tablebase.mirroredMaterialKey(pos));
+        if (table != null) {
+            return table.probe(pos, true);
+        }
+        return Tablebase.UNKNOWN;
+    }
+}
@@ -0,0 +1,167 @@
+package org.cis120.chinesechess;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Decides how long a search may think about one move (see Search).
+ *
+ * There are two limits. The hard limit is a deadline: the search polls it and
+ * stops as soon as it passes, keeping the deepest iteration it completed. The
+ * soft limit is only checked between iterations: a new iteration is started
+ * while less than half of it has passed, since the next iteration usually
+ * takes longer than all of the earlier ones together.
+ *
+ * The soft limit moves with the search. It shrinks when the best move has
+ * stayed the same for several iterations, grows when the best move has just
+ * changed, and grows further when the score of the last iteration fell
+ * sharply (a fail low), since a better move may still be found. It never
+ * passes the hard limit.
+ *
+ * Note: Times are given in milliseconds and measured with System.nanoTime()
+ * (or the clock given to setClock()), from the call to start() (Search calls
+ * it when the search begins).
+ *
+ */
+public class TimeManager {
+
+    private static final long OVERHEAD = 20; // margin for e.g. drawing the move (ms)
+    private static final int MOVES_TO_GO = 30; // moves the clock must last if unknown
+    private static final int FAIL_LOW_MARGIN = 50; // score drop that counts as a fail low
+    private static final int STABLE_ITERATIONS = 3; // same best move this often is stable
+
+    private final long optimum; // nanoseconds to think in a normal search
+    private final long maximum; // the hard limit (nanoseconds)
+
+    private LongSupplier clock = System::nanoTime; // the time in nanoseconds
+    private long start; // the clock's time when the search began
+    private int bestMove; // best move of the last completed iteration
+    private int score; // score of the last completed iteration
+    private int stableIterations; // completed iterations with the same best move
+    private boolean changed; // the best move changed in the last iteration
+    private boolean failLow; // the score fell sharply in the last iteration
+
+    /**
+     * Constructor
+     *
+     * @param optimumMillis the time to think in a normal search
+     * @param maximumMillis the hard limit
+     */
+    private TimeManager(long optimumMillis, long maximumMillis) {
+        this.maximum = Math.max(1, maximumMillis) * 1000000L;
+        this.optimum = Math.min(Math.max(1, optimumMillis) * 1000000L, maximum);
+        start();
+    }
+
+    /**
+     * Creates a time manager for a game played with a clock.
+     *
+     * @param remainingMillis the time left on the side to move's clock
+     * @param incrementMillis the time added to the clock after every move
+     * @param movesToGo       the moves to play before the clock is refilled, or 0
+     *                        if the remaining time must last the whole game
+     * @return the time manager
+     */
+    public static TimeManager forClock(long remainingMillis, long incrementMillis, int movesToGo) {
+        long usable = Math.max(1, remainingMillis - OVERHEAD);
+        int moves = (movesToGo > 0) ? Math.min(movesToGo, MOVES_TO_GO) : MOVES_TO_GO;
+
+        long optimum = usable / moves + incrementMillis * 3 / 4;
+        // never risk more than a third of the clock (plus the increment) on one move
+        long maximum = Math.min(optimum * 5, usable / 3 + incrementMillis);
+        return new TimeManager(Math.min(optimum, usable), Math.min(maximum, usable));
+    }
+
+    /**
+     * Creates a time manager that thinks for a fixed time per move.
+     *
+     * @param millis the time per move (the hard limit)
+     * @return the time manager
+     */
+    public static TimeManager forMoveTime(long millis) {
+        long limit = Math.max(1, millis - OVERHEAD);
+        return new TimeManager(limit, limit);
+    }
+
+    /**
+     * Replaces the clock, so that tests can control the time. Call start()
+     * afterwards to restart the clock.
+     *
+     * @param clock the time in nanoseconds, like System.nanoTime()
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    // **************************************************************************
+    // * SEARCH CONTROL
+    // **************************************************************************
+
+    /**
+     * Starts the clock for a new search and forgets the earlier iterations.
+     */
+    public void start() {
+        start = clock.getAsLong();
+        bestMove = Move.NONE;
+        stableIterations = 0;
+        changed = false;
+        failLow = false;
+    }
+
+    /**
+     * Records the result of a completed iteration.
+     *
+     * @param move  the best move of the iteration
+     * @param value the score of the iteration
+     */
+    public void iterationDone(int move, int value) {
+        changed = bestMove != Move.NONE && move != bestMove;
+        failLow = bestMove != Move.NONE && value < score - FAIL_LOW_MARGIN;
+        stableIterations = (move == bestMove) ? stableIterations + 1 : 0;
+        bestMove = move;
+        score = value;
+    }
+
+    /**
+     * @return true if there is time for another iteration
+     */
+    public boolean canStartIteration() {
+        return elapsedNanos() < softLimit() / 2;
+    }
+
+    /**
+     * @return true if the hard limit has passed (the search must stop)
+     */
+    public boolean hardLimitReached() {
+        return elapsedNanos() >= maximum;
+    }
+
+    /**
+     * @return the time since the search started, in milliseconds
+     */
+    public long elapsedMillis() {
+        return elapsedNanos() / 1000000L;
+    }
+
+    /**
+     * Helper for the search control: the soft limit after the last iteration.
+     */
+    private long softLimit() {
+        long limit = optimum;
+        if (changed) {
+            limit = limit * 3 / 2;
+        } else if (stableIterations >= STABLE_ITERATIONS) {
+            limit = limit * 3 / 5;
+        }
+        if (failLow) {
+            limit *= 2;
+        }
+        return Math.min(limit, maximum);
+    }
+
+    /**
+     * Helper for the search control: the time since the search started.
+     */
+    private long elapsedNanos() {
+        return clock.getAsLong() - start;
+    }
+}
@@ -0,0 +1,278 @@
+package org.cis120.chinesechess;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed-size hash table of search results, keyed by Position hash (see
+ * Zobrist). Each entry stores the depth searched, the bound type, the score
+ * and the best move found.
+ *
+ * Entries are packed into a single long (see the static decoders below), so
+ * probing never allocates. The table is split into buckets of two slots. The
+ * first slot keeps the deepest result (it is only replaced by a search at
+ * least as deep, by the same position, or by anything once the entry is from
+ * an older search); the second slot is always replaced.
+ *
+ * The table has no locks, so any number of search threads can share it.
+ * Every slot holds two longs: the key XOR the entry, and the entry. If two
+ * threads write the same slot at once and the halves of different writes are
+ * mixed, the key no longer matches when it is checked, and the probe simply
+ * misses.
+ *
+ * Note: The table can be kept off-heap in direct ByteBuffers, so that very
+ * large tables are not scanned or copied by the garbage collector. A single
+ * buffer holds at most 1 GB, so larger tables are split into several.
+ *
+ */
+public class TranspositionTable {
+
+    // bound types (0 marks an empty entry)
+    public static final int EXACT = 1; // the score is exact
+    public static final int LOWER = 2; // the score is a lower bound (fail high)
+    public static final int UPPER = 3; // the score is an upper bound (fail low)
+
+    public static final int MAX_DEPTH = 255;
+
+    private static final int BUCKET_BYTES = 32; // two slots of two longs
+    private static final int CHUNK_SHIFT = 30; // 1 GB per direct buffer
+    private static final int GENERATIONS = 64;
+
+    private final long buckets; // a power of two
+    private final long[] heap; // the slots (on-heap tables)
+    private final ByteBuffer[] chunks; // the slots (off-heap tables)
+    private int generation; // number of the current search (mod 64)
+
+    /**
+     * Constructor creates an empty table on the Java heap.
+     *
+     * @param megabytes the size of the table (rounded down to a power of two)
+     */
+    public TranspositionTable(int megabytes) {
+        this(megabytes, false);
+    }
+
+    /**
+     * Constructor creates an empty table.
+     *
+     * @param megabytes the size of the table (rounded down to a power of two)
+     * @param offHeap   true to keep the table in direct (off-heap) memory
+     * @throws IllegalArgumentException if the size is less than one megabyte, or
+     *                                  too large for an on-heap table
+     */
+    public TranspositionTable(long megabytes, boolean offHeap) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Table size must be at least 1 MB");
+        }
+        long bytes = Long.highestOneBit(megabytes) << 20;
+        this.buckets = bytes / BUCKET_BYTES;
+
+        if (offHeap) {
+            int count = (int) Math.max(1, bytes >>> CHUNK_SHIFT);
+            int chunkBytes = (int) Math.min(bytes, 1L << CHUNK_SHIFT);
+            this.heap = null;
+            this.chunks = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                // direct buffers start out zeroed, i.e. empty
+                chunks[i] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+            }
+        } else {
+            if (bytes / Long.BYTES > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Table too large for the heap");
+            }
+            this.heap = new long[(int) (bytes / Long.BYTES)];
+            this.chunks = null;
+        }
+    }
+
+    // **************************************************************************
+    // * PROBE + STORE
+    // **************************************************************************
+
+    /**
+     * Looks up a position.
+     *
+     * @param key the hash of the position
+     * @return the packed entry (see the decoders), or 0 if the position is not
+     *         in the table
+     */
+    public long probe(long key) {
+        long slot = (key & (buckets - 1)) * 4;
+        for (int i = 0; i < 4; i += 2) {
+            long data = read(slot + i + 1);
+            if (data != 0 && (read(slot + i) ^ data) == key) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stores the result of a search.
+     *
+     * @param key   the hash of the position
+     * @param depth the depth searched (clamped to 0 to MAX_DEPTH)
+     * @param bound the bound type: EXACT, LOWER or UPPER
+     * @param score the score (must fit in a short)
+     * @param move  the best move (see Move), or Move.NONE
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        depth = Math.max(0, Math.min(MAX_DEPTH, depth));
+        long slot = (key & (buckets - 1)) * 4;
+        long first = read(slot + 1);
+
+        // the depth-preferred slot takes the entry if it is not worse off for it
+        boolean sameKey = first != 0 && (read(slot) ^ first) == key;
+        if (first == 0 || sameKey || depth >= depth(first)
+                || generation(first) != generation) {
+            // keep the old best move when a search of the same position found none
+            if (sameKey && move == Move.NONE) {
+                move = move(first);
+            }
+            writeSlot(slot, key, pack(depth, bound, score, move));
+        } else {
+            long second = read(slot + 3);
+            if (move == Move.NONE && second != 0 && (read(slot + 2) ^ second) == key) {
+                move = move(second);
+            }
+            writeSlot(slot + 2, key, pack(depth, bound, score, move));
+        }
+    }
+
+    /**
+     * Marks the start of a new search, so that entries from earlier searches
+     * are replaced first.
+     */
+    public void newSearch() {
+        generation = (generation + 1) % GENERATIONS;
+    }
+
+    /**
+     * Empties the table.
+     */
+    public void clear() {
+        if (heap != null) {
+            java.util.Arrays.fill(heap, 0);
+        } else {
+            for (ByteBuffer chunk : chunks) {
+                for (int i = 0; i < chunk.capacity(); i += Long.BYTES) {
+                    chunk.putLong(i, 0);
+                }
+            }
+        }
+        generation = 0;
+    }
+
+    /**
+     * @return how full the table is, in permille, estimated from the first
+     *         thousand slots
+     */
+    public int hashfull() {
+        long slots = Math.min(1000, buckets * 2);
+        int used = 0;
+        for (long i = 0; i < slots; i++) {
+            long data = read(i * 2 + 1);
+            if (data != 0 && generation(data) == generation) {
+                used++;
+            }
+        }
+        return (int) (used * 1000 / slots);
+    }
+
+    /**
+     * @return the number of entries the table can hold
+     */
+    public long capacity() {
+        return buckets * 2;
+    }
+
+    // **************************************************************************
+    // * ENTRIES
+    // **************************************************************************
+
+    // bits 0 to 21 hold the move, 22 to 37 the score, 38 to 45 the depth, 46 and
+    // 47 the bound type and 48 to 53 the generation
+
+    /**
+     * @return the best move of a packed entry (Move.NONE if there is none)
+     */
+    public static int move(long entry) {
+        return (int) (entry & 0x3FFFFF);
+    }
+
+    /**
+     * @return the score of a packed entry
+     */
+    public static int score(long entry) {
+        return (short) (entry >>> 22);
+    }
+
+    /**
+     * @return the depth of a packed entry
+     */
+    public static int depth(long entry) {
+        return (int) (entry >>> 38) & 0xFF;
+    }
+
+    /**
+     * @return the bound type of a packed entry (EXACT, LOWER or UPPER)
+     */
+    public static int bound(long entry) {
+        return (int) (entry >>> 46) & 0x3;
+    }
+
+    /**
+     * Helper for store: packs an entry of the current search.
+     */
+    private long pack(int depth, int bound, int score, int move) {
+        return (move & 0x3FFFFFL)
+                | ((score & 0xFFFFL) << 22)
+                | ((long) depth << 38)
+                | ((long) bound << 46)
+                | ((long) generation << 48);
+    }
+
+    /**
+     * Helper for store: the generation of a packed entry.
+     */
+    private static int generation(long entry) {
+        return (int) (entry >>> 48) & (GENERATIONS - 1);
+    }
+
+    // **************************************************************************
+    // * STORAGE
+    // **************************************************************************
+
+    /**
+     * Helper for the table: writes one slot (key XOR entry, then the entry).
+     */
+    private void writeSlot(long slot, long key, long data) {
+        write(slot, key ^ data);
+        write(slot + 1, data);
+    }
+
+    /**
+     * Helper for the table: reads the long at an index of the table.
+     */
+    private long read(long index) {
+        if (heap != null) {
+            return heap[(int) index];
+        }
+        long offset = index * Long.BYTES;
+        return chunks[(int) (offset >>> CHUNK_SHIFT)]
+                .getLong((int) (offset & ((1L << CHUNK_SHIFT) - 1)));
+    }
+
+    /**
+     * Helper for the table: writes the long at an index of the table.
+     */
+    private void write(long index, long value) {
+        if (heap != null) {
+            heap[(int) index] = value;
+            return;
+        }
+        long offset = index * Long.BYTES;
+        chunks[(int) (offset >>> CHUNK_SHIFT)]
+                .putLong((int) (offset & ((1L << CHUNK_SHIFT) - 1)), value);
+    }
+}
@@ -0,0 +1,49 @@
+package org.cis120.chinesechess;
+
+/**
+ * Random keys for Zobrist hashing, generated once when the class is loaded.
+ *
+ * The hash of a position is the XOR of one key for every (piece code, square)
+ * pair on the board, plus the side key when black is to move. Adding or
+ * removing a piece, or passing the turn, changes the hash by a single XOR, so
+ * Position keeps its hash up to date as moves are made and taken back.
+ *
+ * Note: The keys come from a fixed-seed generator (SplitMix64), so the same
+ * position has the same hash in every run. Hashes can therefore be stored in
+ * files, e.g. in an opening book.
+ *
+ */
+public final class Zobrist {
+
+    private static final long SEED = 0x43484553534C4F4EL; // any fixed value works
+
+    // keys by [piece code][square] (the row of the EMPTY code is all zero)
+    static final long[][] PIECES = new long[Position.PIECE_CODES][Bitboard.SQUARES];
+
+    // XORed into the hash when black is to move
+    static final long SIDE;
+
+    static {
+        long state = SEED;
+        for (int code = 1; code < Position.PIECE_CODES; code++) {
+            for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+                state += 0x9E3779B97F4A7C15L;
+                PIECES[code][sq] = mix(state);
+            }
+        }
+        state += 0x9E3779B97F4A7C15L;
+        SIDE = mix(state);
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * Helper for the key setup: the SplitMix64 output function.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
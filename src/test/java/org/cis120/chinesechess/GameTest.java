@@ -1,8 +1,21 @@
 package org.cis120.chinesechess;
 
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.JLabel;
 
 import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -34,10 +47,10 @@ public class GameTest {
         /**
          * Add pieces to the board.
          *
+         * @param p     the square to put the piece on
          * @param piece the piece to be added
          */
-        public void add(Piece piece) {
-            Point p = piece.getPosition();
+        public void add(Point p, Piece piece) {
             board[p.x][p.y] = piece;
         }
 
@@ -56,16 +69,15 @@ public class GameTest {
     // SOLDIERS
     @Test
     public void testSoldierConstructor() {
-        Point p = new Point(0, 0);
         Color c = Color.red;
 
-        Piece piece = new Soldier(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.SOLDIER, c); // get the shared piece
 
-        // test instance variables position, color, text, selection
-        assertEquals(new Point(0, 0), piece.getPosition());
+        // test instance variables type, color, text, and that the piece is shared
+        assertEquals(PieceType.SOLDIER, piece.getType());
         assertEquals(Color.red, piece.getColor());
         assertEquals("兵", piece.getText());
-        assertFalse(piece.getIsSelected());
+        assertSame(piece, Piece.of(Position.code(Position.sideOf(c), PieceType.SOLDIER)));
     }
 
     @Test
@@ -73,11 +85,11 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.red;
 
-        Piece piece = new Soldier(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.SOLDIER, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(1, ms.size());
         assertTrue(ms.contains(new Point(3, 7)));
     }
@@ -87,11 +99,11 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.black;
 
-        Piece piece = new Soldier(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.SOLDIER, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(3, ms.size());
         assertTrue(ms.contains(new Point(3, 9)));
         assertTrue(ms.contains(new Point(4, 8)));
@@ -101,16 +113,15 @@ public class GameTest {
     // CANNONS
     @Test
     public void testCannonConstructor() {
-        Point p = new Point(0, 0);
         Color c = Color.red;
 
-        Piece piece = new Cannon(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.CANNON, c); // get the shared piece
 
-        // test instance variables position, color, text, selection
-        assertEquals(new Point(0, 0), piece.getPosition());
+        // test instance variables type, color, text, and that the piece is shared
+        assertEquals(PieceType.CANNON, piece.getType());
         assertEquals(Color.red, piece.getColor());
         assertEquals("炮", piece.getText());
-        assertFalse(piece.getIsSelected());
+        assertSame(piece, Piece.of(Position.code(Position.sideOf(c), PieceType.CANNON)));
     }
 
     @Test
@@ -118,11 +129,11 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.red;
 
-        Piece piece = new Cannon(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.CANNON, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(17, ms.size());
 
         // test vertical moves
@@ -152,15 +163,15 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.black;
 
-        Piece piece = new Cannon(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.CANNON, c); // construct piece
         TestBoard tb = new TestBoard();
-        tb.add(piece);
+        tb.add(p, piece);
 
-        Piece blocker = new Soldier(new Point(3, 2), c, false);
-        tb.add(blocker);
+        Piece blocker = Piece.of(PieceType.SOLDIER, c);
+        tb.add(new Point(3, 2), blocker);
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
 
         assertEquals(14, ms.size());
 
@@ -191,18 +202,18 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.black;
 
-        Piece piece = new Cannon(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.CANNON, c); // construct piece
         TestBoard tb = new TestBoard();
-        tb.add(piece);
+        tb.add(p, piece);
 
-        Piece blocker = new Soldier(new Point(3, 2), c, false);
-        tb.add(blocker);
+        Piece blocker = Piece.of(PieceType.SOLDIER, c);
+        tb.add(new Point(3, 2), blocker);
 
-        Piece target = new Soldier(new Point(3, 0), c, false);
-        tb.add(target);
+        Piece target = Piece.of(PieceType.SOLDIER, c);
+        tb.add(new Point(3, 0), target);
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(15, ms.size());
 
         // test target
@@ -232,16 +243,15 @@ public class GameTest {
     // chariots
     @Test
     public void testChariotConstructor() {
-        Point p = new Point(0, 0);
         Color c = Color.red;
 
-        Piece piece = new Chariot(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.CHARIOT, c); // get the shared piece
 
-        // test instance variables position, color, text, selection
-        assertEquals(new Point(0, 0), piece.getPosition());
+        // test instance variables type, color, text, and that the piece is shared
+        assertEquals(PieceType.CHARIOT, piece.getType());
         assertEquals(Color.red, piece.getColor());
         assertEquals("車", piece.getText());
-        assertFalse(piece.getIsSelected());
+        assertSame(piece, Piece.of(Position.code(Position.sideOf(c), PieceType.CHARIOT)));
     }
 
     @Test
@@ -249,11 +259,11 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.red;
 
-        Piece piece = new Chariot(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.CHARIOT, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(17, ms.size());
 
         // test vertical moves
@@ -283,15 +293,15 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.black;
 
-        Piece piece = new Chariot(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.CHARIOT, c); // construct piece
         TestBoard tb = new TestBoard();
-        tb.add(piece);
+        tb.add(p, piece);
 
-        Piece blocker = new Soldier(new Point(3, 2), c, false);
-        tb.add(blocker);
+        Piece blocker = Piece.of(PieceType.SOLDIER, c);
+        tb.add(new Point(3, 2), blocker);
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
 
         assertEquals(15, ms.size());
 
@@ -320,16 +330,15 @@ public class GameTest {
     // horses
     @Test
     public void testHorseConstructor() {
-        Point p = new Point(0, 0);
         Color c = Color.red;
 
-        Piece piece = new Horse(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.HORSE, c); // get the shared piece
 
-        // test instance variables position, color, text, selection
-        assertEquals(new Point(0, 0), piece.getPosition());
+        // test instance variables type, color, text, and that the piece is shared
+        assertEquals(PieceType.HORSE, piece.getType());
         assertEquals(Color.red, piece.getColor());
         assertEquals("馬", piece.getText());
-        assertFalse(piece.getIsSelected());
+        assertSame(piece, Piece.of(Position.code(Position.sideOf(c), PieceType.HORSE)));
     }
 
     @Test
@@ -337,11 +346,11 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.red;
 
-        Piece piece = new Horse(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.HORSE, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(8, ms.size());
 
         assertTrue(ms.contains(new Point(4, 10)));
@@ -359,15 +368,15 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.black;
 
-        Piece piece = new Horse(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.HORSE, c); // construct piece
         TestBoard tb = new TestBoard();
-        tb.add(piece);
+        tb.add(p, piece);
 
-        tb.add(new Soldier(new Point(3, 7), c, false));
-        tb.add(new Soldier(new Point(3, 9), c, false));
+        tb.add(new Point(3, 7), Piece.of(PieceType.SOLDIER, c));
+        tb.add(new Point(3, 9), Piece.of(PieceType.SOLDIER, c));
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
 
         assertEquals(4, ms.size());
 
@@ -386,11 +395,11 @@ public class GameTest {
         Point p = new Point(3, 9);
         Color c = Color.red;
 
-        Piece piece = new Horse(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.HORSE, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(6, ms.size());
 
         assertFalse(ms.contains(new Point(4, 11)));
@@ -406,16 +415,15 @@ public class GameTest {
     // elephants
     @Test
     public void testElephantConstructor() {
-        Point p = new Point(0, 0);
         Color c = Color.red;
 
-        Piece piece = new Elephant(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.ELEPHANT, c); // get the shared piece
 
-        // test instance variables position, color, text, selection
-        assertEquals(new Point(0, 0), piece.getPosition());
+        // test instance variables type, color, text, and that the piece is shared
+        assertEquals(PieceType.ELEPHANT, piece.getType());
         assertEquals(Color.red, piece.getColor());
         assertEquals("相", piece.getText());
-        assertFalse(piece.getIsSelected());
+        assertSame(piece, Piece.of(Position.code(Position.sideOf(c), PieceType.ELEPHANT)));
     }
 
     @Test
@@ -423,11 +431,11 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.red;
 
-        Piece piece = new Elephant(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.ELEPHANT, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(4, ms.size());
 
         assertTrue(ms.contains(new Point(5, 10)));
@@ -441,15 +449,15 @@ public class GameTest {
         Point p = new Point(3, 8);
         Color c = Color.black;
 
-        Piece piece = new Elephant(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.ELEPHANT, c); // construct piece
         TestBoard tb = new TestBoard();
-        tb.add(piece);
+        tb.add(p, piece);
 
-        tb.add(new Soldier(new Point(4, 7), c, false));
-        tb.add(new Soldier(new Point(2, 9), c, false));
+        tb.add(new Point(4, 7), Piece.of(PieceType.SOLDIER, c));
+        tb.add(new Point(2, 9), Piece.of(PieceType.SOLDIER, c));
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
 
         assertEquals(2, ms.size());
 
@@ -464,11 +472,11 @@ public class GameTest {
         Point p = new Point(3, 9);
         Color c = Color.red;
 
-        Piece piece = new Elephant(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.ELEPHANT, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(2, ms.size());
 
         assertFalse(ms.contains(new Point(5, 11)));
@@ -480,16 +488,15 @@ public class GameTest {
     // guards
     @Test
     public void testGuardConstructor() {
-        Point p = new Point(0, 0);
         Color c = Color.red;
 
-        Piece piece = new Guard(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GUARD, c); // get the shared piece
 
-        // test instance variables position, color, text, selection
-        assertEquals(new Point(0, 0), piece.getPosition());
+        // test instance variables type, color, text, and that the piece is shared
+        assertEquals(PieceType.GUARD, piece.getType());
         assertEquals(Color.red, piece.getColor());
         assertEquals("士", piece.getText());
-        assertFalse(piece.getIsSelected());
+        assertSame(piece, Piece.of(Position.code(Position.sideOf(c), PieceType.GUARD)));
     }
 
     @Test
@@ -497,11 +504,11 @@ public class GameTest {
         Point p = new Point(4, 1);
         Color c = Color.black;
 
-        Piece piece = new Guard(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GUARD, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(4, ms.size());
 
         assertTrue(ms.contains(new Point(5, 2)));
@@ -515,11 +522,11 @@ public class GameTest {
         Point p = new Point(4, 1);
         Color c = Color.red;
 
-        Piece piece = new Guard(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GUARD, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(0, ms.size());
     }
 
@@ -528,11 +535,11 @@ public class GameTest {
         Point p = new Point(3, 2);
         Color c = Color.black;
 
-        Piece piece = new Guard(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GUARD, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(1, ms.size());
 
         assertTrue(ms.contains(new Point(4, 1)));
@@ -546,11 +553,11 @@ public class GameTest {
         Point p = new Point(3, 1);
         Color c = Color.black;
 
-        Piece piece = new Guard(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GUARD, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(2, ms.size());
 
         assertTrue(ms.contains(new Point(4, 0)));
@@ -562,16 +569,15 @@ public class GameTest {
     // generals
     @Test
     public void testGeneralConstructor() {
-        Point p = new Point(0, 0);
         Color c = Color.red;
 
-        Piece piece = new General(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GENERAL, c); // get the shared piece
 
-        // test instance variables position, color, text, selection
-        assertEquals(new Point(0, 0), piece.getPosition());
+        // test instance variables type, color, text, and that the piece is shared
+        assertEquals(PieceType.GENERAL, piece.getType());
         assertEquals(Color.red, piece.getColor());
         assertEquals("帥", piece.getText());
-        assertFalse(piece.getIsSelected());
+        assertSame(piece, Piece.of(Position.code(Position.sideOf(c), PieceType.GENERAL)));
     }
 
     @Test
@@ -579,11 +585,11 @@ public class GameTest {
         Point p = new Point(4, 1);
         Color c = Color.black;
 
-        Piece piece = new General(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GENERAL, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(4, ms.size());
 
         assertTrue(ms.contains(new Point(5, 1)));
@@ -597,11 +603,11 @@ public class GameTest {
         Point p = new Point(4, 1);
         Color c = Color.red;
 
-        Piece piece = new General(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GENERAL, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(0, ms.size());
     }
 
@@ -610,11 +616,11 @@ public class GameTest {
         Point p = new Point(3, 2);
         Color c = Color.black;
 
-        Piece piece = new General(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GENERAL, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(2, ms.size());
 
         assertTrue(ms.contains(new Point(4, 2)));
@@ -628,11 +634,11 @@ public class GameTest {
         Point p = new Point(3, 1);
         Color c = Color.black;
 
-        Piece piece = new General(p, c, false); // construct piece
+        Piece piece = Piece.of(PieceType.GENERAL, c); // construct piece
         TestBoard tb = new TestBoard();
 
         // test move set
-        Set<Point> ms = piece.getMoveSet(tb.array());
+        Set<Point> ms = piece.getMoveSet(p, tb.array());
         assertEquals(3, ms.size());
 
         assertTrue(ms.contains(new Point(3, 0)));
@@ -650,4 +656,1543 @@ public class GameTest {
 
     }
 
+    // **************************************************************************
+    // * POSITION TESTS
+    // **************************************************************************
+
+    @Test
+    public void testPositionStartingOccupancy() {
+        Position pos = new ChineseChess().getPosition();
+
+        // 16 pieces on each side, generals on the center file
+        assertEquals(16, Bitboard.count(pos.sideLo(Position.RED), pos.sideHi(Position.RED)));
+        assertEquals(16, Bitboard.count(pos.sideLo(Position.BLACK), pos.sideHi(Position.BLACK)));
+        assertEquals(Bitboard.square(4, 9), pos.generalSquare(Position.RED));
+        assertEquals(Bitboard.square(4, 0), pos.generalSquare(Position.BLACK));
+        assertEquals(
+                Position.code(Position.RED, PieceType.CANNON),
+                pos.pieceAt(Bitboard.square(1, 7))
+        );
+        assertEquals(Position.EMPTY, pos.pieceAt(Bitboard.square(4, 4)));
+    }
+
+    @Test
+    public void testPositionMoveAndCapture() {
+        Position pos = new Position();
+        int chariot = Position.code(Position.RED, PieceType.CHARIOT);
+        int soldier = Position.code(Position.BLACK, PieceType.SOLDIER);
+        pos.put(Bitboard.square(0, 9), chariot);
+        pos.put(Bitboard.square(0, 3), soldier);
+
+        assertEquals(soldier, pos.move(Bitboard.square(0, 9), Bitboard.square(0, 3)));
+        assertEquals(chariot, pos.pieceAt(Bitboard.square(0, 3)));
+        assertEquals(Position.EMPTY, pos.pieceAt(Bitboard.square(0, 9)));
+        assertEquals(0, Bitboard.count(pos.sideLo(Position.BLACK), pos.sideHi(Position.BLACK)));
+    }
+
+    @Test
+    public void testPositionFlyingGeneralCheck() {
+        TestBoard tb = new TestBoard();
+        tb.add(new Point(4, 9), Piece.of(PieceType.GENERAL, Color.red));
+        tb.add(new Point(4, 0), Piece.of(PieceType.GENERAL, Color.black));
+        Position pos = Position.fromBoard(tb.array(), Position.RED);
+
+        // nothing between the generals
+        assertTrue(pos.inCheck(Position.RED));
+        assertTrue(pos.inCheck(Position.BLACK));
+
+        // a blocking piece breaks the line
+        pos.put(Bitboard.square(4, 5), Position.code(Position.RED, PieceType.HORSE));
+        assertFalse(pos.inCheck(Position.RED));
+        assertFalse(pos.inCheck(Position.BLACK));
+    }
+
+    @Test
+    public void testPositionCannonCheckNeedsScreen() {
+        TestBoard tb = new TestBoard();
+        tb.add(new Point(4, 9), Piece.of(PieceType.GENERAL, Color.red));
+        tb.add(new Point(3, 0), Piece.of(PieceType.GENERAL, Color.black));
+        tb.add(new Point(4, 2), Piece.of(PieceType.CANNON, Color.black));
+        Position pos = Position.fromBoard(tb.array(), Position.RED);
+
+        assertFalse(pos.inCheck(Position.RED));
+        pos.put(Bitboard.square(4, 5), Position.code(Position.RED, PieceType.SOLDIER));
+        assertTrue(pos.inCheck(Position.RED));
+    }
+
+    @Test
+    public void testIsAttackedHorseLeg() {
+        Position pos = new Position();
+        int target = Bitboard.square(4, 9);
+        pos.put(Bitboard.square(3, 7), Position.code(Position.BLACK, PieceType.HORSE));
+        assertTrue(pos.isAttacked(target, Position.BLACK));
+        assertFalse(pos.isAttacked(target, Position.RED));
+
+        // a piece next to the target square does not block the horse
+        pos.put(Bitboard.square(4, 8), Position.code(Position.RED, PieceType.GUARD));
+        assertTrue(pos.isAttacked(target, Position.BLACK));
+
+        // a piece on the horse's leg does
+        pos.put(Bitboard.square(3, 8), Position.code(Position.RED, PieceType.GUARD));
+        assertFalse(pos.isAttacked(target, Position.BLACK));
+    }
+
+    @Test
+    public void testIsAttackedSlidersAndSoldiers() {
+        Position pos = new Position();
+        int target = Bitboard.square(4, 9);
+        pos.put(Bitboard.square(4, 2), Position.code(Position.BLACK, PieceType.CANNON));
+        pos.put(Bitboard.square(0, 9), Position.code(Position.BLACK, PieceType.CHARIOT));
+        assertTrue(pos.isAttacked(target, Position.BLACK)); // chariot along the rank
+        assertFalse(pos.isAttacked(Bitboard.square(4, 5), Position.BLACK)); // no screen
+
+        // a screen on the file lets the cannon attack, a blocker stops the chariot
+        pos.put(Bitboard.square(4, 6), Position.code(Position.RED, PieceType.SOLDIER));
+        pos.put(Bitboard.square(2, 9), Position.code(Position.RED, PieceType.ELEPHANT));
+        assertTrue(pos.isAttacked(target, Position.BLACK));
+        pos.remove(Bitboard.square(4, 2));
+        assertFalse(pos.isAttacked(target, Position.BLACK));
+
+        // soldiers attack forwards only
+        pos.put(Bitboard.square(4, 8), Position.code(Position.BLACK, PieceType.SOLDIER));
+        assertTrue(pos.isAttacked(target, Position.BLACK));
+        assertFalse(pos.isAttacked(Bitboard.square(4, 7), Position.BLACK));
+    }
+
+    @Test
+    public void testGetBoardBuiltFromPosition() {
+        ChineseChess cc = new ChineseChess();
+        Piece[][] board = cc.getBoard();
+
+        assertTrue(board[0][9] instanceof Chariot);
+        assertEquals(Color.red, board[0][9].getColor());
+        assertSame(Piece.of(PieceType.CHARIOT, Color.red), board[0][9]);
+        assertTrue(board[4][0] instanceof General);
+        assertNull(board[4][4]);
+    }
+
+    @Test
+    public void testBoardsShareFlyweights() {
+        ChineseChess cc = new ChineseChess();
+        Piece[][] first = cc.getBoard();
+        Piece[][] second = cc.getBoard();
+
+        // both chariots of a color are the same object, in every board built
+        assertSame(first[0][9], first[8][9]);
+        assertSame(first[0][9], second[0][9]);
+        assertNotSame(first[0][9], first[0][0]); // black chariot
+
+        // the piece in play is a square; the piece itself has no selection state
+        cc.playMove(new Point(1, 7));
+        assertSame(Piece.of(PieceType.CANNON, Color.red), cc.getPieceInPlay());
+        cc.playMove(new Point(2, 8)); // illegal, deselects
+        assertEquals(GameState.END_MOVE_MODE2, cc.getGameState());
+    }
+
+    @Test
+    public void testPlayMoveUpdatesPosition() {
+        ChineseChess cc = new ChineseChess();
+        cc.playMove(new Point(1, 7)); // select red cannon
+        assertEquals(GameState.BEGIN_MOVE_MODE, cc.getGameState());
+        assertEquals(new Point(1, 7), cc.getSquareInPlay());
+
+        cc.playMove(new Point(4, 7)); // move it to the center file
+        assertNull(cc.getPiece(1, 7));
+        assertTrue(cc.getPiece(4, 7) instanceof Cannon);
+        assertFalse(cc.isRedTurn());
+        assertEquals(1, cc.getNumTurns());
+    }
+
+    @Test
+    public void testMailboxSentinels() {
+        byte[] cells = Mailbox.emptyBoard();
+        int corner = Mailbox.cell(Bitboard.square(0, 0));
+
+        // every step up to two squares off the corner lands on a sentinel
+        assertEquals(Mailbox.OFFBOARD, cells[corner + Mailbox.WEST]);
+        assertEquals(Mailbox.OFFBOARD, cells[corner + 2 * Mailbox.NORTH]);
+        for (int[] jumps : Mailbox.HORSE_JUMPS) {
+            for (int jump : jumps) {
+                int cell = corner + jump;
+                assertEquals(cells[cell] == Mailbox.OFFBOARD, Mailbox.square(cell) < 0);
+            }
+        }
+        assertEquals(Bitboard.square(1, 2), Mailbox.square(corner + 2 * Mailbox.SOUTH + 1));
+    }
+
+    @Test
+    public void testPositionHorseAttacksStayOnBoard() {
+        Position pos = new Position();
+        int horse = Position.code(Position.RED, PieceType.HORSE);
+        pos.put(Bitboard.square(3, 9), horse);
+
+        long[] attacks = new long[2];
+        pos.attacks(Bitboard.square(3, 9), horse, attacks);
+
+        // the legacy Horse move set has six points here, two of them off the board
+        assertEquals(4, Bitboard.count(attacks[0], attacks[1]));
+        assertTrue(Bitboard.test(attacks[0], attacks[1], Bitboard.square(1, 8)));
+        assertTrue(Bitboard.test(attacks[0], attacks[1], Bitboard.square(5, 8)));
+        assertTrue(Bitboard.test(attacks[0], attacks[1], Bitboard.square(2, 7)));
+        assertTrue(Bitboard.test(attacks[0], attacks[1], Bitboard.square(4, 7)));
+    }
+
+    @Test
+    public void testAttackTablesLeapers() {
+        int corner = Bitboard.square(0, 9);
+
+        // a horse in the corner has two targets, blocked by different legs
+        assertEquals(2, AttackTables.HORSE_TO[corner].length);
+        for (int i = 0; i < 2; i++) {
+            int to = AttackTables.HORSE_TO[corner][i];
+            int leg = AttackTables.HORSE_LEG[corner][i];
+            assertTrue(Math.abs(Bitboard.file(to) - Bitboard.file(leg))
+                    + Math.abs(Bitboard.rank(to) - Bitboard.rank(leg)) == 2);
+        }
+
+        // elephant targets are blocked by the midpoint of the diagonal
+        int elephant = Bitboard.square(2, 9);
+        assertEquals(2, AttackTables.ELEPHANT_TO[elephant].length);
+        int eyes = AttackTables.ELEPHANT_EYE[elephant][0] + AttackTables.ELEPHANT_EYE[elephant][1];
+        assertEquals(Bitboard.square(1, 8) + Bitboard.square(3, 8), eyes);
+
+        // soldiers step sideways only after crossing the river
+        int before = Bitboard.square(4, 6);
+        int after = Bitboard.square(4, 4);
+        assertEquals(1, Bitboard.count(AttackTables.SOLDIER_LO[Position.RED][before],
+                AttackTables.SOLDIER_HI[Position.RED][before]));
+        assertEquals(3, Bitboard.count(AttackTables.SOLDIER_LO[Position.RED][after],
+                AttackTables.SOLDIER_HI[Position.RED][after]));
+
+        // the general in the palace center has four steps, guards in the corner one
+        assertEquals(4, Bitboard.count(AttackTables.GENERAL_LO[Position.BLACK][13],
+                AttackTables.GENERAL_HI[Position.BLACK][13]));
+        assertEquals(1, Bitboard.count(AttackTables.GUARD_LO[Position.BLACK][3],
+                AttackTables.GUARD_HI[Position.BLACK][3]));
+    }
+
+    @Test
+    public void testAttackTablesSliders() {
+        // a line with pieces on squares 0 (the slider), 3 and 6
+        int occ = (1 << 0) | (1 << 3) | (1 << 6);
+
+        assertEquals(0b1110, AttackTables.RANK_CHARIOT[0][occ]);
+        assertEquals(0b0110, AttackTables.RANK_CANNON_QUIET[0][occ]);
+        assertEquals(1 << 6, AttackTables.RANK_CANNON_CAPTURE[0][occ]);
+        assertEquals(0, AttackTables.FILE_CANNON_CAPTURE[0][1 | (1 << 9)]);
+
+        // patterns map back onto the right squares of the bitboard
+        assertTrue(Bitboard.test(AttackTables.fileLo(4, 1 << 9), AttackTables.fileHi(4, 1 << 9),
+                Bitboard.square(4, 9)));
+        assertTrue(Bitboard.test(AttackTables.rankLo(8, 1), AttackTables.rankHi(8, 1),
+                Bitboard.square(0, 8)));
+    }
+
+    // **************************************************************************
+    // * MOVE GENERATION TESTS
+    // **************************************************************************
+
+    @Test
+    public void testMoveEncoding() {
+        int cannon = Position.code(Position.RED, PieceType.CANNON);
+        int horse = Position.code(Position.BLACK, PieceType.HORSE);
+        int move = Move.encode(Bitboard.square(1, 7), Bitboard.square(1, 0), cannon, horse);
+
+        assertEquals(Bitboard.square(1, 7), Move.from(move));
+        assertEquals(Bitboard.square(1, 0), Move.to(move));
+        assertEquals(cannon, Move.piece(move));
+        assertEquals(horse, Move.captured(move));
+        assertTrue(Move.isCapture(move));
+        assertEquals("b2xb9", Move.toString(move));
+    }
+
+    @Test
+    public void testGenerateStartingMoves() {
+        Position pos = new ChineseChess().getPosition();
+        MoveList list = new MoveList();
+        pos.generateMoves(Position.RED, list);
+
+        // the standard opening position has 44 moves, all of them legal
+        assertEquals(44, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(Position.RED, Position.sideOf(Move.piece(list.get(i))));
+            assertTrue(pos.isLegal(list.get(i)));
+        }
+
+        // the list is reused, not appended to
+        pos.generateMoves(Position.BLACK, list);
+        assertEquals(44, list.size());
+    }
+
+    /**
+     * Helper for make/unmake tests: asserts that two positions hold the same
+     * pieces and side to move.
+     */
+    private static void assertSamePosition(Position expected, Position actual) {
+        for (int code = 0; code < Position.PIECE_CODES; code++) {
+            assertEquals(expected.piecesLo(code), actual.piecesLo(code));
+            assertEquals(expected.piecesHi(code), actual.piecesHi(code));
+        }
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            assertEquals(expected.pieceAt(sq), actual.pieceAt(sq));
+        }
+        assertEquals(expected.getSideToMove(), actual.getSideToMove());
+    }
+
+    @Test
+    public void testMakeUnmakeRestoresPosition() {
+        Position pos = new ChineseChess().getPosition();
+        Position start = pos.copy();
+        MoveList list = new MoveList();
+
+        // play the first legal move several times over, then take everything back
+        for (int ply = 0; ply < 40; ply++) {
+            pos.generateMoves(pos.getSideToMove(), list);
+            for (int i = 0; i < list.size(); i++) {
+                if (pos.isLegal(list.get(i))) {
+                    pos.makeMove(list.get(i));
+                    break;
+                }
+            }
+        }
+        assertEquals(40, pos.getUndoSize());
+        while (pos.getUndoSize() > 0) {
+            pos.unmakeMove();
+        }
+        assertSamePosition(start, pos);
+        assertThrows(IllegalStateException.class, pos::unmakeMove);
+    }
+
+    @Test
+    public void testMakeMoveRecordsCapture() {
+        Position pos = new Position();
+        int chariot = Position.code(Position.RED, PieceType.CHARIOT);
+        int horse = Position.code(Position.BLACK, PieceType.HORSE);
+        pos.put(Bitboard.square(0, 9), chariot);
+        pos.put(Bitboard.square(0, 0), horse);
+
+        // the capture is read from the board, not from the packed move
+        pos.makeMove(Move.encode(Bitboard.square(0, 9), Bitboard.square(0, 0), chariot, 0));
+        assertEquals(horse, Move.captured(pos.lastMove()));
+        assertEquals(Position.BLACK, pos.getSideToMove());
+
+        pos.unmakeMove();
+        assertEquals(horse, pos.pieceAt(Bitboard.square(0, 0)));
+        assertEquals(chariot, pos.pieceAt(Bitboard.square(0, 9)));
+        assertEquals(Position.RED, pos.getSideToMove());
+    }
+
+    @Test
+    public void testUndoTakesBackClickedMove() {
+        ChineseChess cc = new ChineseChess();
+        assertFalse(cc.canUndo());
+
+        cc.playMove(new Point(1, 7));
+        cc.playMove(new Point(4, 7));
+        assertTrue(cc.canUndo());
+
+        cc.undo();
+        assertTrue(cc.getPiece(1, 7) instanceof Cannon);
+        assertNull(cc.getPiece(4, 7));
+        assertTrue(cc.isRedTurn());
+        assertEquals(0, cc.getNumTurns());
+        assertEquals(GameState.END_MOVE_MODE1, cc.getGameState());
+    }
+
+    @Test
+    public void testIsLegalRejectsMoveIntoCheck() {
+        TestBoard tb = new TestBoard();
+        tb.add(new Point(4, 9), Piece.of(PieceType.GENERAL, Color.red));
+        tb.add(new Point(3, 0), Piece.of(PieceType.GENERAL, Color.black));
+        Position pos = Position.fromBoard(tb.array(), Position.RED);
+
+        int general = Position.code(Position.RED, PieceType.GENERAL);
+        int left = Move.encode(Bitboard.square(4, 9), Bitboard.square(3, 9), general, 0);
+        int up = Move.encode(Bitboard.square(4, 9), Bitboard.square(4, 8), general, 0);
+
+        // stepping onto the black general's file is a flying general check
+        assertFalse(pos.isLegal(left));
+        assertTrue(pos.isLegal(up));
+        assertEquals(general, pos.pieceAt(Bitboard.square(4, 9))); // move was taken back
+    }
+
+    // **************************************************************************
+    // * LEGAL MOVE GENERATOR TESTS
+    // **************************************************************************
+
+    @Test
+    public void testLegalMovesFlyingGeneralPin() {
+        Position pos = new Position();
+        pos.put(Bitboard.square(4, 9), Position.code(Position.RED, PieceType.GENERAL));
+        pos.put(Bitboard.square(4, 0), Position.code(Position.BLACK, PieceType.GENERAL));
+        pos.put(Bitboard.square(4, 5), Position.code(Position.RED, PieceType.CHARIOT));
+
+        MoveList list = new MoveList();
+        pos.generateLegalMoves(Position.RED, list);
+        int chariotMoves = 0;
+        for (int i = 0; i < list.size(); i++) {
+            int move = list.get(i);
+            if (Move.from(move) == Bitboard.square(4, 5)) {
+                assertEquals(4, Bitboard.file(Move.to(move))); // stays on the file
+                chariotMoves++;
+            }
+        }
+        assertEquals(8, chariotMoves);
+    }
+
+    @Test
+    public void testLegalMovesCannonScreens() {
+        Position pos = new Position();
+        pos.put(Bitboard.square(4, 9), Position.code(Position.RED, PieceType.GENERAL));
+        pos.put(Bitboard.square(3, 0), Position.code(Position.BLACK, PieceType.GENERAL));
+        pos.put(Bitboard.square(4, 7), Position.code(Position.RED, PieceType.HORSE));
+        pos.put(Bitboard.square(4, 6), Position.code(Position.RED, PieceType.SOLDIER));
+        pos.put(Bitboard.square(4, 2), Position.code(Position.BLACK, PieceType.CANNON));
+        pos.put(Bitboard.square(0, 5), Position.code(Position.RED, PieceType.CHARIOT));
+
+        MoveList list = new MoveList();
+        pos.generateLegalMoves(Position.RED, list);
+
+        // either screen may not leave the file, but the soldier can move along it
+        assertEquals(Move.NONE, list.find(Bitboard.square(4, 7), Bitboard.square(3, 5)));
+        assertNotEquals(Move.NONE, list.find(Bitboard.square(4, 6), Bitboard.square(4, 5)));
+
+        // once a screen is gone, a new piece on the file would be the only screen
+        pos.remove(Bitboard.square(4, 7));
+        pos.remove(Bitboard.square(4, 6));
+        pos.generateLegalMoves(Position.RED, list);
+        assertEquals(Move.NONE, list.find(Bitboard.square(0, 5), Bitboard.square(4, 5)));
+        assertNotEquals(Move.NONE, list.find(Bitboard.square(0, 5), Bitboard.square(3, 5)));
+    }
+
+    @Test
+    public void testLegalMovesOnlyEvasionsInCheck() {
+        Position pos = new Position();
+        pos.put(Bitboard.square(4, 9), Position.code(Position.RED, PieceType.GENERAL));
+        pos.put(Bitboard.square(3, 0), Position.code(Position.BLACK, PieceType.GENERAL));
+        pos.put(Bitboard.square(4, 4), Position.code(Position.BLACK, PieceType.CHARIOT));
+        pos.put(Bitboard.square(0, 6), Position.code(Position.RED, PieceType.CHARIOT));
+
+        MoveList list = new MoveList();
+        pos.generateLegalMoves(Position.RED, list);
+
+        // block with the chariot, or step away from both the chariot and the
+        // black general's file
+        assertEquals(2, list.size());
+        assertNotEquals(Move.NONE, list.find(Bitboard.square(0, 6), Bitboard.square(4, 6)));
+        assertNotEquals(Move.NONE, list.find(Bitboard.square(4, 9), Bitboard.square(5, 9)));
+    }
+
+    // **************************************************************************
+    // * PIECE LIST TESTS
+    // **************************************************************************
+
+    @Test
+    public void testPieceListsFollowMovesAndCaptures() {
+        Position pos = new ChineseChess().getPosition();
+        int redCannon = Position.code(Position.RED, PieceType.CANNON);
+        int blackHorse = Position.code(Position.BLACK, PieceType.HORSE);
+        assertEquals(5, pos.pieceCount(Position.code(Position.RED, PieceType.SOLDIER)));
+        assertEquals(2, pos.pieceCount(blackHorse));
+
+        // the red cannon takes a black horse, jumping over the black cannon
+        int move = Move.encode(Bitboard.square(1, 7), Bitboard.square(1, 0), redCannon, blackHorse);
+        pos.makeMove(move);
+        assertEquals(1, pos.pieceCount(blackHorse));
+        assertEquals(2, pos.pieceCount(redCannon));
+        boolean found = false;
+        for (int i = 0; i < pos.pieceCount(redCannon); i++) {
+            found |= pos.pieceSquare(redCannon, i) == Bitboard.square(1, 0);
+        }
+        assertTrue(found);
+
+        pos.unmakeMove();
+        assertEquals(2, pos.pieceCount(blackHorse));
+        assertEquals(Position.code(Position.RED, PieceType.GENERAL),
+                pos.pieceAt(pos.generalSquare(Position.RED)));
+    }
+
+    @Test
+    public void testGetPieceSquaresOnlyLivePieces() {
+        TestBoard tb = new TestBoard();
+        tb.add(new Point(4, 9), Piece.of(PieceType.GENERAL, Color.red));
+        tb.add(new Point(0, 9), Piece.of(PieceType.CHARIOT, Color.red));
+        tb.add(new Point(3, 0), Piece.of(PieceType.GENERAL, Color.black));
+        ChineseChess cc = new ChineseChess();
+        cc.setBoard(tb.array());
+
+        assertEquals(2, cc.getPieceSquares(Color.red).size());
+        assertEquals(1, cc.getPieceSquares(Color.black).size());
+        for (Point p : cc.getPieceSquares(Color.red)) {
+            assertEquals(Color.red, cc.getPiece(p.x, p.y).getColor());
+        }
+    }
+
+    // **************************************************************************
+    // * ZOBRIST HASH TESTS
+    // **************************************************************************
+
+    @Test
+    public void testHashFollowsPlayMoveAndUndo() {
+        ChineseChess cc = new ChineseChess();
+        long start = cc.getHash();
+        assertEquals(cc.getPosition().computeHash(), start);
+
+        cc.playMove(new Point(1, 7)); // red cannon to the center file
+        cc.playMove(new Point(4, 7));
+        assertNotEquals(start, cc.getHash());
+        assertEquals(cc.getPosition().computeHash(), cc.getHash());
+
+        cc.undo();
+        assertEquals(start, cc.getHash());
+    }
+
+    @Test
+    public void testHashSameForTranspositions() {
+        Position a = new ChineseChess().getPosition();
+        Position b = a.copy();
+        int horse = Move.encode(Bitboard.square(1, 9), Bitboard.square(2, 7), 0, 0);
+        int soldier = Move.encode(Bitboard.square(2, 6), Bitboard.square(2, 5), 0, 0);
+        int blackHorse = Move.encode(Bitboard.square(1, 0), Bitboard.square(2, 2), 0, 0);
+        int blackSoldier = Move.encode(Bitboard.square(2, 3), Bitboard.square(2, 4), 0, 0);
+
+        // the same moves in a different order reach the same position
+        a.makeMove(soldier);
+        a.makeMove(blackHorse);
+        a.makeMove(horse);
+        b.makeMove(horse);
+        b.makeMove(blackSoldier);
+        assertNotEquals(a.getHash(), b.getHash()); // black to move vs red to move
+        b.unmakeMove();
+        b.makeMove(blackHorse);
+        b.makeMove(soldier);
+        assertEquals(a.getHash(), b.getHash());
+        assertEquals(a.computeHash(), b.getHash());
+    }
+
+    @Test
+    public void testRepetitions() {
+        Position pos = new ChineseChess().getPosition();
+        int out = Move.encode(Bitboard.square(1, 9), Bitboard.square(2, 7), 0, 0);
+        int back = Move.encode(Bitboard.square(2, 7), Bitboard.square(1, 9), 0, 0);
+        int blackOut = Move.encode(Bitboard.square(1, 0), Bitboard.square(2, 2), 0, 0);
+        int blackBack = Move.encode(Bitboard.square(2, 2), Bitboard.square(1, 0), 0, 0);
+
+        assertEquals(0, pos.repetitions());
+        for (int i = 1; i <= 2; i++) {
+            pos.makeMove(out);
+            pos.makeMove(blackOut);
+            pos.makeMove(back);
+            pos.makeMove(blackBack);
+            assertEquals(i, pos.repetitions());
+        }
+    }
+
+    // **************************************************************************
+    // * TRANSPOSITION TABLE TESTS
+    // **************************************************************************
+
+    @Test
+    public void testTableStoreAndProbe() {
+        TranspositionTable tt = new TranspositionTable(1);
+        long key = new ChineseChess().getHash();
+        int move = Move.encode(Bitboard.square(1, 7), Bitboard.square(4, 7), 2, 0);
+        assertEquals(0, tt.probe(key));
+
+        tt.store(key, 6, TranspositionTable.LOWER, -1234, move);
+        long entry = tt.probe(key);
+        assertEquals(6, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+        assertEquals(-1234, TranspositionTable.score(entry));
+        assertEquals(move, TranspositionTable.move(entry));
+        assertEquals(0, tt.probe(key ^ 1L << 40)); // same bucket, other position
+
+        tt.clear();
+        assertEquals(0, tt.probe(key));
+    }
+
+    @Test
+    public void testTableBucketReplacement() {
+        TranspositionTable tt = new TranspositionTable(1, true); // off-heap
+        long deep = 5;
+        long shallow = deep + (1L << 40); // same bucket
+        long other = deep + (2L << 40);
+
+        tt.store(deep, 8, TranspositionTable.EXACT, 10, Move.NONE);
+        tt.store(shallow, 2, TranspositionTable.EXACT, 20, Move.NONE);
+        assertEquals(8, TranspositionTable.depth(tt.probe(deep))); // depth-preferred
+        assertEquals(20, TranspositionTable.score(tt.probe(shallow))); // always-replace
+
+        tt.store(other, 1, TranspositionTable.UPPER, 30, Move.NONE);
+        assertNotEquals(0, tt.probe(deep));
+        assertEquals(0, tt.probe(shallow));
+
+        // entries from an older search give way
+        tt.newSearch();
+        tt.store(shallow, 1, TranspositionTable.EXACT, 40, Move.NONE);
+        assertEquals(0, tt.probe(deep));
+        assertEquals(40, TranspositionTable.score(tt.probe(shallow)));
+    }
+
+    @Test
+    public void testTableSharedBetweenThreads() throws InterruptedException {
+        TranspositionTable tt = new TranspositionTable(1);
+        Thread[] threads = new Thread[4];
+        boolean[] corrupt = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 200000; i++) {
+                    long key = random.nextLong() & 0xFFFFF;
+                    tt.store(key, i & 15, TranspositionTable.EXACT, (int) (key & 0x7FFF), 0);
+                    long entry = tt.probe(key ^ 0x3);
+                    if (entry != 0 && TranspositionTable.score(entry) != ((key ^ 0x3) & 0x7FFF)) {
+                        corrupt[id] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean c : corrupt) {
+            assertFalse(c); // a probe never returns another position's entry
+        }
+    }
+
+    // **************************************************************************
+    // * PERFT TESTS
+    // **************************************************************************
+
+    private static final String START_FEN =
+            "rnbakabnr/9/1c5c1/p1p1p1p1p/9/9/P1P1P1P1P/1C5C1/9/RNBAKABNR w";
+
+    @Test
+    public void testFenRoundTrip() {
+        Position start = new ChineseChess().getPosition();
+        assertEquals(START_FEN, start.toFen());
+        assertEquals(start.getHash(), Position.fromFen(START_FEN).getHash());
+
+        String fen = "3k5/4a4/9/9/2b6/9/9/4C4/4N4/4K4 b";
+        assertEquals(fen, Position.fromFen(fen).toFen());
+        assertEquals(fen, Position.fromFen(fen.replace('N', 'H')).toFen()); // H for horse
+        assertThrows(IllegalArgumentException.class, () -> Position.fromFen("9/9 w"));
+    }
+
+    @Test
+    public void testPerftStartPosition() {
+        Perft perft = new Perft();
+        Position pos = new ChineseChess().getPosition();
+        assertEquals(1, perft.perft(pos, 0));
+        assertEquals(44, perft.perft(pos, 1));
+        assertEquals(1920, perft.perft(pos, 2));
+        assertEquals(79666, perft.perft(pos, 3));
+        assertEquals(START_FEN, pos.toFen()); // the position is not changed
+    }
+
+    @Test
+    public void testPerftDivideThreadsAndHash() {
+        Position pos = new ChineseChess().getPosition();
+        Map<Integer, Long> single = new Perft().divide(pos, 3);
+        Perft parallel = new Perft(4, 1);
+        Map<Integer, Long> split = parallel.divide(pos, 3);
+        parallel.close();
+
+        assertEquals(44, single.size());
+        assertEquals(single, split);
+        int cannon = Move.encode(Bitboard.square(1, 7), Bitboard.square(4, 7),
+                Position.code(Position.RED, PieceType.CANNON), Position.EMPTY);
+        assertTrue(single.containsKey(cannon));
+    }
+
+    // **************************************************************************
+    // * SEARCH TESTS
+    // **************************************************************************
+
+    @Test
+    public void testSearchFindsMateInOne() {
+        // the chariot on a8 guards the general's rank, so e.g. b1-b9 mates
+        Position pos = Position.fromFen("4k4/R8/9/9/9/9/9/9/1R7/3K5 w");
+        SearchResult result = new Search().search(pos, 2);
+        assertEquals(Search.MATE - 1, result.getScore());
+        assertTrue(Search.isMate(result.getScore()));
+        assertEquals("4k4/R8/9/9/9/9/9/9/1R7/3K5 w", pos.toFen()); // not changed
+
+        // after the best move, black has no legal moves
+        pos.makeMove(result.getBestMove());
+        MoveList replies = new MoveList();
+        pos.generateLegalMoves(Position.BLACK, replies);
+        assertEquals(0, replies.size());
+    }
+
+    @Test
+    public void testSearchPrefersCapture() {
+        // the chariot can take the undefended chariot on the same file
+        Position pos = Position.fromFen("5k3/9/9/9/4r4/9/9/9/4R4/3K5 w");
+        SearchResult result = new Search().search(pos, 3);
+        assertEquals(Bitboard.square(4, 4), Move.to(result.getBestMove()));
+        assertTrue(Move.isCapture(result.getBestMove()));
+        assertTrue(result.getScore() > 0);
+    }
+
+    @Test
+    public void testSearchPrincipalVariationIsLegal() {
+        ChineseChess game = new ChineseChess();
+        long hash = game.getHash();
+        SearchResult result = new Search().search(game, 3);
+        int[] pv = result.getPrincipalVariation();
+        assertTrue(pv.length > 0);
+        assertEquals(pv[0], result.getBestMove());
+        assertEquals(hash, game.getHash()); // the game is not changed
+
+        // every move of the principal variation can be played in turn
+        for (int move : pv) {
+            assertTrue(game.playMove(move));
+        }
+        assertFalse(game.playMove(pv[0])); // no longer legal (or not this side's move)
+    }
+
+    @Test
+    public void testUndoAgainstComputerReturnsToHumanTurn() {
+        ChessBoard board = new ChessBoard(new JLabel());
+        board.setComputerColor(Color.black); // red (the human) to move, so no search
+        ChineseChess cc = board.getGame();
+        cc.playMove(new Point(1, 7));
+        cc.playMove(new Point(4, 7)); // the human's cannon move
+        cc.playMove(new Point(7, 2));
+        cc.playMove(new Point(4, 2)); // the computer's reply
+        assertTrue(cc.isRedTurn());
+
+        // the computer's reply and the human's move are both taken back
+        board.undo();
+        assertTrue(cc.isRedTurn());
+        assertFalse(cc.canUndo());
+        assertTrue(cc.getPiece(1, 7) instanceof Cannon);
+        assertTrue(cc.getPiece(7, 2) instanceof Cannon);
+
+        // while the computer is to move, only the human's move is taken back
+        cc.playMove(new Point(1, 7));
+        cc.playMove(new Point(4, 7));
+        board.undo();
+        assertTrue(cc.isRedTurn());
+        assertFalse(cc.canUndo());
+    }
+
+    // **************************************************************************
+    // * TIME MANAGEMENT TESTS
+    // **************************************************************************
+
+    @Test
+    public void testTimeManagerLimits() {
+        TimeManager clock = TimeManager.forClock(60000, 1000, 0);
+        assertFalse(clock.hardLimitReached());
+        assertTrue(clock.canStartIteration());
+
+        long[] now = new long[1]; // the time in nanoseconds, set by the test
+        TimeManager quick = TimeManager.forMoveTime(1);
+        quick.setClock(() -> now[0]);
+        quick.start();
+        assertFalse(quick.hardLimitReached());
+        now[0] += 5000000; // 5 ms
+        assertTrue(quick.hardLimitReached());
+        assertFalse(quick.canStartIteration());
+        assertEquals(5, quick.elapsedMillis());
+        quick.start(); // restarts the clock
+        assertEquals(0, quick.elapsedMillis());
+        assertFalse(quick.hardLimitReached());
+    }
+
+    @Test
+    public void testSearchMeetsDeadline() {
+        ChineseChess game = new ChineseChess();
+        TimeManager time = TimeManager.forMoveTime(200);
+        SearchResult result = new Search().search(game, time);
+        long millis = time.elapsedMillis(); // from the start of the search
+
+        // the search stops soon after its hard limit (with a wide margin for slow machines)
+        assertTrue(millis < 1200, "took " + millis + " ms");
+        assertTrue(result.getDepth() >= 1);
+        assertTrue(game.isLegalMove(
+                new Point(Bitboard.file(Move.from(result.getBestMove())),
+                        Bitboard.rank(Move.from(result.getBestMove()))),
+                new Point(Bitboard.file(Move.to(result.getBestMove())),
+                        Bitboard.rank(Move.to(result.getBestMove())))));
+    }
+
+    @Test
+    public void testSearchStopReturnsMove() throws InterruptedException {
+        Search search = new Search();
+        SearchResult[] result = new SearchResult[1];
+        Thread thread = new Thread(
+                () -> result[0] = search.search(new ChineseChess().getPosition(), 30)
+        );
+        thread.start();
+        Thread.sleep(100);
+        search.stop();
+        thread.join(2000);
+
+        assertFalse(thread.isAlive());
+        assertTrue(result[0].getDepth() < 30);
+        assertNotEquals(Move.NONE, result[0].getBestMove());
+    }
+
+    @Test
+    public void testSearchStoppedBeforeStartPlaysLegalMove() {
+        Position pos = new ChineseChess().getPosition();
+        Search search = new Search();
+        search.stop(); // before the first search, so it applies to it
+        SearchResult result = search.search(pos, 5);
+        assertEquals(0, result.getDepth());
+
+        MoveList legal = new MoveList();
+        pos.generateLegalMoves(Position.RED, legal);
+        boolean found = false;
+        for (int i = 0; i < legal.size(); i++) {
+            found |= legal.get(i) == result.getBestMove();
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testLateStopDoesNotStopNextSearch() {
+        Position pos = new ChineseChess().getPosition();
+        Search search = new Search();
+        assertEquals(2, search.search(pos, 2).getDepth());
+        search.stop(); // after the search returned
+        assertEquals(3, search.search(pos, 3).getDepth());
+
+        // after prepare(), a stop() applies to the next search
+        search.prepare();
+        search.stop();
+        assertEquals(0, search.search(pos, 3).getDepth());
+        assertEquals(3, search.search(pos, 3).getDepth());
+    }
+
+    // **************************************************************************
+    // * QUIESCENCE + STATIC EXCHANGE TESTS
+    // **************************************************************************
+
+    private static final StaticExchange EXCHANGE = new StaticExchange(); // reused, as in a search
+
+    /**
+     * Helper for the exchange tests: the SEE value of the capture from one square
+     * to another in a FEN position.
+     */
+    private static int see(String fen, int fromX, int fromY, int toX, int toY) {
+        Position pos = Position.fromFen(fen);
+        MoveList list = new MoveList();
+        pos.generateLegalCaptures(pos.getSideToMove(), list);
+        int move = list.find(Bitboard.square(fromX, fromY), Bitboard.square(toX, toY));
+        assertNotEquals(Move.NONE, move);
+        long hash = pos.getHash();
+        int value = EXCHANGE.evaluate(pos, move);
+        assertEquals(hash, pos.getHash()); // the position is restored
+        assertEquals(fen, pos.toFen());
+        return value;
+    }
+
+    @Test
+    public void testLegalCapturesMatchLegalMoves() {
+        Position pos = new ChineseChess().getPosition();
+        MoveList all = new MoveList();
+        MoveList captures = new MoveList();
+        pos.generateLegalMoves(Position.RED, all);
+        pos.generateLegalCaptures(Position.RED, captures);
+
+        int count = 0;
+        for (int i = 0; i < all.size(); i++) {
+            if (Move.isCapture(all.get(i))) {
+                count++;
+                assertEquals(all.get(i), captures.find(Move.from(all.get(i)),
+                        Move.to(all.get(i))));
+            }
+        }
+        assertEquals(2, count); // the cannons can take the horses
+        assertEquals(count, captures.size());
+    }
+
+    @Test
+    public void testSeeCannonNeedsScreen() {
+        // without a screen the cannon on e9 cannot recapture on e6
+        assertEquals(100, see("4ck3/9/9/R3p4/9/9/9/9/9/3K5 w", 0, 3, 4, 3));
+        // a piece on e8 screens it, so the chariot is lost for a soldier
+        assertEquals(-800, see("4ck3/4p4/9/R3p4/9/9/9/9/9/3K5 w", 0, 3, 4, 3));
+    }
+
+    @Test
+    public void testSeeHorseLeg() {
+        assertEquals(-800, see("5k3/9/3n5/9/4p4/9/9/9/4R4/3K5 w", 4, 8, 4, 4));
+        // a piece on the horse's leg stops the recapture
+        assertEquals(100, see("5k3/9/3n5/3p5/4p4/9/9/9/4R4/3K5 w", 4, 8, 4, 4));
+    }
+
+    @Test
+    public void testSeeFlyingGeneral() {
+        // the general cannot recapture onto the open file of the red general
+        assertEquals(200, see("3ka4/9/9/9/9/4R4/9/9/9/4K4 w", 4, 5, 4, 0));
+        assertEquals(-700, see("3ka4/9/9/9/9/4R4/9/9/9/5K3 w", 4, 5, 4, 0));
+    }
+
+    @Test
+    public void testExchangeValuesFollowEvaluation() {
+        int chariot = Evaluation.VALUES[PieceType.CHARIOT.ordinal()];
+        for (PieceType type : PieceType.values()) {
+            int code = Position.code(Position.RED, type);
+            if (type == PieceType.GENERAL) {
+                assertTrue(StaticExchange.value(code) > chariot); // more than anything else
+            } else {
+                assertEquals(Evaluation.VALUES[type.ordinal()], StaticExchange.value(code));
+            }
+        }
+        assertEquals(0, StaticExchange.value(Position.EMPTY));
+    }
+
+    @Test
+    public void testQuiescenceAvoidsDefendedPiece() {
+        // at depth 1 the chariot must still see the cannon recapture on e6
+        Position pos = Position.fromFen("4ck3/4p4/9/R3p4/9/9/9/9/9/3K5 w");
+        SearchResult result = new Search().search(pos, 1);
+        assertNotEquals(Bitboard.square(4, 3), Move.to(result.getBestMove()));
+    }
+
+    // **************************************************************************
+    // * MOVE ORDERING TESTS
+    // **************************************************************************
+
+    @Test
+    public void testMoveOrderingPriorities() {
+        Position pos = new ChineseChess().getPosition();
+        MoveList list = new MoveList();
+        pos.generateLegalMoves(Position.RED, list);
+        int red = Position.RED;
+        int hashMove = list.find(Bitboard.square(0, 6), Bitboard.square(0, 5));
+        int killer = list.find(Bitboard.square(4, 6), Bitboard.square(4, 5));
+        int quiet = list.find(Bitboard.square(2, 6), Bitboard.square(2, 5));
+        int capture = list.find(Bitboard.square(1, 7), Bitboard.square(1, 0));
+        assertNotEquals(Move.NONE, hashMove);
+        assertNotEquals(Move.NONE, capture);
+
+        MoveOrdering ordering = new MoveOrdering(Search.MAX_PLY);
+        ordering.cutoff(killer, 3, 4, Move.NONE, list, 0);
+        assertTrue(ordering.history(killer) > 0);
+
+        int[] scores = new int[list.size()];
+        ordering.score(list, scores, 3, hashMove, Move.NONE);
+        int hashScore = 0;
+        int captureScore = 0;
+        int killerScore = 0;
+        int quietScore = 0;
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == hashMove) {
+                hashScore = scores[i];
+            } else if (list.get(i) == capture) {
+                captureScore = scores[i];
+            } else if (list.get(i) == killer) {
+                killerScore = scores[i];
+            } else if (list.get(i) == quiet) {
+                quietScore = scores[i];
+            }
+        }
+        assertTrue(hashScore > captureScore);
+        assertTrue(captureScore > killerScore);
+        assertTrue(killerScore > quietScore);
+        assertEquals(red, Position.sideOf(Move.piece(killer)));
+
+        // killers belong to their ply
+        ordering.score(list, scores, 4, Move.NONE, Move.NONE);
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == killer) {
+                assertTrue(scores[i] < captureScore && scores[i] == ordering.history(killer));
+            }
+        }
+    }
+
+    @Test
+    public void testMoveOrderingMvvLva() {
+        // the soldier and the cannon can both take the chariot on e5; the
+        // chariot on a0 can also take a soldier
+        Position pos = Position.fromFen("5k3/9/9/9/p3r4/4P4/9/4C4/9/R2K5 w");
+        MoveList list = new MoveList();
+        pos.generateLegalCaptures(Position.RED, list);
+        int[] scores = new int[list.size()];
+        new MoveOrdering(Search.MAX_PLY).score(list, scores, 0, Move.NONE, Move.NONE);
+
+        int best = 0;
+        for (int i = 1; i < list.size(); i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        // the most valuable victim, taken by the least valuable attacker
+        assertEquals(Bitboard.square(4, 4), Move.to(list.get(best)));
+        assertEquals(Position.code(Position.RED, PieceType.SOLDIER), Move.piece(list.get(best)));
+    }
+
+    @Test
+    public void testSearchReusesTable() {
+        TranspositionTable table = new TranspositionTable(1);
+        Position pos = new ChineseChess().getPosition();
+        SearchResult first = new Search(table).search(pos, 4);
+        SearchResult second = new Search(table).search(pos, 4);
+        assertEquals(first.getScore(), second.getScore());
+        assertTrue(second.getNodes() < first.getNodes());
+    }
+
+    // **************************************************************************
+    // * SELECTIVE SEARCH TESTS
+    // **************************************************************************
+
+    @Test
+    public void testNullMove() {
+        Position pos = new ChineseChess().getPosition();
+        long hash = pos.getHash();
+        pos.makeNullMove();
+        assertEquals(Position.BLACK, pos.getSideToMove());
+        assertEquals(pos.computeHash(), pos.getHash());
+        assertEquals(Move.NONE, pos.lastMove());
+
+        // positions before a null move do not count as repetitions
+        pos.makeNullMove();
+        assertEquals(hash, pos.getHash());
+        assertEquals(0, pos.repetitions());
+
+        pos.unmakeMove();
+        pos.unmakeMove();
+        assertEquals(hash, pos.getHash());
+        assertEquals(Position.RED, pos.getSideToMove());
+        assertEquals(0, pos.getUndoSize());
+    }
+
+    /**
+     * Helper for the selective search tests: a search with the selective
+     * techniques switched on or off.
+     */
+    private static Search selectiveSearch(boolean on) {
+        Search search = new Search(new TranspositionTable(1));
+        search.setNullMove(on);
+        search.setLateMoveReductions(on);
+        search.setFutilityPruning(on);
+        search.setRazoring(on);
+        return search;
+    }
+
+    @Test
+    public void testSelectiveSearchToggles() {
+        Position start = new ChineseChess().getPosition();
+        SearchResult pruned = selectiveSearch(true).search(start, 5);
+        SearchResult full = selectiveSearch(false).search(start, 5);
+        assertTrue(pruned.getNodes() * 5 < full.getNodes());
+
+        // the mate is found either way
+        Position mate = Position.fromFen("4k4/R8/9/9/9/9/9/9/1R7/3K5 w");
+        assertEquals(Search.MATE - 1, selectiveSearch(true).search(mate, 4).getScore());
+        assertEquals(Search.MATE - 1, selectiveSearch(false).search(mate, 4).getScore());
+    }
+
+    @Test
+    public void testSelectiveSearchKeepsMaterial() {
+        // the undefended chariot on e5 is still taken with pruning on
+        Position pos = Position.fromFen("5k3/9/9/9/4r4/9/9/9/4R4/3K5 w");
+        SearchResult result = selectiveSearch(true).search(pos, 6);
+        assertEquals(Bitboard.square(4, 4), Move.to(result.getBestMove()));
+        assertTrue(result.getScore() >= 800);
+    }
+
+    // **************************************************************************
+    // * PARALLEL SEARCH TESTS
+    // **************************************************************************
+
+    @Test
+    public void testParallelSearchFindsMate() {
+        ParallelSearch search = new ParallelSearch(4, new TranspositionTable(4));
+        Position pos = Position.fromFen("4k4/R8/9/9/9/9/9/9/1R7/3K5 w");
+        SearchResult result = search.search(pos, 3);
+        search.close();
+
+        assertEquals(Search.MATE - 1, result.getScore());
+        pos.makeMove(result.getBestMove());
+        MoveList replies = new MoveList();
+        pos.generateLegalMoves(Position.BLACK, replies);
+        assertEquals(0, replies.size());
+    }
+
+    @Test
+    public void testParallelSearchReportsScaling() {
+        Position pos = new ChineseChess().getPosition();
+        ParallelSearch search = new ParallelSearch(3, new TranspositionTable(4));
+        SearchResult result = search.search(pos, 6);
+        search.close();
+
+        assertTrue(result.getDepth() >= 6);
+        assertTrue(result.getNodes() > 0);
+        assertTrue(result.getNodesPerSecond() > 0);
+        for (int d = 2; d <= 6; d++) {
+            assertTrue(search.getTimeToDepth(d) >= search.getTimeToDepth(d - 1));
+        }
+        assertEquals(-1, search.getTimeToDepth(7));
+        assertEquals(START_FEN, pos.toFen()); // not changed
+    }
+
+    @Test
+    public void testParallelSearchStopsWithDeadline() {
+        ParallelSearch search = new ParallelSearch(4, new TranspositionTable(4));
+        SearchResult result = search.search(new ChineseChess().getPosition(),
+                TimeManager.forMoveTime(200));
+        long millis = result.getMillis(); // from the start of the search to the last helper
+        search.close();
+
+        // the helpers stop with the main thread (with a wide margin for slow machines)
+        assertTrue(millis < 2000, "took " + millis + " ms");
+        assertNotEquals(Move.NONE, result.getBestMove());
+    }
+
+    @Test
+    public void testParallelSearchStopBeforeStart() {
+        ParallelSearch search = new ParallelSearch(3, new TranspositionTable(4));
+        Position pos = new ChineseChess().getPosition();
+        search.stop(); // before the first search, so it applies to it
+        SearchResult result = search.search(pos, 30);
+        assertEquals(0, result.getDepth());
+        assertNotEquals(Move.NONE, result.getBestMove());
+
+        search.stop(); // after the search returned, so the next one is not stopped
+        assertTrue(search.search(pos, 4).getDepth() >= 4); // a helper may go deeper
+        search.prepare();
+        search.stop();
+        assertEquals(0, search.search(pos, 4).getDepth());
+        search.close();
+    }
+
+    // **************************************************************************
+    // * MULTI-PV TESTS
+    // **************************************************************************
+
+    @Test
+    public void testMultiPvLines() {
+        Search search = new Search(new TranspositionTable(1));
+        search.setMultiPv(3);
+        int[] reported = new int[1];
+        search.setListener((line, result) -> {
+            assertEquals(reported[0] % 3 + 1, line); // lines arrive in order
+            reported[0]++;
+        });
+        SearchResult best = search.search(new ChineseChess(), 4);
+
+        List<SearchResult> lines = search.getLines();
+        assertEquals(3, lines.size());
+        assertEquals(3 * 4, reported[0]); // every line of every iteration
+        assertEquals(best.getBestMove(), lines.get(0).getBestMove());
+        Set<Integer> moves = new HashSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            moves.add(lines.get(i).getBestMove());
+            if (i > 0) {
+                assertTrue(lines.get(i - 1).getScore() >= lines.get(i).getScore());
+            }
+        }
+        assertEquals(3, moves.size()); // three different moves
+    }
+
+    @Test
+    public void testMultiPvFewerLegalMoves() {
+        // the black general has two legal moves (d9 would face the red general)
+        Search search = new Search(new TranspositionTable(1));
+        search.setMultiPv(5);
+        search.search(Position.fromFen("4k4/9/9/9/9/9/9/9/9/3K5 b"), 2);
+        assertEquals(2, search.getLines().size());
+    }
+
+    // **************************************************************************
+    // * EVALUATION TESTS
+    // **************************************************************************
+
+    @Test
+    public void testEvaluationStartPosition() {
+        Position pos = new ChineseChess().getPosition();
+        assertEquals(0, Evaluation.evaluate(pos)); // the sides are mirror images
+        assertEquals(Evaluation.PHASE_MAX, pos.getPhase());
+    }
+
+    @Test
+    public void testEvaluationIncremental() {
+        Position pos = new ChineseChess().getPosition();
+        Random random = new Random(21);
+        MoveList list = new MoveList();
+        for (int game = 0; game < 20; game++) {
+            int played = 0;
+            for (int ply = 0; ply < 80; ply++) {
+                list.clear();
+                pos.generateLegalMoves(pos.getSideToMove(), list);
+                if (list.size() == 0) {
+                    break;
+                }
+                pos.makeMove(list.get(random.nextInt(list.size())));
+                played++;
+                assertEquals(Evaluation.evaluateFromScratch(pos), Evaluation.evaluate(pos));
+                assertEquals(Evaluation.evaluateFromScratch(pos),
+                        Evaluation.evaluate(pos.copy()));
+            }
+            while (played-- > 0) {
+                pos.unmakeMove();
+                assertEquals(Evaluation.evaluateFromScratch(pos), Evaluation.evaluate(pos));
+            }
+            assertEquals(0, Evaluation.evaluate(pos));
+        }
+    }
+
+    @Test
+    public void testEvaluationMirrored() {
+        // the same position with the colors swapped and the board turned over
+        Position red = Position.fromFen("3k5/4a4/4b4/2P6/9/9/6n2/4C4/4A4/4K4 w");
+        Position black = Position.fromFen("4k4/4a4/4c4/6N2/9/9/2p6/4B4/4A4/3K5 b");
+        assertEquals(Evaluation.evaluate(red), Evaluation.evaluate(black));
+        assertEquals(red.getPhase(), black.getPhase());
+    }
+
+    @Test
+    public void testEvaluationPhaseAndSoldiers() {
+        // the phase falls as chariots, horses and cannons leave the board
+        Position pos = new ChineseChess().getPosition();
+        pos.remove(Bitboard.square(0, 0)); // a black chariot
+        assertEquals(Evaluation.PHASE_MAX - 4, pos.getPhase());
+        pos.remove(Bitboard.square(1, 7)); // a red cannon
+        assertEquals(Evaluation.PHASE_MAX - 6, pos.getPhase());
+
+        // a soldier is worth more once it has crossed the river
+        Position home = Position.fromFen("3k5/9/9/9/9/9/4P4/9/9/5K3 w");
+        Position across = Position.fromFen("3k5/9/9/4P4/9/9/9/9/9/5K3 w");
+        assertTrue(Evaluation.evaluate(across) > Evaluation.evaluate(home));
+    }
+
+    // **************************************************************************
+    // * NEURAL NETWORK TESTS
+    // **************************************************************************
+
+    @Test
+    public void testNetworkFileRoundTrip() throws IOException {
+        Network network = Network.random(16, 22);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        network.write(out);
+        Network loaded = Network.load(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(16, loaded.getHidden());
+        Position pos = new ChineseChess().getPosition();
+        assertEquals(new Accumulator(network).evaluate(pos),
+                new Accumulator(loaded).evaluate(pos));
+
+        byte[] bytes = out.toByteArray();
+        bytes[0] = 0;
+        assertThrows(IOException.class, () -> Network.load(new ByteArrayInputStream(bytes)));
+        assertThrows(IOException.class, () -> Network.load(
+                new ByteArrayInputStream(Arrays.copyOf(out.toByteArray(), 100))));
+    }
+
+    @Test
+    public void testNetworkAccumulatorIncremental() {
+        Network network = Network.random(16, 22);
+        Position pos = new ChineseChess().getPosition();
+        Accumulator accumulator = new Accumulator(network);
+        pos.setAccumulator(accumulator);
+        int start = accumulator.evaluate(pos);
+
+        Random random = new Random(22);
+        MoveList list = new MoveList();
+        for (int game = 0; game < 10; game++) {
+            int played = 0;
+            for (int ply = 0; ply < 60; ply++) {
+                list.clear();
+                pos.generateLegalMoves(pos.getSideToMove(), list);
+                if (list.size() == 0) {
+                    break;
+                }
+                pos.makeMove(list.get(random.nextInt(list.size())));
+                played++;
+                // an accumulator computed from scratch agrees
+                assertEquals(new Accumulator(network).evaluate(pos), accumulator.evaluate(pos));
+            }
+            while (played-- > 0) {
+                pos.unmakeMove();
+                assertEquals(new Accumulator(network).evaluate(pos), accumulator.evaluate(pos));
+            }
+            assertEquals(start, accumulator.evaluate(pos));
+        }
+    }
+
+    @Test
+    public void testNetworkMirrored() {
+        // both sides see the board the same way, with their own general at the bottom
+        Network network = Network.random(16, 22);
+        Position red = Position.fromFen("3k5/4a4/4b4/2P6/9/9/6n2/4C4/4A4/4K4 w");
+        Position black = Position.fromFen("4k4/4a4/4c4/6N2/9/9/2p6/4B4/4A4/3K5 b");
+        assertEquals(new Accumulator(network).evaluate(red),
+                new Accumulator(network).evaluate(black));
+    }
+
+    @Test
+    public void testSearchWithNetwork() {
+        Search search = new Search(new TranspositionTable(1));
+        search.setNetwork(Network.random(16, 22));
+        Position pos = new ChineseChess().getPosition();
+        SearchResult result = search.search(pos, 3);
+        assertTrue(pos.isLegal(result.getBestMove()));
+        assertNull(pos.getAccumulator()); // the search used its own copy
+    }
+
+    // **************************************************************************
+    // * EVALUATION CACHE TESTS
+    // **************************************************************************
+
+    @Test
+    public void testEvaluationCacheProbeAndStore() {
+        EvaluationCache cache = new EvaluationCache(1);
+        assertEquals(1024 / 8, cache.capacity());
+        long key = 0x123456789ABCDEF0L;
+        assertEquals(EvaluationCache.MISS, cache.probe(key));
+        cache.store(key, -250);
+        assertEquals(-250, cache.probe(key));
+
+        // a position with the same slot replaces it
+        long other = key ^ (1L << 40);
+        assertEquals(EvaluationCache.MISS, cache.probe(other));
+        cache.store(other, 31);
+        assertEquals(31, cache.probe(other));
+        assertEquals(EvaluationCache.MISS, cache.probe(key));
+
+        assertEquals(5, cache.getProbes());
+        assertEquals(2, cache.getHits());
+        assertEquals(0.4, cache.getHitRate(), 1e-9);
+        cache.clear();
+        assertEquals(0, cache.getProbes());
+        assertEquals(EvaluationCache.MISS, cache.probe(other));
+        assertThrows(IllegalArgumentException.class, () -> new EvaluationCache(0));
+    }
+
+    @Test
+    public void testSearchWithEvaluationCache() {
+        Position pos = new ChineseChess().getPosition();
+        Search uncached = new Search(new TranspositionTable(1));
+        uncached.setEvaluationCache(null);
+        SearchResult expected = uncached.search(pos, 5);
+
+        // the cache saves evaluations, but does not change the search
+        Search cached = new Search(new TranspositionTable(1));
+        SearchResult result = cached.search(pos, 5);
+        assertEquals(expected.getScore(), result.getScore());
+        assertEquals(expected.getNodes(), result.getNodes());
+        assertEquals(expected.getBestMove(), result.getBestMove());
+        assertTrue(cached.getEvaluationCache().getHits() > 0);
+    }
+
+    // **************************************************************************
+    // * TABLEBASE TESTS
+    // **************************************************************************
+
+    /**
+     * Helper for the tablebase tests: the chariot against general tables.
+     */
+    private static Tablebases chariotTables() {
+        TablebaseGenerator generator = new TablebaseGenerator();
+        generator.generate("KRk");
+        Tablebases tablebases = new Tablebases();
+        for (Tablebase table : generator.getTables()) {
+            tablebases.add(table);
+        }
+        return tablebases;
+    }
+
+    @Test
+    public void testTablebaseMaterial() {
+        assertEquals("KRkaa", Tablebase.name(Tablebase.parse("kaaKR")));
+        assertEquals(Tablebase.materialKey(Position.fromFen("3ak4/4a4/9/9/9/9/9/9/9/R3K4 w")),
+                Tablebase.materialKey(Tablebase.parse("KRkaa")));
+        assertThrows(IllegalArgumentException.class, () -> Tablebase.parse("KXk"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new TablebaseGenerator().generate("KRRCCNPk")); // too many pieces
+        assertThrows(IllegalArgumentException.class,
+                () -> new TablebaseGenerator().generate("KRRCkrc")); // too many positions
+    }
+
+    @Test
+    public void testTablebaseAgreesWithSearch() {
+        Tablebases tablebases = chariotTables();
+        assertEquals(2, tablebases.size()); // KRk and Kk
+
+        // the chariot mates in two moves (three plies)
+        Position pos = Position.fromFen("4k4/9/9/9/9/9/9/9/R8/3K5 w");
+        int result = tablebases.probe(pos);
+        assertEquals(Tablebase.WIN, Tablebase.wdl(result));
+        assertEquals(3, Tablebase.distance(result));
+        Search search = new Search(new TranspositionTable(1));
+        assertEquals(Search.MATE - 3, search.search(pos, 4).getScore());
+
+        // black to move can take the chariot
+        pos = Position.fromFen("3k5/3R5/9/9/9/9/9/9/9/4K4 b");
+        assertEquals(Tablebase.DRAW, tablebases.probe(pos));
+
+        // the same positions with the colors swapped use the same table
+        Position mirrored = Position.fromFen("3k5/r8/9/9/9/9/9/9/9/4K4 b");
+        assertEquals(Tablebase.wdl(result), Tablebase.wdl(tablebases.probe(mirrored)));
+        assertEquals(Tablebase.distance(result), Tablebase.distance(tablebases.probe(mirrored)));
+
+        // other material is not in the tables
+        assertEquals(Tablebase.UNKNOWN, tablebases.probe(new ChineseChess().getPosition()));
+        assertEquals(Tablebase.UNKNOWN,
+                tablebases.probe(Position.fromFen("3k5/9/9/9/9/9/9/9/N8/4K4 w")));
+    }
+
+    @Test
+    public void testTablebaseFileRoundTrip(@TempDir Path directory) throws IOException {
+        TablebaseGenerator generator = new TablebaseGenerator();
+        Tablebase table = generator.generate("KPk");
+        for (Tablebase t : generator.getTables()) {
+            t.write(directory);
+        }
+        Tablebases opened = Tablebases.open(directory);
+        assertEquals(2, opened.size());
+
+        Tablebase mapped = Tablebase.open(directory.resolve("KPk.xqtb"));
+        assertEquals(table.size(), mapped.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(table.result(i), mapped.result(i));
+        }
+
+        Path bad = directory.resolve("bad.xqtb");
+        Files.write(bad, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 });
+        assertThrows(IOException.class, () -> Tablebase.open(bad));
+    }
+
+    @Test
+    public void testSearchAndCheckStateUseTablebases() {
+        Tablebases tablebases = chariotTables();
+        Position pos = Position.fromFen("4k4/9/9/9/9/9/9/9/R8/3K5 w");
+        Search search = new Search(new TranspositionTable(1));
+        search.setTablebases(tablebases);
+        SearchResult result = search.search(pos, 1);
+        assertEquals(Search.MATE - 3, result.getScore()); // found without searching to mate
+        assertTrue(search.getTablebaseHits() > 0);
+
+        TestBoard tb = new TestBoard();
+        tb.add(new Point(3, 9), Piece.of(PieceType.GENERAL, Color.red));
+        tb.add(new Point(0, 8), Piece.of(PieceType.CHARIOT, Color.red));
+        tb.add(new Point(4, 0), Piece.of(PieceType.GENERAL, Color.black));
+        ChineseChess cc = new ChineseChess();
+        cc.setBoard(tb.array());
+        assertEquals(Tablebase.UNKNOWN, cc.getTablebaseResult());
+        cc.setTablebases(tablebases);
+        cc.checkState();
+        assertEquals(Tablebase.WIN, Tablebase.wdl(cc.getTablebaseResult()));
+        assertEquals(3, Tablebase.distance(cc.getTablebaseResult()));
+    }
+
+    @Test
+    public void testLongTablebaseMatesAreMateScores() {
+        // every KRk position scored as won in 63 plies for the side to move, so
+        // each move of the root is a loss found at ply 1, 64 plies from the root
+        Tablebase table = new Tablebase(Tablebase.parse("KRk"));
+        for (int i = 0; i < table.size(); i++) {
+            table.store(i, 1 + 63);
+        }
+        Tablebases tablebases = new Tablebases();
+        tablebases.add(table);
+
+        Search search = new Search(new TranspositionTable(1));
+        search.setTablebases(tablebases);
+        SearchResult result = search.search(Position.fromFen("4k4/9/9/9/9/9/9/9/R8/3K5 w"), 30);
+        assertEquals(-(Search.MATE - 64), result.getScore());
+        assertTrue(Search.isMate(result.getScore()));
+        assertEquals(1, result.getDepth()); // a proven mate ends the search
+        assertTrue(Search.isMate(Search.MATE - Search.MAX_PLY - Tablebase.MAX_DISTANCE + 1));
+    }
+
+    // **************************************************************************
+    // * OPENING BOOK TESTS
+    // **************************************************************************
+
+    /**
+     * Helper for the opening book tests: a book of three short games.
+     */
+    private static OpeningBookBuilder threeGames() {
+        OpeningBookBuilder builder = new OpeningBookBuilder(2);
+        builder.addGame("# a comment");
+        builder.addGame("h2-e2 h7-e7 b0-c2 *");
+        builder.addGame("h2-e2 h9-g7 1/2-1/2");
+        builder.addGame("b0-c2 h7-e7 0-1");
+        return builder;
+    }
+
+    @Test
+    public void testOpeningBookBuilderWeights() {
+        OpeningBookBuilder builder = threeGames();
+        assertEquals(3, builder.getGames());
+        OpeningBook book = builder.build();
+
+        Position start = new ChineseChess().getPosition();
+        int first = book.find(start.getHash());
+        assertTrue(first >= 0);
+        // h2-e2 scored 1 in each game; b0-c2 only lost, so it is left out
+        assertEquals(Move.parseSquare("h2"), book.from(first));
+        assertEquals(Move.parseSquare("e2"), book.to(first));
+        assertEquals(2, book.weight(first));
+        assertEquals(0, book.learn(first));
+        assertTrue(first + 1 == book.size() || book.key(first + 1) != start.getHash());
+
+        for (int i = 1; i < book.size(); i++) {
+            assertTrue(book.key(i - 1) <= book.key(i));
+        }
+        assertEquals(-1, book.find(start.getHash() + 1));
+        // the third move is beyond the plies kept
+        assertEquals(4, book.size()); // start, after h2-e2 (2 moves), after b0-c2
+    }
+
+    @Test
+    public void testOpeningBookBuilderRejectsIllegalMoves() {
+        OpeningBookBuilder builder = new OpeningBookBuilder(10);
+        assertThrows(IllegalArgumentException.class, () -> builder.addGame("h2-e5"));
+        assertThrows(IllegalArgumentException.class, () -> builder.addGame("h2-e2 z9-e7"));
+        assertThrows(IllegalArgumentException.class, () -> builder.addGame("castle"));
+    }
+
+    @Test
+    public void testOpeningBookFileAndSelect(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("book.xqbk");
+        assertEquals(4, threeGames().write(file));
+        OpeningBook book = OpeningBook.open(file);
+        assertEquals(4, book.size());
+
+        Position pos = new ChineseChess().getPosition();
+        Random random = new Random(1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("h2-e2", Move.toString(book.select(pos, random)));
+        }
+        pos.makeMove(book.select(pos, random));
+        Set<String> replies = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            replies.add(Move.toString(book.select(pos, random)));
+        }
+        assertEquals(Set.of("h7-e7", "h9-g7"), replies);
+        pos.makeMove(book.select(pos, random));
+        assertEquals(Move.NONE, book.select(pos, random)); // out of the book
+
+        Path bad = directory.resolve("bad.xqbk");
+        Files.write(bad, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 });
+        assertThrows(IOException.class, () -> OpeningBook.open(bad));
+    }
+
+    @Test
+    public void testSearchPlaysFromTheBook() {
+        OpeningBook book = threeGames().build();
+        Search search = new Search(new TranspositionTable(1));
+        search.setBook(book);
+        SearchResult result = search.search(new ChineseChess().getPosition(), 4);
+        assertEquals("h2-e2", Move.toString(result.getBestMove()));
+        assertEquals(0, result.getDepth());
+        assertEquals(0, result.getNodes());
+
+        Position pos = Position.fromFen("4k4/9/9/9/9/9/9/9/R8/3K5 w");
+        result = search.search(pos, 2);
+        assertEquals(2, result.getDepth()); // not in the book, so searched
+        assertTrue(result.getNodes() > 0);
+    }
+
 }